@@ -0,0 +1,52 @@
+package com.Idkode.backend.config.query;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the dashboard read queries off the request threads, see {@link QueryExecutorConfig}.
+ * <p>
+ * Not an {@link java.util.concurrent.Executor} bean on purpose: one would replace the task executor Spring Boot
+ * sets up for async requests.
+ */
+public class QueryExecutor {
+
+    private final ExecutorService executor;
+
+    /**
+     * @param executor the executor, null to run queries on the calling thread
+     */
+    public QueryExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a query
+     *
+     * @param query the query
+     * @return its result, completed exceptionally with what it threw
+     * @throws java.util.concurrent.RejectedExecutionException if too many queries are waiting
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> query) {
+        if (executor == null)
+            return CompletableFuture.completedFuture(call(query));
+        return CompletableFuture.supplyAsync(() -> call(query), executor);
+    }
+
+    private static <T> T call(Callable<T> query) {
+        try {
+            return query.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    void shutdown() {
+        if (executor != null)
+            executor.shutdown();
+    }
+}
@@ -0,0 +1,79 @@
+package com.Idkode.backend.config.query;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class QueryExecutorConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(QueryExecutorConfig.class);
+
+    /**
+     * Runs the dashboard read queries, so request threads are handed back to Tomcat while Mongo answers.
+     * With {@code images.query.async} off they run on the request thread, as a baseline for load tests.
+     * <p>
+     * The pool is as large as the Mongo connection pool: more threads would only wait for a connection.
+     * Queries beyond the queue are rejected with 503 instead of piling up. On Java 21 and later,
+     * {@code images.query.virtual} runs each query on its own virtual thread and the connection pool is the only bound.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public QueryExecutor queryExecutor(@Value("${images.query.async}") boolean async,
+                                       @Value("${mongodb.pool.max-size}") int threads,
+                                       @Value("${images.query.queue-capacity}") int queueCapacity,
+                                       @Value("${images.query.virtual}") boolean virtualThreads,
+                                       MeterRegistry meterRegistry) {
+        if (!async)
+            return new QueryExecutor(null);
+        ExecutorService executor = virtualThreads ? virtualExecutor() : null;
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                        Thread thread = new Thread(runnable, "query-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+        return new QueryExecutor(ExecutorServiceMetrics.monitor(meterRegistry, executor, "query"));
+    }
+
+    private ExecutorService virtualExecutor() {
+        // Virtual threads only exist from Java 21 on, so they are looked up at runtime
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Virtual threads are not available on this JVM, using platform threads for queries");
+            return null;
+        }
+    }
+
+    /**
+     * Sizes the Mongo connection pool for concurrent dashboard queries. A query that cannot get a connection
+     * within {@code mongodb.pool.max-wait-ms} fails instead of hanging its request.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer connectionPool(@Value("${mongodb.pool.max-size}") int maxSize,
+                                                               @Value("${mongodb.pool.min-size}") int minSize,
+                                                               @Value("${mongodb.pool.max-connecting}") int maxConnecting,
+                                                               @Value("${mongodb.pool.max-wait-ms}") long maxWait) {
+        return settings -> settings.applyToConnectionPoolSettings(pool -> pool
+                .maxSize(maxSize)
+                .minSize(Math.min(minSize, maxSize))
+                .maxConnecting(maxConnecting)
+                .maxWaitTime(maxWait, TimeUnit.MILLISECONDS));
+    }
+}
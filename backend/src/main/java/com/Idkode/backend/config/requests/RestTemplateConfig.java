@@ -1,14 +1,69 @@
 package com.Idkode.backend.config.requests;
 
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 @Configuration
 public class RestTemplateConfig {
 
+    /**
+     * Pooled client for the model service. Connections are kept alive between batches,
+     * and every phase of a call is bounded so a hung model cannot hold a detection worker forever.
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient modelHttpClient(@Value("${model.http.max-connections}") int maxConnections,
+                                               @Value("${model.http.connect-timeout-ms}") long connectTimeout,
+                                               @Value("${model.http.read-timeout-ms}") long readTimeout,
+                                               @Value("${model.http.idle-timeout-ms}") long idleTimeout){
+        return httpClient(maxConnections, connectTimeout, readTimeout, idleTimeout);
+    }
+
     @Bean
-    public RestTemplate restTemplate(){
-        return new RestTemplate();
+    public RestTemplate restTemplate(CloseableHttpClient modelHttpClient){
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(modelHttpClient));
+    }
+
+    /**
+     * Builds a pooled client
+     *
+     * @param maxConnections the size of the pool
+     * @param connectTimeout the longest wait to connect or to get a pooled connection, in milliseconds
+     * @param readTimeout    the longest wait for a response, in milliseconds
+     * @param idleTimeout    how long an unused connection is kept, in milliseconds
+     * @return the client
+     */
+    public static CloseableHttpClient httpClient(int maxConnections, long connectTimeout,
+                                                 long readTimeout, long idleTimeout){
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+                .setSocketTimeout(Timeout.ofMilliseconds(readTimeout))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                .build();
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeout))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeout))
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnections)
+                        .setDefaultConnectionConfig(connectionConfig)
+                        .build())
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleTimeout))
+                // Retries are handled by ModelClient, which knows about the circuit breaker
+                .disableAutomaticRetries()
+                .build();
     }
 }
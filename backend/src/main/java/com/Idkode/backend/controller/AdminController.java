@@ -0,0 +1,46 @@
+package com.Idkode.backend.controller;
+
+import com.Idkode.backend.service.DetectionPipeline;
+import com.Idkode.backend.service.exception.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Operations endpoints. They are not authenticated, so the controller only exists when
+ * {@code admin.enabled} is set, on deployments where /admin is not reachable from outside.
+ */
+@RequestMapping("/admin")
+@RestController
+@ConditionalOnProperty(name = "admin.enabled", havingValue = "true")
+public class AdminController {
+
+    private final DetectionPipeline detectionPipeline;
+
+    @Autowired
+    public AdminController(DetectionPipeline detectionPipeline) {
+        this.detectionPipeline = detectionPipeline;
+    }
+
+    /**
+     * Runs detection again on the images of a camera, or of every camera, between two dates,
+     * e.g. after a new model is deployed. The images are queued behind new uploads.
+     */
+    @PostMapping("/reprocess")
+    public ResponseEntity<Map<String, Long>> reprocess(@RequestParam(value = "camera", required = false) String camera,
+                                                       @RequestParam("from") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate from,
+                                                       @RequestParam("to") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate to){
+        if (to.isBefore(from))
+            throw new InvalidRequestException("The end date must not be before the start date.");
+        long queued = detectionPipeline.reprocess(camera, from, to);
+        return ResponseEntity.accepted().body(Map.of("queued", queued));
+    }
+}
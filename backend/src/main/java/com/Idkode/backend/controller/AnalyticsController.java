@@ -0,0 +1,42 @@
+package com.Idkode.backend.controller;
+
+import com.Idkode.backend.dtos.TrafficAnalyticsDTO;
+import com.Idkode.backend.dtos.TrafficAnomalyDTO;
+import com.Idkode.backend.service.analytics.TrafficAnalyticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RequestMapping("/image/analytics")
+@RestController
+public class AnalyticsController {
+
+    private final TrafficAnalyticsService analyticsService;
+
+    @Autowired
+    public AnalyticsController(TrafficAnalyticsService analyticsService) {
+        this.analyticsService = analyticsService;
+    }
+
+    /**
+     * Moving averages, peaks, day and week changes and the anomaly score of a camera, for all vehicles and per label
+     */
+    @GetMapping
+    public ResponseEntity<List<TrafficAnalyticsDTO>> getAnalytics(@RequestParam("camera") String camera){
+        return ResponseEntity.ok().body(analyticsService.getAnalytics(camera));
+    }
+
+    /**
+     * Latest anomalous minutes, newest first
+     */
+    @GetMapping("/anomalies")
+    public ResponseEntity<List<TrafficAnomalyDTO>> getAnomalies(@RequestParam(value = "camera", required = false) String camera,
+                                                                @RequestParam(value = "limit", defaultValue = "50") Integer limit){
+        return ResponseEntity.ok().body(analyticsService.getAnomalies(camera, limit));
+    }
+}
@@ -1,37 +1,110 @@
 package com.Idkode.backend.controller;
 
+import com.Idkode.backend.config.query.QueryExecutor;
 import com.Idkode.backend.dtos.ImageDTO;
 import com.Idkode.backend.dtos.ImageFullDTO;
+import com.Idkode.backend.dtos.ImageMetaDTO;
+import com.Idkode.backend.dtos.ImagePageDTO;
+import com.Idkode.backend.dtos.ImagePointDTO;
+import com.Idkode.backend.dtos.LiveEventDTO;
+import com.Idkode.backend.dtos.UploadResultDTO;
 import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.service.CameraStateService;
+import com.Idkode.backend.service.DerivativeService;
+import com.Idkode.backend.service.DetectionPipeline;
+import com.Idkode.backend.service.ImageRangeService;
 import com.Idkode.backend.service.ImageService;
+import com.Idkode.backend.service.exception.InvalidRequestException;
+import com.Idkode.backend.service.exception.ResourceNotFoundException;
+import com.Idkode.backend.service.storage.ImageStorage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @RequestMapping("/image")
 @RestController
 public class ImageController {
 
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String NDJSON = "application/x-ndjson";
+
     private final ImageService imageService;
+    private final DetectionPipeline detectionPipeline;
+    private final DerivativeService derivativeService;
+    private final ImageStorage imageStorage;
+    private final ImageRangeService imageRangeService;
+    private final CameraStateService cameraStateService;
+    private final ObjectMapper objectMapper;
+    private final QueryExecutor queryExecutor;
 
     @Autowired
-    public ImageController(ImageService imageService) {
+    public ImageController(ImageService imageService, DetectionPipeline detectionPipeline,
+                           DerivativeService derivativeService, ImageStorage imageStorage,
+                           ImageRangeService imageRangeService, CameraStateService cameraStateService,
+                           ObjectMapper objectMapper, QueryExecutor queryExecutor) {
         this.imageService = imageService;
+        this.queryExecutor = queryExecutor;
+        this.imageRangeService = imageRangeService;
+        this.cameraStateService = cameraStateService;
+        this.objectMapper = objectMapper;
+        this.detectionPipeline = detectionPipeline;
+        this.derivativeService = derivativeService;
+        this.imageStorage = imageStorage;
+    }
+
+    /**
+     * Runs a read query on the query executor, so the request thread goes back to Tomcat while Mongo answers
+     */
+    private <T> CompletableFuture<ResponseEntity<T>> query(Callable<T> query){
+        return queryExecutor.supply(query).thenApply(body -> ResponseEntity.ok().body(body));
     }
 
     @GetMapping("/cameras")
-    public ResponseEntity<List<String>> getCameras(@RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date){
-        List<String> cameras = imageService.getCameras(date);
-        return ResponseEntity.ok().body(cameras);
+    public CompletableFuture<ResponseEntity<List<String>>> getCameras(@RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date){
+        return query(() -> imageService.getCameras(date));
+    }
+
+    /**
+     * The latest detected image of every camera, served from memory
+     */
+    @GetMapping("/latest")
+    public ResponseEntity<List<LiveEventDTO>> getLatest(){
+        return ResponseEntity.ok().body(cameraStateService.getLatest());
     }
 
     @PostMapping("/upload")
@@ -42,7 +115,11 @@ public class ImageController {
                                         @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") LocalTime time) throws IOException {
 
     Image entity = imageService.saveImage(image, camera, name, date, time);
-    imageService.processImage(entity.getPath(), entity.getId());
+    if (!entity.isDuplicate())
+        derivativeService.generateAsync(entity);
+    // A retry of a frame the queue turned away is queued again
+    if (!entity.isDuplicate() || entity.getStatus() == EnumDetectionStatus.FAILED)
+        detectionPipeline.enqueue(entity);
     URI uri = ServletUriComponentsBuilder
             .fromCurrentRequest()
             .path("/{id}")
@@ -51,29 +128,192 @@ public class ImageController {
     return ResponseEntity.created(uri).body(entity);
     }
 
+    /**
+     * Uploads many frames, from one or several cameras, in one request.
+     * The lists are matched by index: the n-th image goes with the n-th camera, name, date and time.
+     */
+    @PostMapping("/upload/batch")
+    public ResponseEntity<List<UploadResultDTO>> uploadBatch(@RequestParam("image") List<MultipartFile> images,
+                                                             @RequestParam("camera") List<String> cameras,
+                                                             @RequestParam("name") List<String> names,
+                                                             @RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") List<LocalDate> dates,
+                                                             @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") List<LocalTime> times) {
+        int count = images.size();
+        if (cameras.size() != count || names.size() != count || dates.size() != count || times.size() != count)
+            throw new InvalidRequestException("Every image needs a camera, name, date and time.");
+
+        List<UploadResultDTO> results = imageService.saveImages(images, cameras, names, dates, times);
+        Set<Image> queued = new LinkedHashSet<>();
+        for (UploadResultDTO result : results) {
+            Image entity = result.getImage();
+            if (entity == null)
+                continue;
+            if (!entity.isDuplicate() && queued.add(entity))
+                derivativeService.generateAsync(entity);
+            else if (entity.getStatus() == EnumDetectionStatus.FAILED)
+                queued.add(entity);
+        }
+
+        Set<String> rejected = detectionPipeline.enqueueAll(queued);
+        boolean reject = !rejected.isEmpty() && detectionPipeline.getOverflowPolicy() == DetectionPipeline.OverflowPolicy.REJECT;
+        for (UploadResultDTO result : results) {
+            if (result.getId() != null && rejected.contains(result.getId())) {
+                result.setStatus(EnumDetectionStatus.FAILED);
+                result.setError(reject ? "Detection queue is full, try again later." : "Detection skipped, queue is full.");
+            }
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (reject)
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(detectionPipeline.getRetryAfterSeconds()));
+        return response.body(results);
+    }
+
     @GetMapping("/general")
-    public ResponseEntity<List<ImageDTO>> get(@RequestParam(value = "camera") String camera,
-                                     @RequestParam(value = "date", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) throws IOException {
+    public CompletableFuture<ResponseEntity<List<ImageDTO>>> get(@RequestParam(value = "camera") String camera,
+                                     @RequestParam(value = "date", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
+                                     @RequestParam(value = "start", required = false) @DateTimeFormat(pattern = "HH-mm-ss") LocalTime start,
+                                     @RequestParam(value = "end", required = false) @DateTimeFormat(pattern = "HH-mm-ss") LocalTime end,
+                                     @RequestParam(value = "labels", defaultValue = "false") Boolean labels) {
 
-        List<ImageDTO> dtos = imageService.findImages(camera, date);
-        return ResponseEntity.ok().body(dtos);
+        // Without a date the dashboard means today
+        LocalDate day = date == null ? LocalDate.now() : date;
+        return query(() -> imageService.findImages(camera, day, start, end, labels));
+    }
+
+    /**
+     * Counts of the images of several cameras in [from, to), ordered by camera then datetime, one page at a time.
+     * Follow the next cursor of each page until it is null.
+     */
+    @GetMapping("/range")
+    public ResponseEntity<ImagePageDTO> getRange(@RequestParam("camera") List<String> cameras,
+                                                 @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                 @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                 @RequestParam(value = "labels", defaultValue = "false") Boolean labels,
+                                                 @RequestParam(value = "cursor", required = false) String cursor,
+                                                 @RequestParam(value = "limit", defaultValue = "1000") Integer limit) {
+        return ResponseEntity.ok().body(imageRangeService.findPage(cameras, from, to, labels, cursor, limit));
+    }
+
+    /**
+     * Same as /range in a single response, as newline delimited JSON written while it is read,
+     * so exporting months of data takes constant memory on both sides
+     */
+    @GetMapping(value = "/range/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportRange(@RequestParam("camera") List<String> cameras,
+                                                             @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                             @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                             @RequestParam(value = "labels", defaultValue = "false") Boolean labels) {
+        if (cameras.isEmpty() || !from.isBefore(to))
+            throw new InvalidRequestException("At least one camera and a start before the end are required.");
+        // The response stream stays open between lines
+        ObjectWriter writer = objectMapper.writerFor(ImagePointDTO.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        StreamingResponseBody body = output -> {
+            try {
+                imageRangeService.stream(cameras, from, to, labels, point -> {
+                    try {
+                        writer.writeValue(output, point);
+                        output.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
     }
 
     @GetMapping("/specific")
-    public ResponseEntity<ImageFullDTO> getInfo(@RequestParam("camera") String camera,
+    public CompletableFuture<ResponseEntity<ImageFullDTO>> getInfo(@RequestParam("camera") String camera,
                                                 @RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
                                                 @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") LocalTime time,
-                                                @RequestParam(value = "annotated", defaultValue = "true") Boolean annotated) throws IOException {
-        ImageFullDTO dto = imageService.retrieveImage(camera, date, time, annotated);
+                                                @RequestParam(value = "annotated", defaultValue = "true") Boolean annotated,
+                                                @RequestParam(value = "size", defaultValue = "ORIGINAL") EnumImageSize size) {
+        return query(() -> imageService.retrieveImage(camera, date, time, annotated, size));
+    }
+
+    @GetMapping("/specific/meta")
+    public ResponseEntity<ImageMetaDTO> getMetadata(@RequestParam("camera") String camera,
+                                                    @RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
+                                                    @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") LocalTime time){
+        ImageMetaDTO dto = imageService.retrieveMetadata(camera, date, time);
         return ResponseEntity.ok().body(dto);
     }
 
+    /**
+     * Streams the image itself as binary. Conditional GET (ETag, Last-Modified) and Range requests
+     * are handled by Spring for the returned resource.
+     */
+    @GetMapping("/specific/file")
+    public ResponseEntity<Resource> getFile(@RequestParam("camera") String camera,
+                                            @RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
+                                            @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") LocalTime time,
+                                            @RequestParam(value = "annotated", defaultValue = "false") Boolean annotated,
+                                            @RequestParam(value = "size", defaultValue = "ORIGINAL") EnumImageSize size,
+                                            HttpServletRequest request,
+                                            WebRequest webRequest) throws IOException {
+        Image image = imageService.findImageEntity(camera, date, time);
+        String etag = image.getId() + "-" + ImageService.getDetectionsVersion(image)
+                + (annotated ? "-annotated-" : "-raw-") + size.name().toLowerCase();
+
+        String file = imageService.findServedFile(image, annotated, size);
+        Resource resource = file == null ? null : imageStorage.load(file);
+        // A recorded file that went missing is rendered again from what is left
+        if (resource == null || !resource.exists()) {
+            byte[] data;
+            try {
+                data = imageService.loadImageBytes(image, annotated, size);
+            } catch (NoSuchFileException e) {
+                throw new ResourceNotFoundException("Image file is unavailable.");
+            }
+            if (data == null)
+                throw new ResourceNotFoundException("Image could not be rendered.");
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .body(new ByteArrayResource(data));
+        }
+
+        long lastModified = resource.lastModified();
+        MediaType type = MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+        Optional<Path> local = imageStorage.localPath(file);
+        if (local.isPresent() && canSendfile(request)) {
+            if (webRequest.checkNotModified(etag, lastModified))
+                return null;
+            // Let Tomcat copy the file straight from the page cache to the socket
+            long length = resource.contentLength();
+            request.setAttribute(SENDFILE_FILENAME, local.get().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, length);
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .lastModified(lastModified)
+                    .contentType(type)
+                    .contentLength(length)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .lastModified(lastModified)
+                .contentType(type)
+                .body(resource);
+    }
+
+    private static boolean canSendfile(HttpServletRequest request) {
+        return HttpMethod.GET.matches(request.getMethod())
+                && request.getHeader(HttpHeaders.RANGE) == null
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT));
+    }
+
     @GetMapping("/specific/less")
-    public ResponseEntity<ImageDTO> getLessInfo(@RequestParam("camera") String camera,
+    public CompletableFuture<ResponseEntity<ImageDTO>> getLessInfo(@RequestParam("camera") String camera,
                                                 @RequestParam("date") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
-                                                @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") LocalTime time) throws IOException {
-        ImageDTO dto = imageService.findImage(camera, date, time);
-        return ResponseEntity.ok().body(dto);
+                                                @RequestParam("time") @DateTimeFormat(pattern = "HH-mm-ss") LocalTime time,
+                                                @RequestParam(value = "labels", defaultValue = "false") Boolean labels) {
+        return query(() -> imageService.findImage(camera, date, time, labels));
     }
 
 }
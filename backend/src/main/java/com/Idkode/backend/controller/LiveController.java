@@ -0,0 +1,35 @@
+package com.Idkode.backend.controller;
+
+import com.Idkode.backend.service.LiveFeedService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RequestMapping("/image/live")
+@RestController
+public class LiveController {
+
+    private final LiveFeedService liveFeedService;
+
+    @Autowired
+    public LiveController(LiveFeedService liveFeedService) {
+        this.liveFeedService = liveFeedService;
+    }
+
+    /**
+     * Streams a "detections" event for every image of the camera as soon as its detections are saved.
+     * Without a camera, every camera is streamed.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> live(@RequestParam(value = "camera", required = false) String camera){
+        // Tells nginx to pass events through as they come instead of buffering the response
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .body(liveFeedService.subscribe(camera));
+    }
+}
@@ -0,0 +1,44 @@
+package com.Idkode.backend.controller;
+
+import com.Idkode.backend.dtos.TrafficStatsDTO;
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import com.Idkode.backend.service.RollupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RequestMapping("/image/stats")
+@RestController
+public class StatsController {
+
+    private final RollupService rollupService;
+
+    @Autowired
+    public StatsController(RollupService rollupService) {
+        this.rollupService = rollupService;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<TrafficStatsDTO>> getStats(@RequestParam("camera") String camera,
+                                                          @RequestParam("from") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate from,
+                                                          @RequestParam("to") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate to,
+                                                          @RequestParam(value = "granularity", defaultValue = "HOUR") EnumGranularity granularity){
+        List<TrafficStatsDTO> stats = rollupService.getStats(camera, from, to, granularity);
+        return ResponseEntity.ok().body(stats);
+    }
+
+    @GetMapping("/total")
+    public ResponseEntity<TrafficStatsDTO> getTotal(@RequestParam("camera") String camera,
+                                                    @RequestParam("from") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate from,
+                                                    @RequestParam("to") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate to){
+        TrafficStatsDTO stats = rollupService.getTotal(camera, from, to);
+        return ResponseEntity.ok().body(stats);
+    }
+}
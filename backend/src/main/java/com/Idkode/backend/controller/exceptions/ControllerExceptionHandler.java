@@ -1,14 +1,19 @@
 package com.Idkode.backend.controller.exceptions;
 
+import com.Idkode.backend.service.exception.DetectionQueueFullException;
+import com.Idkode.backend.service.exception.InvalidRequestException;
 import com.Idkode.backend.service.exception.ResourceNotFoundException;
+import com.Idkode.backend.service.exception.StorageUnavailableException;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
 import java.time.Instant;
+import java.util.concurrent.RejectedExecutionException;
 
 @ControllerAdvice
 @Slf4j
@@ -20,4 +25,40 @@ public class ControllerExceptionHandler {
         StandardError err = new StandardError(Instant.now(), status.value(), error, e.getMessage(), request.getRequestURI());
         return ResponseEntity.status(status).body(err);
     }
+
+    @ExceptionHandler(DetectionQueueFullException.class)
+    public ResponseEntity<StandardError> detectionQueueFull(DetectionQueueFullException e, HttpServletRequest request){
+        String error = "Too many requests";
+        HttpStatus status = HttpStatus.TOO_MANY_REQUESTS;
+        StandardError err = new StandardError(Instant.now(), status.value(), error, e.getMessage(), request.getRequestURI());
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(err);
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<StandardError> invalidRequest(InvalidRequestException e, HttpServletRequest request){
+        String error = "Invalid request";
+        HttpStatus status = HttpStatus.BAD_REQUEST;
+        StandardError err = new StandardError(Instant.now(), status.value(), error, e.getMessage(), request.getRequestURI());
+        return ResponseEntity.status(status).body(err);
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<StandardError> queryRejected(RejectedExecutionException e, HttpServletRequest request){
+        String error = "Service unavailable";
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        StandardError err = new StandardError(Instant.now(), status.value(), error, "Too many queries in progress, try again later.", request.getRequestURI());
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(err);
+    }
+
+    @ExceptionHandler(StorageUnavailableException.class)
+    public ResponseEntity<StandardError> storageUnavailable(StorageUnavailableException e, HttpServletRequest request){
+        String error = "Service unavailable";
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        StandardError err = new StandardError(Instant.now(), status.value(), error, e.getMessage(), request.getRequestURI());
+        return ResponseEntity.status(status).body(err);
+    }
 }
@@ -1,9 +1,12 @@
 package com.Idkode.backend.dtos;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Map;
+
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -12,4 +15,8 @@ public class ImageDTO {
     private Integer number;
 
     private Integer time;
+
+    /** Count of each label, only sent when requested */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Integer> labels;
 }
@@ -0,0 +1,31 @@
+package com.Idkode.backend.dtos;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageMetaDTO {
+
+    private String id;
+
+    private String camera;
+
+    private LocalDateTime datetime;
+
+    private EnumDetectionStatus status;
+
+    /** The earlier frame whose detections were reused, null when the model saw this one */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String inferredFrom;
+
+    private List<Detection> detections;
+}
@@ -0,0 +1,21 @@
+package com.Idkode.backend.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a range query
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImagePageDTO {
+
+    private List<ImagePointDTO> items;
+
+    /** Pass it back as cursor for the next page, null on the last one */
+    private String next;
+}
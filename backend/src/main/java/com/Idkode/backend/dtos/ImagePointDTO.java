@@ -0,0 +1,30 @@
+package com.Idkode.backend.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Vehicle count of one image in a range query
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImagePointDTO {
+
+    private String id;
+
+    private String camera;
+
+    private LocalDateTime datetime;
+
+    private Integer number;
+
+    /** Count of each label, only sent when requested */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Integer> labels;
+}
@@ -0,0 +1,30 @@
+package com.Idkode.backend.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Detections of a new image, pushed to live feed subscribers
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LiveEventDTO {
+
+    private String id;
+
+    private String camera;
+
+    private LocalDateTime datetime;
+
+    /** Minutes since the start of the day, as in ImageDTO */
+    private Integer time;
+
+    private Integer number;
+
+    private Map<String, Integer> labels;
+}
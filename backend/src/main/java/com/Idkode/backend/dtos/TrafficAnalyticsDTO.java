@@ -0,0 +1,51 @@
+package com.Idkode.backend.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming analytics of one camera and label, as of the last minute processed.
+ * Averages are vehicles per frame.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrafficAnalyticsDTO {
+
+    private String camera;
+
+    /** A vehicle label, or "total" for all of them */
+    private String label;
+
+    private LocalDateTime asOf;
+
+    /** Average over the last N minutes, by N */
+    private Map<Integer, Double> movingAverages;
+
+    /** Expected average at this hour of a weekday or weekend day */
+    private Double baselineMean;
+
+    private Double baselineStd;
+
+    /** Score of the last minute against the baseline, null while the baseline is learning */
+    private Double zScore;
+
+    private Boolean anomaly;
+
+    /** Busiest hour of the day so far */
+    private Integer peakHour;
+
+    /** Rush hours of the day so far */
+    private List<Integer> peakHours;
+
+    /** Change from yesterday over the same hours, 0.1 for 10% more */
+    private Double dayOverDay;
+
+    /** Change from the same weekday last week over the same hours */
+    private Double weekOverWeek;
+}
@@ -0,0 +1,30 @@
+package com.Idkode.backend.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A minute whose vehicles per frame were far from the usual for its hour
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrafficAnomalyDTO {
+
+    private String camera;
+
+    private String label;
+
+    private LocalDateTime minute;
+
+    /** Vehicles per frame in the minute */
+    private Double value;
+
+    /** Baseline vehicles per frame for its hour */
+    private Double expected;
+
+    private Double zScore;
+}
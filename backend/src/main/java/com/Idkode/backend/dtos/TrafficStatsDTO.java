@@ -0,0 +1,26 @@
+package com.Idkode.backend.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrafficStatsDTO {
+
+    private LocalDateTime bucket;
+
+    private Long frames;
+
+    private Double avg;
+
+    private Integer p50;
+
+    private Integer max;
+
+    private Map<String, Long> labels;
+}
@@ -0,0 +1,54 @@
+package com.Idkode.backend.dtos;
+
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Outcome of one frame of a batch upload, at the same index as the frame in the request
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UploadResultDTO {
+
+    private Integer index;
+
+    private String id;
+
+    private String camera;
+
+    private LocalDateTime datetime;
+
+    private EnumDetectionStatus status;
+
+    /** Whether the frame had already been uploaded */
+    private Boolean duplicate;
+
+    private String error;
+
+    @JsonIgnore
+    private Image image;
+
+    public UploadResultDTO(Integer index, Image image) {
+        this.index = index;
+        this.image = image;
+        this.id = image.getId();
+        this.camera = image.getCamera();
+        this.datetime = image.getDatetime();
+        this.status = image.getStatus();
+        this.duplicate = image.isDuplicate();
+    }
+
+    public UploadResultDTO(Integer index, String camera, String error) {
+        this.index = index;
+        this.camera = camera;
+        this.status = EnumDetectionStatus.FAILED;
+        this.error = error;
+    }
+}
@@ -0,0 +1,56 @@
+package com.Idkode.backend.entity;
+
+import com.Idkode.backend.entity.enumeration.EnumJobState;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * An image waiting for detection, kept in Mongo so it survives restarts and can be shared by replicas.
+ * Deleted once the detections are saved.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "detection_jobs")
+@CompoundIndexes({
+        @CompoundIndex(name = "state_partition_priority_available", def = "{'state': 1, 'partition': 1, 'priority': 1, 'availableAt': 1}"),
+        @CompoundIndex(name = "state_lease", def = "{'state': 1, 'leaseUntil': 1}")
+})
+public class DetectionJob {
+    /** The image id, so an image never has two jobs */
+    @Id
+    private String id;
+
+    private String path;
+
+    /** Hash of the camera, decides which worker runs the job, see {@code DetectionPartitions} */
+    private Integer partition;
+
+    private EnumJobState state;
+
+    /** Lower runs first: new uploads before bulk reprocessing */
+    private Integer priority;
+
+    private Integer attempts;
+
+    private Instant availableAt;
+
+    /** The worker holding the job while LEASED */
+    private String leaseOwner;
+
+    private Instant leaseUntil;
+
+    /** Queued again while LEASED: once its worker completes it, the job goes back to READY instead of being removed */
+    private Boolean rerun;
+
+    private String lastError;
+
+    private Instant createdAt;
+}
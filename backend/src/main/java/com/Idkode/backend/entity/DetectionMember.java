@@ -0,0 +1,29 @@
+package com.Idkode.backend.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A running replica and its detection workers, kept alive by heartbeats.
+ * Replicas that stop beating are left out of the partition assignment, and removed by Mongo after a while.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "detection_members")
+public class DetectionMember {
+    /** The replica id */
+    @Id
+    private String id;
+
+    private Integer workers;
+
+    @Indexed(expireAfterSeconds = 3600)
+    private Instant heartbeatAt;
+}
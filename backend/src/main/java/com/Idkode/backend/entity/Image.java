@@ -1,21 +1,33 @@
 package com.Idkode.backend.entity;
 
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.entity.enumeration.EnumRetentionTier;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @EqualsAndHashCode(of = "id")
 @Document(collection = "images")
+@CompoundIndex(name = "camera_datetime_id", def = "{'camera': 1, 'datetime': 1, '_id': 1}")
 public class Image {
     @Id
     private String id;
@@ -24,10 +36,120 @@ public class Image {
 
     private String camera;
 
+    /** Storage key of the original, see ImageStorage */
     private String path;
 
+    /** SHA-256 of the original, identifies retried uploads of the same frame */
+    private String hash;
+
     @Indexed
     private LocalDateTime datetime;
 
+    /** Detections as one subdocument each, how they were stored before the compact format. Read them with getDetections */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
     private List<Detection> detections;
+
+    /** Detections in the compact format, see PackedDetections. Read them with getDetections */
+    @JsonIgnore
+    private byte[] packedDetections;
+
+    /** Number of detections, so the count queries never read the boxes. Missing on older images */
+    private Integer detectionCount;
+
+    /** Number of detections of each label. Missing on older images */
+    private Map<String, Integer> labelCounts;
+
+    /** Incremented every time the detections are replaced */
+    private Integer detectionsVersion;
+
+    /** Annotated copy rendered right after detection, when precomputation is on */
+    private String annotatedPath;
+
+    /** The detections version the annotated copy was rendered from */
+    private Integer annotatedVersion;
+
+    private Integer width;
+
+    private Integer height;
+
+    /** Storage keys of the smaller sizes generated after upload */
+    private Map<EnumImageSize, String> derivatives;
+
+    private EnumDetectionStatus status;
+
+    /** Set when the detections were reused from this nearly identical earlier frame instead of running the model */
+    private String inferredFrom;
+
+    /** Set when the rollups missed the last detection write, see RollupService */
+    @JsonIgnore
+    private Boolean rollupPending;
+
+    /** The detections the rollups still count while rollupPending is set, null when they never counted the image */
+    @JsonIgnore
+    private List<Detection> rollupDetections;
+
+    /** Null until retention keeps only part of the image */
+    private EnumRetentionTier retention;
+
+    /** Set when an upload turned out to be a retry of an image already saved */
+    @Transient
+    @JsonIgnore
+    private boolean duplicate;
+
+    /** packedDetections decoded on first use */
+    @Transient
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private List<Detection> decodedDetections;
+
+    /**
+     * Get the detections, whichever format they are stored in. The compact format is decoded on the first call.
+     *
+     * @return the detections, null before the first detection
+     */
+    public List<Detection> getDetections() {
+        if (detections != null || packedDetections == null)
+            return detections;
+        if (decodedDetections == null)
+            decodedDetections = PackedDetections.decode(packedDetections);
+        return decodedDetections;
+    }
+
+    /**
+     * Replaces the detections, as subdocuments, and updates the counts
+     *
+     * @param detections the detections
+     */
+    public void setDetections(List<Detection> detections) {
+        setDetections(detections, false);
+    }
+
+    /**
+     * Replaces the detections and updates the counts. Whatever was stored in the other format is dropped.
+     *
+     * @param detections the detections
+     * @param compact    whether to store them in the compact format
+     */
+    public void setDetections(List<Detection> detections, boolean compact) {
+        this.detections = compact ? null : detections;
+        this.packedDetections = compact && detections != null ? PackedDetections.encode(detections) : null;
+        this.decodedDetections = compact ? detections : null;
+        this.detectionCount = detections == null ? null : detections.size();
+        this.labelCounts = detections == null ? null : countLabels(detections);
+    }
+
+    /**
+     * @param detections the detections
+     * @return the number of detections of each label
+     */
+    public static Map<String, Integer> countLabels(List<Detection> detections) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Detection detection : detections) {
+            if (detection.getLabel() != null)
+                counts.merge(detection.getLabel(), 1, Integer::sum);
+        }
+        return counts;
+    }
 }
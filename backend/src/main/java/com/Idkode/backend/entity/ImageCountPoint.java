@@ -0,0 +1,34 @@
+package com.Idkode.backend.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Counts of an image whose files and document were removed by retention.
+ * <p>
+ * The collection is created by ImageCountArchive, as a time-series collection when configured,
+ * so this class declares no indexes that would have it created as a regular one first.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "image_counts")
+public class ImageCountPoint {
+    /** The id of the removed image. Points archived before it was used have generated ids */
+    @Id
+    private String id;
+
+    private String camera;
+
+    private LocalDateTime datetime;
+
+    private Integer detectionCount;
+
+    private Map<String, Integer> labelCounts;
+}
@@ -0,0 +1,55 @@
+package com.Idkode.backend.entity;
+
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Vehicle counts of one camera in one time bucket, updated incrementally on every detection
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "traffic_rollups")
+@CompoundIndexes({
+        @CompoundIndex(name = "camera_granularity_bucket", def = "{'camera': 1, 'granularity': 1, 'bucket': 1}"),
+        @CompoundIndex(name = "granularity_updatedAt", def = "{'granularity': 1, 'updatedAt': 1, '_id': 1}")
+})
+public class TrafficRollup {
+    /** camera|granularity|bucket, so upserts never race into duplicates */
+    @Id
+    private String id;
+
+    private String camera;
+
+    private EnumGranularity granularity;
+
+    private LocalDateTime bucket;
+
+    /** Number of frames in the bucket */
+    private Long frames;
+
+    /** Sum of the vehicles of all frames */
+    private Long total;
+
+    /** Largest vehicle count of a single frame */
+    private Integer max;
+
+    /** Number of frames for each vehicle count, used for percentiles */
+    private Map<String, Long> histogram;
+
+    /** Sum of the vehicles of each label */
+    private Map<String, Long> labels;
+
+    /** Last time a detection changed the counts, so frames detected late reach the analytics */
+    private Instant updatedAt;
+}
@@ -0,0 +1,11 @@
+package com.Idkode.backend.entity.enumeration;
+
+/**
+ * Lifecycle of an image inside the detection pipeline
+ */
+public enum EnumDetectionStatus {
+    QUEUED,
+    IN_FLIGHT,
+    DONE,
+    FAILED
+}
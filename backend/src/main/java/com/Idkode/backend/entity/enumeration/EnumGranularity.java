@@ -0,0 +1,27 @@
+package com.Idkode.backend.entity.enumeration;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Bucket sizes of the traffic rollups
+ */
+public enum EnumGranularity {
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    EnumGranularity(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * @param datetime a datetime
+     * @return the start of the bucket the datetime falls in
+     */
+    public LocalDateTime truncate(LocalDateTime datetime) {
+        return datetime.truncatedTo(unit);
+    }
+}
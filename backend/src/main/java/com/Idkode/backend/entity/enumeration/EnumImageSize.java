@@ -0,0 +1,11 @@
+package com.Idkode.backend.entity.enumeration;
+
+/**
+ * Sizes an image can be served in. Widths of the derivatives are configured in
+ * {@code images.derivatives.*-width}
+ */
+public enum EnumImageSize {
+    ORIGINAL,
+    MEDIUM,
+    THUMBNAIL
+}
@@ -0,0 +1,13 @@
+package com.Idkode.backend.entity.enumeration;
+
+/**
+ * State of a job in the durable detection queue
+ */
+public enum EnumJobState {
+    /** Waiting for a worker, once its availableAt has passed */
+    READY,
+    /** Claimed by a worker until its lease runs out */
+    LEASED,
+    /** Gave up after too many attempts */
+    DEAD
+}
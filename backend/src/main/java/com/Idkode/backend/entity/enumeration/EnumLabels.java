@@ -3,7 +3,8 @@ package com.Idkode.backend.entity.enumeration;
 import lombok.Getter;
 
 import java.awt.*;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Detection classes for the images
@@ -19,6 +20,16 @@ public enum EnumLabels {
     private final int id;
     private final Color color;
 
+    private static final Map<Integer, EnumLabels> BY_ID = new HashMap<>();
+    private static final Map<String, EnumLabels> BY_LABEL = new HashMap<>();
+
+    static {
+        for (EnumLabels label : values()) {
+            BY_ID.put(label.getId(), label);
+            BY_LABEL.put(label.getLabel(), label);
+        }
+    }
+
     EnumLabels(String label, int id, Color color) {
         this.label = label;
         this.id = id;
@@ -26,20 +37,20 @@ public enum EnumLabels {
     }
 
     public static String getLabelForValue(Integer value) {
-        for (EnumLabels label : EnumLabels.values()) {
-            if (label.getId() == value) {
-                return label.getLabel();
-            }
-        }
-        return null;
+        EnumLabels label = BY_ID.get(value);
+        return label == null ? null : label.getLabel();
+    }
+
+    /**
+     * @param value a label, e.g. "Car"
+     * @return its class, null when unknown
+     */
+    public static EnumLabels forLabel(String value) {
+        return value == null ? null : BY_LABEL.get(value);
     }
 
     public static Color getColorForLabel(String value) {
-        for (EnumLabels label : EnumLabels.values()) {
-            if (Objects.equals(label.getLabel(), value)) {
-                return label.getColor();
-            }
-        }
-        return null;
+        EnumLabels label = BY_LABEL.get(value);
+        return label == null ? null : label.getColor();
     }
 }
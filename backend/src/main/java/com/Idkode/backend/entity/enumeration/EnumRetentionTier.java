@@ -0,0 +1,11 @@
+package com.Idkode.backend.entity.enumeration;
+
+/**
+ * What is left of an image as it ages, see RetentionService
+ */
+public enum EnumRetentionTier {
+    /** Original and every derivative */
+    FULL,
+    /** Only the thumbnail, served for every size */
+    THUMBNAIL
+}
@@ -1,26 +1,81 @@
 package com.Idkode.backend.repository;
 
 import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.repository.projection.ImageCount;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ImageRepository extends MongoRepository<Image, String>{
 
-    @Query(value = "{ $and: [ " +
-            " { 'camera': ?0 }, " +
-            " { $expr: { $eq: [ { $dateToString: { format: '%Y-%m-%d', date: '$datetime' } }, ?1 ] } } " +
-            "] }")
-    List<Image> filterByCameraAndDate(
-            String camera, String localDate);
+    /*
+     * Images keep their counts next to the boxes since the compact format, older ones only have the
+     * detections subdocuments. The queries read the counts and fall back to the subdocuments.
+     */
+
+    /** Filter on images that have their detections */
+    String DETECTED = "$or: [ { 'detectionCount': { $ne: null } }, { 'detections': { $ne: null } } ]";
+
+    String DETECTION_COUNT = "{ $ifNull: [ '$detectionCount', { $size: '$detections' } ] }";
+
+    /** Label counts as a list of {label, count} */
+    String LABEL_COUNTS = "{ $ifNull: [ " +
+            "{ $map: { input: { $objectToArray: '$labelCounts' }, in: { 'label': '$$this.k', 'count': '$$this.v' } } }, " +
+            "{ $map: { input: { $setUnion: [ '$detections.label' ] }, as: 'label', " +
+            "in: { 'label': '$$label', 'count': { $size: { $filter: { input: '$detections', " +
+            "cond: { $eq: [ '$$this.label', '$$label' ] } } } } } } } ] }";
+
+    /**
+     * Detection count of each processed image of a camera in [start, end), without loading the boxes.
+     * Reads the stored count, or counts the subdocuments of older images.
+     * Served by the {camera, datetime, _id} index.
+     */
+    @Aggregation(pipeline = {
+            "{ $match: { 'camera': ?0, 'datetime': { $gte: ?1, $lt: ?2 }, " + DETECTED + " } }",
+            "{ $sort: { 'datetime': 1 } }",
+            "{ $project: { '_id': 0, 'datetime': 1, 'detectionCount': " + DETECTION_COUNT + " } }"
+    })
+    List<ImageCount> countByCameraAndDatetimeRange(
+            String camera, LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Same as {@link #countByCameraAndDatetimeRange} with the count of each label
+     */
+    @Aggregation(pipeline = {
+            "{ $match: { 'camera': ?0, 'datetime': { $gte: ?1, $lt: ?2 }, " + DETECTED + " } }",
+            "{ $sort: { 'datetime': 1 } }",
+            "{ $project: { '_id': 0, 'datetime': 1, 'detectionCount': " + DETECTION_COUNT + ", " +
+                    "'labels': " + LABEL_COUNTS + " } }"
+    })
+    List<ImageCount> countLabelsByCameraAndDatetimeRange(
+            String camera, LocalDateTime start, LocalDateTime end);
+
+    @Aggregation(pipeline = {
+            "{ $match: { 'camera': ?0, 'datetime': ?1, " + DETECTED + " } }",
+            "{ $limit: 1 }",
+            "{ $project: { '_id': 0, 'datetime': 1, 'detectionCount': " + DETECTION_COUNT + " } }"
+    })
+    List<ImageCount> countByCameraAndDatetime(String camera, LocalDateTime datetime);
+
+    @Aggregation(pipeline = {
+            "{ $match: { 'camera': ?0, 'datetime': ?1, " + DETECTED + " } }",
+            "{ $limit: 1 }",
+            "{ $project: { '_id': 0, 'datetime': 1, 'detectionCount': " + DETECTION_COUNT + ", " +
+                    "'labels': " + LABEL_COUNTS + " } }"
+    })
+    List<ImageCount> countLabelsByCameraAndDatetime(String camera, LocalDateTime datetime);
 
     @Query(value = "{ 'camera': ?0 }")
     List<Image> findTopByCameraOrderByDatetimeDesc(String camera, Sort sort);
 
     List<Image> findByCameraAndDatetime(String camera, LocalDateTime datetime);
+
+    Optional<Image> findFirstByCameraAndDatetimeAndHash(String camera, LocalDateTime datetime, String hash);
 }
@@ -0,0 +1,18 @@
+package com.Idkode.backend.repository;
+
+import com.Idkode.backend.entity.TrafficRollup;
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TrafficRollupRepository extends MongoRepository<TrafficRollup, String> {
+
+    @Query(value = "{ 'camera': ?0, 'granularity': ?1, 'bucket': { $gte: ?2, $lt: ?3 } }", sort = "{ 'bucket': 1 }")
+    List<TrafficRollup> findBuckets(String camera, EnumGranularity granularity,
+                                    LocalDateTime start, LocalDateTime end);
+}
@@ -0,0 +1,24 @@
+package com.Idkode.backend.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Server-side projection of an image with only what the count endpoints need
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageCount {
+
+    private LocalDateTime datetime;
+
+    private Integer detectionCount;
+
+    /** Only filled by the per-label queries */
+    private List<LabelCount> labels;
+}
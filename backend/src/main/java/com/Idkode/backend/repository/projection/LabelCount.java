@@ -0,0 +1,15 @@
+package com.Idkode.backend.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LabelCount {
+
+    private String label;
+
+    private Integer count;
+}
@@ -0,0 +1,72 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import com.Idkode.backend.service.storage.ImageStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Renders the annotated image once, right after its detections are saved, and writes it next to
+ * the original so reads never have to draw. The render it replaces is deleted. Enabled with {@code images.annotation.precompute}.
+ */
+@Component
+@ConditionalOnProperty(name = "images.annotation.precompute", havingValue = "true")
+public class AnnotationPrecomputer {
+
+    private final Logger logger = LoggerFactory.getLogger(AnnotationPrecomputer.class);
+
+    private final AnnotationRenderer annotationRenderer;
+    private final MongoTemplate mongoTemplate;
+    private final ImageStorage imageStorage;
+
+    @Autowired
+    public AnnotationPrecomputer(AnnotationRenderer annotationRenderer, MongoTemplate mongoTemplate,
+                                 ImageStorage imageStorage) {
+        this.annotationRenderer = annotationRenderer;
+        this.mongoTemplate = mongoTemplate;
+        this.imageStorage = imageStorage;
+    }
+
+    @EventListener
+    public void onDetectionsSaved(DetectionsSavedEvent event) {
+        Image image = event.getImage();
+        try {
+            String annotated = annotatedKey(image);
+            imageStorage.write(annotated, annotationRenderer.render(imageStorage.read(image.getPath()), image.getDetections()));
+
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("id").is(image.getId())),
+                    new Update()
+                            .set("annotatedPath", annotated)
+                            .set("annotatedVersion", image.getDetectionsVersion()),
+                    Image.class
+            );
+            String replaced = image.getAnnotatedPath();
+            if (replaced != null && !replaced.equals(annotated))
+                imageStorage.delete(replaced);
+        } catch (Exception e) {
+            logger.error("Could not precompute annotated image: {}, Error: {}", image.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Images with identical bytes share their original, so the render is named after the image
+     * and the detections it shows, never after the shared path alone
+     *
+     * @param image the image, with its new detections
+     * @return the storage key of its annotated render
+     */
+    static String annotatedKey(Image image) {
+        return ImageStorage.siblingKey(image.getPath(),
+                "." + image.getId() + ".v" + ImageService.getDetectionsVersion(image) + ".annotated.jpg");
+    }
+}
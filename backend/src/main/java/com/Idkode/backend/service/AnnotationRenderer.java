@@ -0,0 +1,158 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Draws detection boxes over an image and encodes the result as jpg.
+ * <p>
+ * The decoded raster is drawn on directly when it is already RGB, the stroke is shared,
+ * and each thread keeps its own jpg writer instead of looking one up per image.
+ */
+@Component
+public class AnnotationRenderer {
+
+    private static final BasicStroke STROKE = new BasicStroke(2);
+    private static final Color UNKNOWN_LABEL = Color.WHITE;
+
+    private final float quality;
+    private final int maxWidth;
+
+    private final ThreadLocal<ImageWriter> writers =
+            ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName("jpg").next());
+
+    @Autowired
+    public AnnotationRenderer(@Value("${images.annotation.quality}") float quality,
+                              @Value("${images.annotation.max-width}") int maxWidth) {
+        this.quality = quality;
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * Generates an image based on an image and a list of detections
+     *
+     * @param image      the encoded image
+     * @param detections the list of detections
+     * @return the annotated image as jpg
+     * @throws IOException if the image cannot be decoded or encoded
+     */
+    public byte[] render(byte[] image, List<Detection> detections) throws IOException {
+        return render(image, detections, maxWidth, 1.0);
+    }
+
+    /**
+     * Generates an image based on an image and a list of detections
+     *
+     * @param image      the encoded image
+     * @param detections the list of detections
+     * @param maxWidth   the largest width of the result, 0 to keep the size of the image
+     * @param boxScale   the factor from the detection coordinates to the image, below 1 for a derivative
+     * @return the annotated image as jpg
+     * @throws IOException if the image cannot be decoded or encoded
+     */
+    public byte[] render(byte[] image, List<Detection> detections, int maxWidth, double boxScale) throws IOException {
+        return encode(draw(decode(image), detections, maxWidth, boxScale));
+    }
+
+    /**
+     * Decodes an image
+     *
+     * @param image the encoded image
+     * @return the decoded image
+     * @throws IOException if the image cannot be decoded
+     */
+    public static BufferedImage decode(byte[] image) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+        if (decoded == null)
+            throw new IOException("Invalid image data");
+        return decoded;
+    }
+
+    /**
+     * Draws the boxes over a decoded image, scaling it down to maxWidth first when it is wider.
+     * With no detections this only resizes the image.
+     *
+     * @param image      the decoded image, drawn on directly when possible
+     * @param detections the list of detections
+     * @param maxWidth   the largest width of the result, 0 to keep the original size
+     * @param boxScale   the factor from the detection coordinates to the image, below 1 for a derivative
+     * @return the annotated image
+     */
+    public static BufferedImage draw(BufferedImage image, List<Detection> detections, int maxWidth, double boxScale) {
+        double scale = maxWidth > 0 && image.getWidth() > maxWidth ? (double) maxWidth / image.getWidth() : 1.0;
+        BufferedImage canvas = image;
+        if (scale != 1.0 || !isOpaqueRgb(image)) {
+            // Jpg has no alpha and boxes need color, anything else is copied into an RGB canvas
+            int width = (int) Math.round(image.getWidth() * scale);
+            int height = (int) Math.round(image.getHeight() * scale);
+            canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D copy = canvas.createGraphics();
+            copy.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            copy.drawImage(image, 0, 0, width, height, null);
+            copy.dispose();
+        }
+
+        if (detections.isEmpty())
+            return canvas;
+
+        double boxes = scale * boxScale;
+        Graphics2D g2d = canvas.createGraphics();
+        g2d.setStroke(STROKE);
+        for (Detection det : detections) {
+            Color color = EnumLabels.getColorForLabel(det.getLabel());
+            g2d.setColor(color == null ? UNKNOWN_LABEL : color);
+            int x1 = (int) Math.round(det.getX1() * boxes);
+            int x2 = (int) Math.round(det.getX2() * boxes);
+            int y1 = (int) Math.round(det.getY1() * boxes);
+            int y2 = (int) Math.round(det.getY2() * boxes);
+            g2d.drawRect(x1, y1, x2 - x1, y2 - y1);
+        }
+        g2d.dispose();
+        return canvas;
+    }
+
+    /**
+     * Encodes an image as jpg with the configured quality
+     *
+     * @param image the image
+     * @return the jpg bytes
+     * @throws IOException the io exception
+     */
+    public byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = writers.get();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(baos)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset();
+        }
+        return baos.toByteArray();
+    }
+
+    private static boolean isOpaqueRgb(BufferedImage image) {
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_RGB
+                || type == BufferedImage.TYPE_INT_BGR
+                || type == BufferedImage.TYPE_3BYTE_BGR;
+    }
+}
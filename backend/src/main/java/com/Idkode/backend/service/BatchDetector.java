@@ -0,0 +1,178 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.service.exception.ModelUnavailableException;
+import com.Idkode.backend.service.exception.StorageUnavailableException;
+import com.Idkode.backend.service.rules.CameraRule;
+import com.Idkode.backend.service.rules.CameraRuleRegistry;
+import com.Idkode.backend.service.rules.FrameCrop;
+import com.Idkode.backend.service.storage.ImageStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs a batch of claimed images through detection: reads each frame once, lets the {@link DetectionGate}
+ * skip the unchanged ones, crops the rest as their {@link CameraRule} says, sends them to the model,
+ * filters the boxes by the rules and saves the results through {@link ImageService#saveDetections}.
+ */
+@Service
+public class BatchDetector {
+
+    private final Logger logger = LoggerFactory.getLogger(BatchDetector.class);
+
+    private final ImageService imageService;
+    private final MongoTemplate mongoTemplate;
+    private final ImageStorage imageStorage;
+    private final ModelClient modelClient;
+    private final DetectionGate detectionGate;
+    private final CameraRuleRegistry cameraRules;
+    private final AnnotationRenderer annotationRenderer;
+    private final int detectionLogSampleRate;
+
+    @Autowired
+    public BatchDetector(ImageService imageService, MongoTemplate mongoTemplate, ImageStorage imageStorage,
+                         ModelClient modelClient, DetectionGate detectionGate, CameraRuleRegistry cameraRules,
+                         AnnotationRenderer annotationRenderer,
+                         @Value("${images.logging.detection-sample-rate}") int detectionLogSampleRate) {
+        this.imageService = imageService;
+        this.mongoTemplate = mongoTemplate;
+        this.imageStorage = imageStorage;
+        this.modelClient = modelClient;
+        this.detectionGate = detectionGate;
+        this.cameraRules = cameraRules;
+        this.annotationRenderer = annotationRenderer;
+        this.detectionLogSampleRate = Math.max(1, detectionLogSampleRate);
+    }
+
+    /**
+     * Sends a batch of images to the detection model and saves the results of each one.
+     * Runs on a detection worker, see {@link DetectionPipeline}, which decides what happens to the others.
+     *
+     * @param tasks the images to process
+     * @return the ids of the images whose detections were saved
+     * @throws ModelUnavailableException if the model could not be reached, the images are back to QUEUED
+     * @throws StorageUnavailableException if the image store could not be reached
+     */
+    public Set<String> detect(List<DetectionTask> tasks){
+        Set<String> saved = new HashSet<>();
+        // Each frame is read once, the same bytes go to the gate, the crop and the model
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (DetectionTask task : tasks) {
+            try {
+                files.put(task.getImageId(), imageStorage.read(task.getPath()));
+            } catch (NoSuchFileException e) {
+                logger.error("Image not found at path: {}", task.getPath());
+            } catch (IOException e) {
+                throw new StorageUnavailableException("Could not read image: " + task.getPath() + ", " + e.getMessage(), e);
+            }
+        }
+        if (files.isEmpty())
+            return saved;
+        imageService.updateStatus(files.keySet(), EnumDetectionStatus.IN_FLIGHT);
+
+        try {
+            Map<String, Image> frames = findFrames(files.keySet());
+            DetectionGate.Plan plan = detectionGate.plan(detectionGate.isEnabled() ? List.copyOf(frames.values()) : List.of(), files);
+            Map<String, Resource> toModel = new LinkedHashMap<>();
+            Map<String, FrameCrop> crops = new HashMap<>();
+            files.forEach((imageId, bytes) -> {
+                if (!plan.needsModel(imageId))
+                    return;
+                Image frame = frames.get(imageId);
+                FrameCrop crop = frame == null ? null : crop(frame, bytes);
+                if (crop != null) {
+                    crops.put(imageId, crop);
+                    toModel.put(imageId, new ByteArrayResource(crop.image()));
+                } else {
+                    toModel.put(imageId, new ByteArrayResource(bytes));
+                }
+            });
+            Map<String, List<Detection>> results = new HashMap<>();
+            if (!toModel.isEmpty())
+                modelClient.detect(toModel).forEach((imageId, detections) -> {
+                    FrameCrop crop = crops.get(imageId);
+                    List<Detection> inFrame = crop == null ? detections : crop.toFrame(detections);
+                    Image frame = frames.get(imageId);
+                    results.put(imageId, cameraRules.forCamera(frame == null ? null : frame.getCamera()).filter(inFrame));
+                });
+            detectionGate.complete(plan, results);
+
+            files.keySet().forEach(imageId -> {
+                List<Detection> detection = results.get(imageId);
+                if (detection == null) {
+                    logger.error("Received null detections for image: {}", imageId);
+                    return;
+                }
+                // Logging every list costs throughput, so only a sample is logged, and only at debug
+                if (logger.isDebugEnabled() && ThreadLocalRandom.current().nextInt(detectionLogSampleRate) == 0)
+                    logger.debug("Detections for image {}: {}", imageId, detection);
+                try {
+                    if (imageService.saveDetections(imageId, detection, plan.getSource(imageId)))
+                        saved.add(imageId);
+                } catch (RuntimeException e) {
+                    // Left out of the saved ones, so its job is retried
+                    logger.error("Could not save detections for image: {}, Error: {}", imageId, e.getMessage());
+                }
+            });
+
+        } catch (ModelUnavailableException e) {
+            imageService.updateStatus(files.keySet(), EnumDetectionStatus.QUEUED);
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error processing images: {}, Error: {}", files.keySet(), e.getMessage());
+        }
+        return saved;
+    }
+
+    /**
+     * Loads the camera, datetime and path of the images of a batch, for the gate and the camera rules
+     */
+    private Map<String, Image> findFrames(Collection<String> imageIds){
+        Query query = Query.query(Criteria.where("id").in(imageIds));
+        query.fields().include("camera").include("datetime").include("path");
+        Map<String, Image> frames = new HashMap<>();
+        for (Image image : mongoTemplate.find(query, Image.class))
+            frames.put(image.getId(), image);
+        return frames;
+    }
+
+    /**
+     * Crops a frame to the road area of its camera and scales it down, as its rule says
+     *
+     * @param frame the frame
+     * @param bytes its encoded content
+     * @return the crop, null to send the frame as is
+     */
+    private FrameCrop crop(Image frame, byte[] bytes){
+        CameraRule rule = cameraRules.forCamera(frame.getCamera());
+        if (!rule.transformsFrame())
+            return null;
+        try {
+            return FrameCrop.of(bytes, rule, annotationRenderer);
+        } catch (IOException e) {
+            logger.warn("Could not crop image: {}, sending it whole. Error: {}", frame.getId(), e.getMessage());
+            return null;
+        }
+    }
+}
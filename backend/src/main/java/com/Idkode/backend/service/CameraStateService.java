@@ -0,0 +1,156 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.dtos.LiveEventDTO;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the home view asks for on every load, kept in memory: the latest detected image of each camera,
+ * and the cameras with images on each day.
+ * <p>
+ * The latest images are updated on every detection write and warmed from Mongo at startup. Detections saved
+ * by other replicas are picked up by a periodic resync. The camera sets are loaded on first use, updated on
+ * every upload and expire after {@code images.cameras.cache-seconds}, which bounds how long an upload to
+ * another replica can go unseen.
+ */
+@Service
+public class CameraStateService {
+
+    private final Logger logger = LoggerFactory.getLogger(CameraStateService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ImageCountArchive countArchive;
+    private final Map<String, LiveEventDTO> latest = new ConcurrentHashMap<>();
+    private final Cache<LocalDate, Set<String>> camerasByDay;
+
+    @Autowired
+    public CameraStateService(MongoTemplate mongoTemplate, ImageCountArchive countArchive, MeterRegistry meterRegistry,
+                              @Value("${images.cameras.cache-seconds}") long cacheSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.countArchive = countArchive;
+        this.camerasByDay = Caffeine.newBuilder()
+                .maximumSize(400)
+                .expireAfterWrite(Duration.ofSeconds(cacheSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, camerasByDay, "cameras_by_day");
+        Gauge.builder("cameras.latest", latest, Map::size)
+                .description("Cameras in the latest state cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the latest detected image of every camera, by camera name
+     */
+    public List<LiveEventDTO> getLatest() {
+        List<LiveEventDTO> images = new ArrayList<>(latest.values());
+        images.sort(Comparator.comparing(LiveEventDTO::getCamera));
+        return images;
+    }
+
+    /**
+     * @param date the date
+     * @return the cameras with images on that date
+     */
+    public List<String> getCameras(LocalDate date) {
+        return List.copyOf(camerasByDay.get(date, this::loadCameras));
+    }
+
+    private Set<String> loadCameras(LocalDate date) {
+        // LocalDateTime bounds go through the same converter used when saving, so both sides agree on the zone
+        LocalDateTime start = date.atStartOfDay();
+        LocalDateTime end = date.plusDays(1).atStartOfDay();
+        List<String> cameras = mongoTemplate.findDistinct(
+                Query.query(Criteria.where("datetime").gte(start).lt(end)), "camera", Image.class, String.class);
+        // Days past retention only have their counts left
+        if (cameras.isEmpty())
+            cameras = countArchive.findCameras(start, end);
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        set.addAll(cameras);
+        return set;
+    }
+
+    /**
+     * Adds the cameras of newly saved images to the sets already loaded
+     *
+     * @param images the saved images
+     */
+    public void onSaved(Collection<Image> images) {
+        for (Image image : images) {
+            // A set loading at the same time already sees the image, the map waits for it otherwise
+            camerasByDay.asMap().computeIfPresent(image.getDatetime().toLocalDate(), (day, cameras) -> {
+                cameras.add(image.getCamera());
+                return cameras;
+            });
+        }
+    }
+
+    @EventListener
+    public void onDetectionsSaved(DetectionsSavedEvent event) {
+        update(LiveFeedService.toLiveEvent(event.getImage()));
+    }
+
+    private void update(LiveEventDTO image) {
+        // Late detections of older frames must not replace a newer one
+        latest.merge(image.getCamera(), image,
+                (current, candidate) -> candidate.getDatetime().isBefore(current.getDatetime()) ? current : candidate);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warm() {
+        resync();
+        logger.info("Latest state loaded for {} cameras", latest.size());
+    }
+
+    /**
+     * Reads the latest detected image of every camera, one index seek each on {camera, datetime}
+     */
+    @Scheduled(fixedDelayString = "${images.latest.resync-ms}", initialDelayString = "${images.latest.resync-ms}")
+    public void resync() {
+        try {
+            List<String> cameras = mongoTemplate.findDistinct(new Query(), "camera", Image.class, String.class);
+            for (String camera : cameras) {
+                Query query = Query.query(Criteria.where("camera").is(camera).orOperator(
+                                Criteria.where("detectionCount").ne(null),
+                                Criteria.where("detections").ne(null)))
+                        .with(Sort.by(Sort.Direction.DESC, "datetime"))
+                        .limit(1);
+                query.fields().include("camera").include("datetime").include("detectionCount")
+                        .include("labelCounts").include("detections");
+                Image image = mongoTemplate.findOne(query, Image.class);
+                if (image != null)
+                    update(LiveFeedService.toLiveEvent(image));
+            }
+        } catch (Exception e) {
+            logger.warn("Could not load the latest state: {}", e.getMessage());
+        }
+    }
+}
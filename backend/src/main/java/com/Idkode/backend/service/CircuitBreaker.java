@@ -0,0 +1,76 @@
+package com.Idkode.backend.service;
+
+/**
+ * Stops calls to a failing dependency for a while, then lets a single trial call through.
+ * Opens after {@code failureThreshold} consecutive failures and closes on the first success.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * @param failureThreshold the consecutive failures that open the circuit
+     * @param openMillis       how long the circuit stays open before a trial call
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openMillis * 1_000_000;
+    }
+
+    /**
+     * Asks to make a call. Must be followed by {@link #onSuccess()} or {@link #onFailure()} when it returns true.
+     *
+     * @return whether the call may go ahead
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos)
+            state = State.HALF_OPEN;
+        if (state == State.CLOSED)
+            return true;
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return whether a call would be let through now
+     */
+    public synchronized boolean isCallPermitted() {
+        return state == State.CLOSED
+                || (state == State.OPEN && System.nanoTime() - openedAt >= openNanos)
+                || (state == State.HALF_OPEN && !trialInFlight);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
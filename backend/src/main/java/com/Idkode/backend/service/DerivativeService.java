@@ -0,0 +1,116 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.service.storage.ImageStorage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the smaller sizes of each uploaded image in the background, on a fixed pool of CPU workers.
+ * Derivatives are written next to the original and their paths recorded on the {@link Image}.
+ */
+@Service
+public class DerivativeService {
+
+    private final Logger logger = LoggerFactory.getLogger(DerivativeService.class);
+
+    private final AnnotationRenderer annotationRenderer;
+    private final MongoTemplate mongoTemplate;
+    private final ImageStorage imageStorage;
+    private final Map<EnumImageSize, Integer> widths = new EnumMap<>(EnumImageSize.class);
+    private final ExecutorService executor;
+
+    @Autowired
+    public DerivativeService(AnnotationRenderer annotationRenderer, MongoTemplate mongoTemplate, ImageStorage imageStorage,
+                             @Value("${images.derivatives.medium-width}") int mediumWidth,
+                             @Value("${images.derivatives.thumbnail-width}") int thumbnailWidth,
+                             @Value("${images.derivatives.workers}") int workers,
+                             @Value("${images.derivatives.queue-capacity}") int queueCapacity) {
+        this.annotationRenderer = annotationRenderer;
+        this.mongoTemplate = mongoTemplate;
+        this.imageStorage = imageStorage;
+        this.widths.put(EnumImageSize.MEDIUM, mediumWidth);
+        this.widths.put(EnumImageSize.THUMBNAIL, thumbnailWidth);
+
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "derivative-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param size a size
+     * @return its width in pixels, 0 for the original
+     */
+    public int getWidth(EnumImageSize size) {
+        return widths.getOrDefault(size, 0);
+    }
+
+    /**
+     * Queues the generation of the derivatives of an image.
+     * When the pool is saturated the image is skipped; its smaller sizes are then rendered on request.
+     *
+     * @param image the saved image
+     */
+    public void generateAsync(Image image) {
+        try {
+            executor.execute(() -> generate(image));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Derivative queue is full, skipping image: {}", image.getId());
+        }
+    }
+
+    /**
+     * Writes every derivative smaller than the original and records them on the image
+     *
+     * @param image the image
+     */
+    public void generate(Image image) {
+        try {
+            BufferedImage decoded = AnnotationRenderer.decode(imageStorage.read(image.getPath()));
+            Update update = new Update()
+                    .set("width", decoded.getWidth())
+                    .set("height", decoded.getHeight());
+            for (Map.Entry<EnumImageSize, Integer> size : widths.entrySet()) {
+                if (decoded.getWidth() <= size.getValue())
+                    continue;
+                BufferedImage resized = AnnotationRenderer.draw(decoded, List.of(), size.getValue(), 1.0);
+                String derivative = ImageStorage.siblingKey(image.getPath(), "." + size.getKey().name().toLowerCase() + ".jpg");
+                imageStorage.write(derivative, annotationRenderer.encode(resized));
+                update.set("derivatives." + size.getKey().name(), derivative);
+            }
+            mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(image.getId())), update, Image.class);
+        } catch (Exception e) {
+            logger.error("Could not generate derivatives for image: {}, Error: {}", image.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps nearly identical frames away from the model. Each frame is compared with the last frame of its camera
+ * that went through the model, its reference. When at most {@code detection.dedup.max-changed} of the cells
+ * of their {@link FrameSignature}s changed by {@code detection.dedup.pixel-delta} levels or more, once
+ * a global change of light is taken out, the detections of the reference are reused.
+ * <p>
+ * Comparing with the reference rather than the previous frame keeps slow changes, like a car creeping in,
+ * from adding up unnoticed. A reference is also dropped after {@code detection.dedup.max-skips} reuses or
+ * once it is older than {@code detection.dedup.max-age-seconds}, so static scenes still get a fresh look.
+ * References live in memory, each replica keeps its own.
+ */
+@Service
+public class DetectionGate {
+
+    private final Logger logger = LoggerFactory.getLogger(DetectionGate.class);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int pixelDelta;
+    private final double maxChanged;
+    private final int maxSkips;
+    private final Duration maxAge;
+    private final Map<String, Reference> references = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DetectionGate(MeterRegistry meterRegistry,
+                         @Value("${detection.dedup.enabled}") boolean enabled,
+                         @Value("${detection.dedup.pixel-delta}") int pixelDelta,
+                         @Value("${detection.dedup.max-changed}") double maxChanged,
+                         @Value("${detection.dedup.max-skips}") int maxSkips,
+                         @Value("${detection.dedup.max-age-seconds}") long maxAgeSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.pixelDelta = pixelDelta;
+        this.maxChanged = maxChanged;
+        this.maxSkips = maxSkips;
+        this.maxAge = Duration.ofSeconds(maxAgeSeconds);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Frame that went through the model, with its detections once they are known
+     */
+    private record Reference(String imageId, LocalDateTime datetime, byte[] signature, List<Detection> detections, int skips) {
+    }
+
+    /**
+     * What to do with the images of a batch
+     */
+    public static class Plan {
+        private final Map<String, String> sources = new HashMap<>();
+        private final Map<String, List<Detection>> known = new HashMap<>();
+        private final Map<String, Reference> pending = new HashMap<>();
+        /** Camera of every image and reference involved */
+        private final Map<String, String> cameras = new HashMap<>();
+
+        /**
+         * @param imageId an image of the batch
+         * @return whether it has to go through the model
+         */
+        public boolean needsModel(String imageId) {
+            return !sources.containsKey(imageId);
+        }
+
+        /**
+         * @param imageId an image of the batch
+         * @return the image whose detections it reuses, null when it goes through the model
+         */
+        public String getSource(String imageId) {
+            return sources.get(imageId);
+        }
+    }
+
+    /**
+     * Decides which images of a batch can reuse the detections of their reference.
+     * Frames of a camera are taken in order, so a frame can also reuse an earlier frame of the same batch.
+     *
+     * @param images the images of the batch
+     * @param frames the encoded content of the images, by image id
+     * @return the plan, where every image needs the model when the gate is off
+     */
+    public Plan plan(List<Image> images, Map<String, byte[]> frames) {
+        Plan plan = new Plan();
+        if (!enabled)
+            return plan;
+
+        List<Image> ordered = new ArrayList<>(images);
+        ordered.sort(Comparator.comparing(Image::getCamera).thenComparing(Image::getDatetime));
+        Map<String, Reference> current = new HashMap<>();
+        for (Image image : ordered) {
+            byte[] content = frames.get(image.getId());
+            if (content == null)
+                continue;
+            byte[] signature;
+            try {
+                signature = FrameSignature.of(content);
+            } catch (Exception e) {
+                logger.warn("Could not compute the signature of image: {}, Error: {}", image.getId(), e.getMessage());
+                continue;
+            }
+            String camera = image.getCamera();
+            plan.cameras.put(image.getId(), camera);
+            Reference reference = current.containsKey(camera) ? current.get(camera) : references.get(camera);
+            if (reference != null && matches(reference, image.getDatetime(), signature)) {
+                plan.sources.put(image.getId(), reference.imageId());
+                plan.cameras.put(reference.imageId(), camera);
+                if (reference.detections() != null)
+                    plan.known.put(reference.imageId(), reference.detections());
+                current.put(camera, new Reference(reference.imageId(), reference.datetime(), reference.signature(),
+                        reference.detections(), reference.skips() + 1));
+                count(camera, "skipped");
+            } else {
+                Reference candidate = new Reference(image.getId(), image.getDatetime(), signature, null, 0);
+                plan.pending.put(image.getId(), candidate);
+                current.put(camera, candidate);
+                count(camera, "model");
+            }
+        }
+        return plan;
+    }
+
+    private boolean matches(Reference reference, LocalDateTime datetime, byte[] signature) {
+        // Frames that arrive out of order are not compared with a newer reference
+        return datetime.isAfter(reference.datetime())
+                && !datetime.isAfter(reference.datetime().plus(maxAge))
+                && reference.skips() < maxSkips
+                && FrameSignature.changed(reference.signature(), signature, pixelDelta) <= maxChanged;
+    }
+
+    private void count(String camera, String outcome) {
+        meterRegistry.counter("detection.gate", "camera", camera, "outcome", outcome).increment();
+    }
+
+    /**
+     * Records the model results of a batch as the new references, and fills in the detections of the images
+     * that reuse them
+     *
+     * @param plan    the plan of the batch
+     * @param results the detections returned by the model, by image id. Reused detections are added to it
+     */
+    public void complete(Plan plan, Map<String, List<Detection>> results) {
+        if (!enabled)
+            return;
+        Map<String, Integer> skips = new HashMap<>();
+        plan.sources.values().forEach(source -> skips.merge(source, 1, Integer::sum));
+
+        for (Reference pending : plan.pending.values()) {
+            List<Detection> detections = results.get(pending.imageId());
+            if (detections == null)
+                continue;
+            Reference reference = new Reference(pending.imageId(), pending.datetime(), pending.signature(),
+                    detections, skips.getOrDefault(pending.imageId(), 0));
+            // Batches of one camera may finish out of order, the newest reference wins
+            references.merge(plan.cameras.get(pending.imageId()), reference,
+                    (old, candidate) -> candidate.datetime().isBefore(old.datetime()) ? old : candidate);
+        }
+        plan.sources.forEach((imageId, source) -> {
+            List<Detection> detections = results.containsKey(source) ? results.get(source) : plan.known.get(source);
+            if (detections != null)
+                results.put(imageId, detections);
+        });
+        // References from earlier batches count the reuses of this one
+        skips.forEach((source, count) -> {
+            if (!plan.pending.containsKey(source))
+                references.computeIfPresent(plan.cameras.get(source), (camera, reference) ->
+                        reference.imageId().equals(source)
+                                ? new Reference(source, reference.datetime(), reference.signature(),
+                                reference.detections(), reference.skips() + count)
+                                : reference);
+        });
+    }
+}
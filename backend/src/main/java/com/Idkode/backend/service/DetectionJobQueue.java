@@ -0,0 +1,424 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.DetectionJob;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.entity.enumeration.EnumJobState;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Durable queue of detection jobs in the {@code detection_jobs} collection.
+ * <p>
+ * Workers claim jobs in batches by leasing them: a claimed job belongs to its worker until the lease
+ * runs out, after which any worker, on any replica, may claim it again. That covers crashes and restarts.
+ * Failed jobs are retried with exponential backoff and end up DEAD after {@code detection.jobs.max-attempts}.
+ */
+@Service
+public class DetectionJobQueue {
+
+    /** Priority of new uploads */
+    public static final int PRIORITY_LIVE = 0;
+
+    /** Priority of bulk reprocessing, which must not delay new uploads */
+    public static final int PRIORITY_REPROCESS = 1;
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final DetectionPartitions partitions;
+    private final Duration lease;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    @Autowired
+    public DetectionJobQueue(MongoTemplate mongoTemplate, DetectionPartitions partitions,
+                             @Value("${detection.jobs.lease-ms}") long leaseMillis,
+                             @Value("${detection.jobs.max-attempts}") int maxAttempts,
+                             @Value("${detection.jobs.backoff-ms}") long backoffMillis,
+                             @Value("${detection.jobs.max-backoff-ms}") long maxBackoffMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.partitions = partitions;
+        this.lease = Duration.ofMillis(leaseMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Adds jobs for images, in one round trip unless some of them are being run.
+     * An image that already has a job gets it reset to READY, see {@link #requeue}.
+     *
+     * @param images   the images
+     * @param priority the priority of the jobs
+     */
+    public void enqueue(Collection<Image> images, int priority) {
+        if (images.isEmpty())
+            return;
+        requeue(List.copyOf(images), priority, Instant.now());
+    }
+
+    /**
+     * Queues images, creating their jobs or resetting them to READY with no attempts.
+     * A job a worker is running is left to it and only flagged to run again once completed, so the image never
+     * goes through two workers at once. An existing job keeps its priority when higher, a live upload
+     * waiting is not pushed behind reprocessing.
+     *
+     * @param images   the images
+     * @param priority the priority of the jobs
+     * @param now      when they become claimable
+     * @return the number of jobs created, reset or flagged
+     */
+    private long requeue(List<Image> images, int priority, Instant now) {
+        long count = 0;
+        List<Image> pending = images;
+        while (!pending.isEmpty()) {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DetectionJob.class);
+            for (Image image : pending)
+                bulk.upsert(Query.query(Criteria.where("id").is(image.getId()).and("state").ne(EnumJobState.LEASED)),
+                        ready(image, priority, now));
+            List<Image> leased = new ArrayList<>();
+            BulkWriteResult result;
+            try {
+                result = bulk.execute();
+            } catch (BulkOperationException e) {
+                // The filter skips LEASED jobs, so the upsert tries to insert a second job with their id
+                for (BulkWriteError error : e.getErrors()) {
+                    if (error.getCode() != DUPLICATE_KEY)
+                        throw e;
+                    leased.add(pending.get(error.getIndex()));
+                }
+                result = e.getResult();
+            }
+            count += result.getUpserts().size() + result.getModifiedCount();
+            if (leased.isEmpty())
+                break;
+
+            long flagged = mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("id").in(leased.stream().map(Image::getId).toList())
+                            .and("state").is(EnumJobState.LEASED)),
+                    new Update().set("rerun", true),
+                    DetectionJob.class).getMatchedCount();
+            count += flagged;
+            // Jobs completed in between are gone and get queued again
+            pending = flagged == leased.size() ? List.of() : leased;
+        }
+        return count;
+    }
+
+    private Update ready(Image image, int priority, Instant now) {
+        return new Update()
+                .set("path", image.getPath())
+                .set("partition", partitions.partitionOf(image.getCamera()))
+                .set("state", EnumJobState.READY)
+                .min("priority", priority)
+                .set("attempts", 0)
+                .set("availableAt", now)
+                .unset("leaseOwner")
+                .unset("leaseUntil")
+                .unset("lastError")
+                .unset("rerun")
+                .setOnInsert("createdAt", now);
+    }
+
+    /**
+     * Leases up to limit jobs, highest priority and oldest first, including jobs whose lease ran out
+     *
+     * @param owner      the worker claiming them
+     * @param limit      the most jobs to claim
+     * @param partitions the partitions of the worker, null to claim from any; jobs without a partition, or with one
+     *                   past the configured count, are always claimable
+     * @return the claimed jobs
+     */
+    public List<DetectionJob> claim(String owner, int limit, Collection<Integer> partitions) {
+        if (partitions != null && partitions.isEmpty())
+            return List.of();
+        Instant now = Instant.now();
+        Criteria claimable = claimable(now);
+        if (partitions != null) {
+            List<Integer> owned = new ArrayList<>(partitions);
+            owned.add(null);
+            // Jobs partitioned under a higher count, by an older replica or before a restart, belong to no worker
+            claimable = new Criteria().andOperator(claimable, new Criteria().orOperator(
+                    Criteria.where("partition").in(owned),
+                    Criteria.where("partition").gte(this.partitions.getCount())));
+        }
+        Query candidates = Query.query(claimable)
+                .with(Sort.by("priority", "availableAt"))
+                .limit(limit);
+        candidates.fields().include("id");
+        List<String> ids = mongoTemplate.find(candidates, DetectionJob.class).stream().map(DetectionJob::getId).toList();
+        if (ids.isEmpty())
+            return List.of();
+
+        // Jobs another worker took in between no longer match and are left alone
+        mongoTemplate.updateMulti(
+                Query.query(new Criteria().andOperator(Criteria.where("id").in(ids), claimable)),
+                new Update()
+                        .set("state", EnumJobState.LEASED)
+                        .set("leaseOwner", owner)
+                        .set("leaseUntil", now.plus(lease))
+                        // This run starts after the request to run again, so it answers it
+                        .unset("rerun"),
+                DetectionJob.class
+        );
+        return mongoTemplate.find(Query.query(Criteria.where("id").in(ids).and("leaseOwner").is(owner)
+                .and("state").is(EnumJobState.LEASED)), DetectionJob.class);
+    }
+
+    private static Criteria claimable(Instant now) {
+        return new Criteria().orOperator(
+                Criteria.where("state").is(EnumJobState.READY).and("availableAt").lte(now),
+                Criteria.where("state").is(EnumJobState.LEASED).and("leaseUntil").lt(now)
+        );
+    }
+
+    /**
+     * Removes jobs whose detections were saved. Jobs queued again while they ran go back to READY instead.
+     *
+     * @param owner the worker holding them
+     * @param ids   the job ids
+     */
+    public void complete(String owner, Collection<String> ids) {
+        if (ids.isEmpty())
+            return;
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("id").in(ids).and("leaseOwner").is(owner).and("rerun").is(true)),
+                new Update()
+                        .set("state", EnumJobState.READY)
+                        .set("attempts", 0)
+                        .set("availableAt", Instant.now())
+                        .unset("leaseOwner")
+                        .unset("leaseUntil")
+                        .unset("lastError")
+                        .unset("rerun"),
+                DetectionJob.class
+        );
+        mongoTemplate.remove(Query.query(Criteria.where("id").in(ids).and("leaseOwner").is(owner)), DetectionJob.class);
+    }
+
+    /**
+     * Gives jobs back without counting an attempt, for when the model is down rather than the images at fault
+     *
+     * @param owner the worker holding them
+     * @param ids   the job ids
+     * @param delay how long until they may be claimed again
+     */
+    public void release(String owner, Collection<String> ids, Duration delay) {
+        if (ids.isEmpty())
+            return;
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("id").in(ids).and("leaseOwner").is(owner)),
+                new Update()
+                        .set("state", EnumJobState.READY)
+                        .set("availableAt", Instant.now().plus(delay))
+                        .unset("leaseOwner")
+                        .unset("leaseUntil"),
+                DetectionJob.class
+        );
+    }
+
+    /**
+     * Records a failed attempt on each job: it goes back to READY after a backoff, or to DEAD when out of attempts
+     *
+     * @param owner the worker holding them
+     * @param jobs  the jobs
+     * @param error why they failed
+     * @return the ids of the jobs that are now DEAD
+     */
+    public List<String> fail(String owner, Collection<DetectionJob> jobs, String error) {
+        List<String> dead = new ArrayList<>();
+        if (jobs.isEmpty())
+            return dead;
+        Instant now = Instant.now();
+        List<Pair<Query, UpdateDefinition>> updates = new ArrayList<>(jobs.size());
+        for (DetectionJob job : jobs) {
+            int attempts = (job.getAttempts() == null ? 0 : job.getAttempts()) + 1;
+            Update update = new Update()
+                    .set("attempts", attempts)
+                    .set("lastError", error)
+                    .unset("leaseOwner")
+                    .unset("leaseUntil");
+            if (attempts >= maxAttempts) {
+                update.set("state", EnumJobState.DEAD);
+                dead.add(job.getId());
+            } else {
+                update.set("state", EnumJobState.READY).set("availableAt", now.plusMillis(backoff(attempts)));
+            }
+            updates.add(Pair.of(Query.query(Criteria.where("id").is(job.getId()).and("leaseOwner").is(owner)), update));
+        }
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DetectionJob.class).updateOne(updates).execute();
+        return dead;
+    }
+
+    /**
+     * Exponential backoff with jitter, so jobs that failed together are not retried together
+     */
+    long backoff(int attempts) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempts - 1, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * @return the number of jobs a worker of any replica could claim now. Jobs waiting out a backoff, or released
+     * while the model was down, are not counted
+     */
+    public long countReady() {
+        return mongoTemplate.count(Query.query(Criteria.where("state").is(EnumJobState.READY)
+                .and("availableAt").lte(Instant.now())), DetectionJob.class);
+    }
+
+    /**
+     * Creates jobs for images that never got their detections and have no job, e.g. after a crash
+     * before the queue existed. Existing jobs are left as they are.
+     * <p>
+     * No index covers the filter, so this reads the whole images collection. It is a one-off for migrating
+     * older data, run on startup only when {@code detection.jobs.sweep-on-startup} is set, on a single replica.
+     *
+     * @return the number of jobs created
+     */
+    public long sweepOrphans() {
+        Query orphans = Query.query(Criteria.where("detections").is(null)
+                .and("detectionCount").is(null)
+                .and("status").ne(EnumDetectionStatus.FAILED));
+        orphans.fields().include("id").include("path").include("camera");
+        Instant now = Instant.now();
+        return upsertChunks(mongoTemplate.stream(orphans, Image.class), image -> new Update()
+                .setOnInsert("path", image.getPath())
+                .setOnInsert("partition", partitions.partitionOf(image.getCamera()))
+                .setOnInsert("state", EnumJobState.READY)
+                .setOnInsert("priority", PRIORITY_LIVE)
+                .setOnInsert("attempts", 0)
+                .setOnInsert("availableAt", now)
+                .setOnInsert("createdAt", now));
+    }
+
+    /**
+     * Moves the jobs whose partition is past {@code detection.partitions.count}, left by a higher count,
+     * to the partition of their camera, so its jobs run in order again. Jobs whose image is gone lose their
+     * partition and are claimed by any worker.
+     *
+     * @return the number of jobs moved
+     */
+    public long repartition() {
+        if (!partitions.isEnabled())
+            return 0;
+        Criteria stale = Criteria.where("partition").gte(partitions.getCount());
+        Query jobs = Query.query(stale);
+        jobs.fields().include("id");
+        long count = 0;
+        List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (Stream<DetectionJob> stream = mongoTemplate.stream(jobs, DetectionJob.class)) {
+            for (DetectionJob job : (Iterable<DetectionJob>) stream::iterator) {
+                chunk.add(job.getId());
+                if (chunk.size() == CHUNK_SIZE) {
+                    count += repartition(chunk, stale);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty())
+            count += repartition(chunk, stale);
+        return count;
+    }
+
+    private int repartition(List<String> ids, Criteria stale) {
+        Query images = Query.query(Criteria.where("id").in(ids));
+        images.fields().include("id").include("camera");
+        Map<String, String> cameras = new HashMap<>();
+        mongoTemplate.find(images, Image.class).forEach(image -> cameras.put(image.getId(), image.getCamera()));
+
+        List<Pair<Query, UpdateDefinition>> updates = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Integer partition = partitions.partitionOf(cameras.get(id));
+            // Only jobs still past the count, a job enqueued again in between already has the right one
+            updates.add(Pair.of(Query.query(new Criteria().andOperator(Criteria.where("id").is(id), stale)),
+                    partition == null ? new Update().unset("partition") : new Update().set("partition", partition)));
+        }
+        return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DetectionJob.class)
+                .updateOne(updates)
+                .execute()
+                .getModifiedCount();
+    }
+
+    /**
+     * Queues the images of a camera, or of every camera, in a date range to be detected again
+     *
+     * @param camera the camera, null for every camera
+     * @param from   the first date
+     * @param to     the last date, inclusive
+     * @return the number of images queued
+     */
+    public long reprocess(String camera, LocalDate from, LocalDate to) {
+        Criteria criteria = Criteria.where("datetime").gte(from.atStartOfDay()).lt(to.plusDays(1).atStartOfDay());
+        if (camera != null)
+            criteria.and("camera").is(camera);
+        Query images = Query.query(criteria);
+        images.fields().include("id").include("path").include("camera");
+        Instant now = Instant.now();
+        long count = 0;
+        List<Image> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (Stream<Image> stream = mongoTemplate.stream(images, Image.class)) {
+            for (Image image : (Iterable<Image>) stream::iterator) {
+                chunk.add(image);
+                if (chunk.size() == CHUNK_SIZE) {
+                    count += requeue(chunk, PRIORITY_REPROCESS, now);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+        }
+        if (!chunk.isEmpty())
+            count += requeue(chunk, PRIORITY_REPROCESS, now);
+        return count;
+    }
+
+    private long upsertChunks(Stream<Image> images, Function<Image, Update> toUpdate) {
+        long count = 0;
+        List<Pair<Query, Update>> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (images) {
+            for (Image image : (Iterable<Image>) images::iterator) {
+                chunk.add(Pair.of(Query.query(Criteria.where("id").is(image.getId())), toUpdate.apply(image)));
+                if (chunk.size() == CHUNK_SIZE) {
+                    count += flush(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty())
+            count += flush(chunk);
+        return count;
+    }
+
+    private int flush(List<Pair<Query, Update>> chunk) {
+        var result = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DetectionJob.class)
+                .upsert(chunk)
+                .execute();
+        return result.getUpserts().size() + result.getModifiedCount();
+    }
+}
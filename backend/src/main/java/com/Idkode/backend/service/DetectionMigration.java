@@ -0,0 +1,106 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Rewrites the detections of older images into the compact format, see {@link com.Idkode.backend.entity.PackedDetections}.
+ * <p>
+ * Images in either format are read the same way, so this is only about space. It runs in the background
+ * after startup when {@code images.detections.migrate-on-startup} is set, and skips images whose detections
+ * were replaced in the meantime.
+ */
+@Service
+public class DetectionMigration {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(DetectionMigration.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+
+    @Autowired
+    public DetectionMigration(MongoTemplate mongoTemplate,
+                              @Value("${images.detections.compact}") boolean compact,
+                              @Value("${images.detections.migrate-on-startup}") boolean migrateOnStartup) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = compact && migrateOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled)
+            return;
+        Thread thread = new Thread(() -> {
+            try {
+                logger.info("Compacted the detections of {} images", migrate());
+            } catch (Exception e) {
+                logger.error("Could not compact detections: {}", e.getMessage());
+            }
+        }, "detection-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Converts every image still holding detection subdocuments, in bulk writes of a thousand
+     *
+     * @return the number of images converted
+     */
+    public long migrate() {
+        Query legacy = Query.query(Criteria.where("detections").ne(null));
+        legacy.fields().include("id").include("detections").include("detectionsVersion");
+
+        long count = 0;
+        List<Pair<Query, UpdateDefinition>> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (Stream<Image> images = mongoTemplate.stream(legacy, Image.class)) {
+            for (Image image : (Iterable<Image>) images::iterator) {
+                chunk.add(Pair.of(
+                        Query.query(Criteria.where("id").is(image.getId())
+                                .and("detectionsVersion").is(image.getDetectionsVersion())),
+                        compact(image)));
+                if (chunk.size() == CHUNK_SIZE) {
+                    count += flush(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty())
+            count += flush(chunk);
+        return count;
+    }
+
+    private static Update compact(Image image) {
+        image.setDetections(image.getDetections(), true);
+        return new Update()
+                .set("packedDetections", image.getPackedDetections())
+                .set("detectionCount", image.getDetectionCount())
+                .set("labelCounts", image.getLabelCounts())
+                .unset("detections");
+    }
+
+    private long flush(List<Pair<Query, UpdateDefinition>> chunk) {
+        return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class)
+                .updateOne(chunk)
+                .execute()
+                .getModifiedCount();
+    }
+}
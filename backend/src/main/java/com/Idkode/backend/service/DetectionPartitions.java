@@ -0,0 +1,185 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.DetectionMember;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Spreads detection work over the workers of every replica by camera.
+ * <p>
+ * Each job gets a partition from the hash of its camera, and each partition belongs to a single worker
+ * among those of the live replicas, found by rendezvous hashing over the {@code detection_members} heartbeats.
+ * The jobs of a camera are therefore run by one worker, in order, and adding a replica moves only
+ * its share of partitions to it. Jobs from before partitioning, without one, are claimed by any worker,
+ * and so are jobs whose partition is past a lowered count until {@link DetectionJobQueue#repartition} moves them.
+ * <p>
+ * While membership changes, two workers may briefly both claim a partition; leases still keep a job from
+ * running twice at once, only the order of that camera is not guaranteed until the next heartbeat.
+ * With {@code detection.partitions.count} at 0 any worker claims any job, as before.
+ */
+@Service
+public class DetectionPartitions {
+
+    private final Logger logger = LoggerFactory.getLogger(DetectionPartitions.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final int count;
+    private final Duration memberTimeout;
+    private volatile String replicaId;
+    private volatile int workers;
+    /** Partitions of each local worker, by worker index */
+    private volatile Map<Integer, Set<Integer>> assignment = Map.of();
+
+    @Autowired
+    public DetectionPartitions(MongoTemplate mongoTemplate,
+                               @Value("${detection.partitions.count}") int count,
+                               @Value("${detection.partitions.member-timeout-ms}") long memberTimeoutMillis,
+                               MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.count = Math.max(0, count);
+        this.memberTimeout = Duration.ofMillis(memberTimeoutMillis);
+        Gauge.builder("detection.partitions.owned", this,
+                        partitions -> partitions.assignment.values().stream().mapToInt(Set::size).sum())
+                .description("Partitions run by the workers of this replica")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return count > 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param camera the camera of a job
+     * @return its partition, null when partitioning is off or the camera is unknown
+     */
+    public Integer partitionOf(String camera) {
+        if (!isEnabled() || camera == null)
+            return null;
+        // String.hashCode is the same on every JVM, so every replica agrees
+        return Math.floorMod(camera.hashCode(), count);
+    }
+
+    /**
+     * Registers the workers of this replica and takes its share of the partitions
+     *
+     * @param replicaId the replica
+     * @param workers   its number of workers
+     */
+    public void join(String replicaId, int workers) {
+        this.replicaId = replicaId;
+        this.workers = workers;
+        heartbeat();
+    }
+
+    /**
+     * @param worker the index of a local worker
+     * @return the partitions it may claim, null when it may claim any job
+     */
+    public Set<Integer> owned(int worker) {
+        return isEnabled() ? assignment.getOrDefault(worker, Set.of()) : null;
+    }
+
+    /**
+     * Renews this replica and recomputes the assignment from the replicas that are still alive.
+     * When Mongo cannot be reached the previous assignment is kept.
+     */
+    @Scheduled(fixedDelayString = "${detection.partitions.heartbeat-ms}")
+    public void heartbeat() {
+        if (!isEnabled() || replicaId == null)
+            return;
+        try {
+            Instant now = Instant.now();
+            mongoTemplate.upsert(Query.query(Criteria.where("id").is(replicaId)),
+                    new Update().set("workers", workers).set("heartbeatAt", now), DetectionMember.class);
+            Map<String, Integer> members = new TreeMap<>();
+            for (DetectionMember member : mongoTemplate.find(
+                    Query.query(Criteria.where("heartbeatAt").gt(now.minus(memberTimeout))), DetectionMember.class))
+                members.put(member.getId(), member.getWorkers() == null ? 0 : member.getWorkers());
+            members.put(replicaId, workers);
+
+            Map<Integer, Set<Integer>> assigned = assign(members, replicaId, count);
+            if (!assigned.equals(assignment))
+                logger.info("Detection partitions reassigned over {} replicas, {} of {} owned here",
+                        members.size(), assigned.values().stream().mapToInt(Set::size).sum(), count);
+            assignment = assigned;
+        } catch (Exception e) {
+            logger.warn("Could not renew detection partitions, keeping the current ones: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void leave() {
+        if (!isEnabled() || replicaId == null)
+            return;
+        try {
+            // The other replicas take over the partitions at their next heartbeat instead of after the timeout
+            mongoTemplate.remove(Query.query(Criteria.where("id").is(replicaId)), DetectionMember.class);
+        } catch (Exception e) {
+            logger.warn("Could not leave detection partitions: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Gives each partition to the worker with the highest score for it, among all the workers of all members
+     *
+     * @param members the live replicas and their number of workers
+     * @param self    this replica
+     * @param count   the number of partitions
+     * @return the partitions of each worker of self, by worker index
+     */
+    static Map<Integer, Set<Integer>> assign(Map<String, Integer> members, String self, int count) {
+        Map<Integer, Set<Integer>> assigned = new HashMap<>();
+        for (int partition = 0; partition < count; partition++) {
+            String bestMember = null;
+            int bestWorker = -1;
+            long bestScore = Long.MIN_VALUE;
+            for (Map.Entry<String, Integer> member : members.entrySet()) {
+                for (int worker = 0; worker < member.getValue(); worker++) {
+                    long score = score(member.getKey(), worker, partition);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestMember = member.getKey();
+                        bestWorker = worker;
+                    }
+                }
+            }
+            if (self.equals(bestMember))
+                assigned.computeIfAbsent(bestWorker, worker -> new TreeSet<>()).add(partition);
+        }
+        return assigned;
+    }
+
+    private static long score(String member, int worker, int partition) {
+        long h = (member.hashCode() * 31L + worker) * 0x9E3779B97F4A7C15L + partition;
+        // Murmur3 finalizer, so nearby inputs get unrelated scores
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE4BC21F3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,368 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.DetectionJob;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.service.exception.DetectionQueueFullException;
+import com.Idkode.backend.service.exception.ModelUnavailableException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detection workers fed by the durable {@link DetectionJobQueue}.
+ * Uploads only pay for writing the job, never for the model round trip.
+ * Each worker claims up to {@code detection.batch.size} jobs, waiting at most
+ * {@code detection.batch.linger-ms} for the batch to fill, and sends them to the model together.
+ * <p>
+ * Jobs survive restarts and are shared by every replica, each worker taking the cameras of its
+ * {@link DetectionPartitions}. While the model is down, or its circuit is open,
+ * workers stop claiming, and jobs that were already claimed are released without counting an attempt.
+ */
+@Service
+public class DetectionPipeline {
+
+    /**
+     * What to do with an upload when the queue is full
+     */
+    public enum OverflowPolicy {
+        /** Answer 429 so the client retries later */
+        REJECT,
+        /** Accept the upload but skip detection for it */
+        SHED
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(DetectionPipeline.class);
+
+    private final ImageService imageService;
+    private final BatchDetector batchDetector;
+    private final ModelClient modelClient;
+    private final DetectionJobQueue jobQueue;
+    private final DetectionPartitions partitions;
+    /** Most jobs claimable at once across every replica, not per replica, before uploads overflow */
+    private final int capacity;
+    private final int workerCount;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final long pollMillis;
+    private final boolean virtualThreads;
+    private final boolean sweepOnStartup;
+    private final OverflowPolicy overflowPolicy;
+    private final long retryAfterSeconds;
+    private final String replicaId;
+    private final List<Thread> workers = new ArrayList<>();
+    /** Released on every local enqueue so idle workers do not wait for the next poll */
+    private final Semaphore wakeups = new Semaphore(0);
+    /** Claimable jobs of every replica, refreshed from Mongo and adjusted by local enqueues in between */
+    private final AtomicLong backlog = new AtomicLong();
+    private final DistributionSummary batchFill;
+    private final Timer queueDelay;
+
+    @Autowired
+    public DetectionPipeline(ImageService imageService, BatchDetector batchDetector, ModelClient modelClient,
+                             DetectionJobQueue jobQueue, DetectionPartitions partitions,
+                             @Value("${detection.queue.capacity}") int capacity,
+                             @Value("${detection.workers.count}") int workerCount,
+                             @Value("${detection.workers.virtual}") boolean virtualThreads,
+                             @Value("${detection.queue.overflow}") OverflowPolicy overflowPolicy,
+                             @Value("${detection.queue.retry-after}") long retryAfterSeconds,
+                             @Value("${detection.batch.size}") int batchSize,
+                             @Value("${detection.batch.linger-ms}") long lingerMillis,
+                             @Value("${detection.jobs.poll-ms}") long pollMillis,
+                             @Value("${detection.jobs.sweep-on-startup}") boolean sweepOnStartup,
+                             MeterRegistry meterRegistry) {
+        this.imageService = imageService;
+        this.batchDetector = batchDetector;
+        this.modelClient = modelClient;
+        this.jobQueue = jobQueue;
+        this.partitions = partitions;
+        this.capacity = capacity;
+        this.workerCount = workerCount;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerMillis = lingerMillis;
+        this.pollMillis = pollMillis;
+        this.virtualThreads = virtualThreads;
+        this.sweepOnStartup = sweepOnStartup;
+        this.overflowPolicy = overflowPolicy;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.replicaId = replicaId();
+        this.batchFill = DistributionSummary.builder("detection.batch.fill")
+                .description("Images per model request relative to the batch size")
+                .register(meterRegistry);
+        this.queueDelay = Timer.builder("detection.queue.delay")
+                .description("Time an image waits in the queue before being sent to the model")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("detection.queue.depth", backlog, AtomicLong::get).register(meterRegistry);
+    }
+
+    /**
+     * Starts the workers once the application is up. Images left without detections are re-queued first
+     * when {@code detection.jobs.sweep-on-startup} is set, see {@link DetectionJobQueue#sweepOrphans}.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (sweepOnStartup) {
+            try {
+                long orphans = jobQueue.sweepOrphans();
+                if (orphans > 0)
+                    logger.info("Queued {} images that were left without detections", orphans);
+            } catch (Exception e) {
+                logger.error("Could not sweep orphaned images: {}", e.getMessage());
+            }
+        }
+        try {
+            long moved = jobQueue.repartition();
+            if (moved > 0)
+                logger.info("Moved {} jobs left past the {} detection partitions", moved, partitions.getCount());
+        } catch (Exception e) {
+            logger.error("Could not repartition detection jobs: {}", e.getMessage());
+        }
+        refreshBacklog();
+        partitions.join(replicaId, workerCount);
+
+        ThreadFactory factory = threadFactory();
+        for (int i = 0; i < workerCount; i++) {
+            int index = i;
+            String owner = replicaId + "-" + i;
+            Thread worker = factory.newThread(() -> work(owner, index));
+            workers.add(worker);
+            worker.start();
+        }
+        logger.info("Detection pipeline started with {} workers", workerCount);
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Queues an image for detection without waiting for the model
+     *
+     * @param image the saved image
+     * @throws DetectionQueueFullException if the queue is full and the policy is REJECT
+     */
+    public void enqueue(Image image) {
+        if (enqueueAll(List.of(image)).isEmpty())
+            return;
+        if (overflowPolicy == OverflowPolicy.REJECT)
+            throw new DetectionQueueFullException("Detection queue is full, try again later.", retryAfterSeconds);
+        logger.warn("Detection queue is full, skipping detection for image: {}", image.getId());
+    }
+
+    /**
+     * Queues several images for detection with a single write, as many as fit under
+     * {@code detection.queue.capacity} claimable jobs across every replica.
+     * The ones that do not fit are marked FAILED together instead of failing the whole group.
+     *
+     * @param images the saved images
+     * @return the ids of the images that were not queued
+     */
+    public Set<String> enqueueAll(Collection<Image> images) {
+        List<Image> accepted = new ArrayList<>(images.size());
+        Set<String> rejected = new LinkedHashSet<>();
+        for (Image image : images) {
+            if (backlog.get() + accepted.size() < capacity) {
+                accepted.add(image);
+            } else {
+                rejected.add(image.getId());
+                image.setStatus(EnumDetectionStatus.FAILED);
+            }
+        }
+        jobQueue.enqueue(accepted, DetectionJobQueue.PRIORITY_LIVE);
+        backlog.addAndGet(accepted.size());
+        wake(accepted.size());
+
+        if (!rejected.isEmpty()) {
+            imageService.updateStatus(rejected, EnumDetectionStatus.FAILED);
+            logger.warn("Detection queue is full, {} of {} images not queued", rejected.size(), images.size());
+        }
+        return rejected;
+    }
+
+    /**
+     * Queues the images of a camera, or of every camera, in a date range to be detected again,
+     * behind new uploads. The current detections stay until the new ones are saved.
+     *
+     * @param camera the camera, null for every camera
+     * @param from   the first date
+     * @param to     the last date, inclusive
+     * @return the number of images queued
+     */
+    public long reprocess(String camera, LocalDate from, LocalDate to) {
+        long count = jobQueue.reprocess(camera, from, to);
+        wake(workerCount);
+        return count;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return the number of jobs of every replica a worker could claim now
+     */
+    public long getQueueDepth() {
+        return backlog.get();
+    }
+
+    /**
+     * Resyncs the backlog with the jobs actually waiting, including those enqueued by other replicas
+     */
+    @Scheduled(fixedDelayString = "${detection.jobs.poll-ms}")
+    public void refreshBacklog() {
+        try {
+            backlog.set(jobQueue.countReady());
+        } catch (Exception e) {
+            logger.warn("Could not count detection jobs: {}", e.getMessage());
+        }
+    }
+
+    private void work(String owner, int index) {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<DetectionJob> jobs = List.of();
+            try {
+                if (!modelClient.isAvailable()) {
+                    Thread.sleep(pollMillis);
+                    continue;
+                }
+                jobs = nextBatch(owner, index);
+                if (!jobs.isEmpty())
+                    process(owner, jobs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Leases run out, so these jobs are claimed again later
+                logger.error("Detection worker failed on {} jobs: {}", jobs.size(), e.getMessage());
+            }
+        }
+    }
+
+    private void process(String owner, List<DetectionJob> jobs) {
+        long now = System.currentTimeMillis();
+        List<DetectionTask> tasks = new ArrayList<>(jobs.size());
+        for (DetectionJob job : jobs) {
+            long enqueuedAt = job.getAvailableAt() == null ? now : job.getAvailableAt().toEpochMilli();
+            tasks.add(new DetectionTask(job.getId(), job.getPath(), enqueuedAt));
+            queueDelay.record(Math.max(0, now - enqueuedAt), TimeUnit.MILLISECONDS);
+        }
+        batchFill.record((double) jobs.size() / batchSize);
+
+        Set<String> saved;
+        try {
+            saved = batchDetector.detect(tasks);
+        } catch (ModelUnavailableException e) {
+            logger.warn("Model unavailable, releasing {} jobs: {}", jobs.size(), e.getMessage());
+            jobQueue.release(owner, jobs.stream().map(DetectionJob::getId).toList(), Duration.ofMillis(pollMillis));
+            return;
+        }
+        jobQueue.complete(owner, saved);
+
+        List<DetectionJob> failed = jobs.stream().filter(job -> !saved.contains(job.getId())).toList();
+        if (failed.isEmpty())
+            return;
+        List<String> dead = jobQueue.fail(owner, failed, "No detections saved");
+        Set<String> retried = new HashSet<>();
+        failed.forEach(job -> retried.add(job.getId()));
+        dead.forEach(retried::remove);
+        if (!retried.isEmpty())
+            imageService.updateStatus(retried, EnumDetectionStatus.QUEUED);
+        if (!dead.isEmpty()) {
+            logger.error("Giving up on {} images after repeated failures: {}", dead.size(), dead);
+            imageService.updateStatus(dead, EnumDetectionStatus.FAILED);
+        }
+    }
+
+    /**
+     * Claims jobs, then lingers for more until the batch is full
+     *
+     * @param owner the worker
+     * @param index the index of the worker on this replica
+     * @return the claimed jobs, empty if none showed up within the poll interval
+     * @throws InterruptedException if the worker is stopped
+     */
+    private List<DetectionJob> nextBatch(String owner, int index) throws InterruptedException {
+        List<DetectionJob> batch = new ArrayList<>(jobQueue.claim(owner, batchSize, partitions.owned(index)));
+        if (batch.isEmpty()) {
+            wakeups.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+            return batch;
+        }
+        if (batch.size() < batchSize && lingerMillis > 0) {
+            wakeups.tryAcquire(lingerMillis, TimeUnit.MILLISECONDS);
+            batch.addAll(jobQueue.claim(owner, batchSize - batch.size(), partitions.owned(index)));
+        }
+        backlog.updateAndGet(depth -> Math.max(0, depth - batch.size()));
+        return batch;
+    }
+
+    private void wake(int jobs) {
+        // Permits are capped so a burst of uploads does not leave workers spinning on empty claims later.
+        // With partitions only the owner of a job can claim it, so every worker is woken.
+        int permits = Math.min(partitions.isEnabled() ? workerCount : jobs, workerCount - wakeups.availablePermits());
+        if (permits > 0)
+            wakeups.release(permits);
+    }
+
+    private static String replicaId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "backend";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private ThreadFactory threadFactory() {
+        if (virtualThreads) {
+            // Virtual threads only exist from Java 21 on, so they are looked up at runtime
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                        .getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads are not available on this JVM, using platform threads");
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory defaults = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = defaults.newThread(runnable);
+            thread.setName("detection-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,21 @@
+package com.Idkode.backend.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * An image waiting in the detection pipeline
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class DetectionTask {
+
+    private final String imageId;
+
+    private final String path;
+
+    /** Epoch milliseconds when the task entered the queue */
+    private final long enqueuedAt;
+}
@@ -0,0 +1,136 @@
+package com.Idkode.backend.service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Downscaled copy of a frame, 64x36 cells of luma and of the two chroma channels, to tell nearly identical
+ * frames apart cheaply.
+ * <p>
+ * Each cell averages a patch of pixels, so sensor noise and jpg artifacts fade out while a vehicle entering
+ * the scene still changes several cells by a lot. Chroma catches a vehicle about as bright as the road,
+ * like a red car on gray asphalt. See {@link #changed}.
+ */
+public final class FrameSignature {
+
+    static final int WIDTH = 64;
+    static final int HEIGHT = 36;
+    static final int CELLS = WIDTH * HEIGHT;
+    /** Luma, blue-difference and red-difference chroma, one block of cells each */
+    static final int CHANNELS = 3;
+
+    /** Bounds of the fitted change of light, beyond them the scene itself changed */
+    private static final double MIN_GAIN = 0.5;
+    private static final double MAX_GAIN = 2.0;
+
+    private FrameSignature() {
+    }
+
+    /**
+     * @param image the encoded image
+     * @return its signature, the luma of every cell then its two chroma values
+     * @throws IOException if the image cannot be decoded
+     */
+    public static byte[] of(byte[] image) throws IOException {
+        BufferedImage decoded;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext())
+                throw new IOException("Invalid image data");
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // Skipping rows and columns while decoding keeps the decoded raster small
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, reader.getWidth(0) / (WIDTH * 4));
+                param.setSourceSubsampling(step, step, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        // Average the YCbCr values of the pixels falling in each cell
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        int[] sums = new int[CHANNELS * CELLS];
+        int[] counts = new int[CELLS];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            decoded.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * HEIGHT / height * WIDTH;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                int cell = cellRow + x * WIDTH / width;
+                sums[cell] += (r * 77 + g * 150 + b * 29) >> 8;
+                sums[CELLS + cell] += ((-43 * r - 85 * g + 128 * b) >> 8) + 128;
+                sums[2 * CELLS + cell] += ((128 * r - 107 * g - 21 * b) >> 8) + 128;
+                counts[cell]++;
+            }
+        }
+        byte[] signature = new byte[CHANNELS * CELLS];
+        for (int i = 0; i < signature.length; i++) {
+            int count = counts[i % CELLS];
+            signature[i] = (byte) (count == 0 ? 0 : sums[i] / count);
+        }
+        return signature;
+    }
+
+    /**
+     * Compares two signatures cell by cell, once a global change of light is taken out: for each channel,
+     * the gain and offset that best map the first signature onto the second are fitted over all the cells.
+     * A passing cloud or the auto exposure of the camera moves every cell together and is absorbed by the fit,
+     * while a vehicle only moves a few cells and barely affects it.
+     *
+     * @param first      a signature
+     * @param second     another signature
+     * @param pixelDelta the smallest difference in levels, in any channel, that counts as a change
+     * @return the fraction of cells that changed, from 0 to 1
+     */
+    public static double changed(byte[] first, byte[] second, int pixelDelta) {
+        if (first.length != second.length || first.length != CHANNELS * CELLS)
+            return 1.0;
+        boolean[] changed = new boolean[CELLS];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            int offset = channel * CELLS;
+            double mean1 = 0;
+            double mean2 = 0;
+            for (int i = offset; i < offset + CELLS; i++) {
+                mean1 += Byte.toUnsignedInt(first[i]);
+                mean2 += Byte.toUnsignedInt(second[i]);
+            }
+            mean1 /= CELLS;
+            mean2 /= CELLS;
+            double variance = 0;
+            double covariance = 0;
+            for (int i = offset; i < offset + CELLS; i++) {
+                double d1 = Byte.toUnsignedInt(first[i]) - mean1;
+                variance += d1 * d1;
+                covariance += d1 * (Byte.toUnsignedInt(second[i]) - mean2);
+            }
+            // A flat channel, like the chroma of a gray scene, says nothing about the gain
+            double gain = variance < CELLS ? 1.0 : Math.max(MIN_GAIN, Math.min(MAX_GAIN, covariance / variance));
+            double intercept = mean2 - gain * mean1;
+            for (int i = 0; i < CELLS; i++) {
+                double expected = intercept + gain * Byte.toUnsignedInt(first[offset + i]);
+                if (Math.abs(Byte.toUnsignedInt(second[offset + i]) - expected) >= pixelDelta)
+                    changed[i] = true;
+            }
+        }
+        int count = 0;
+        for (boolean cell : changed) {
+            if (cell)
+                count++;
+        }
+        return (double) count / CELLS;
+    }
+}
@@ -0,0 +1,159 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.ImageCountPoint;
+import com.Idkode.backend.repository.projection.ImageCount;
+import com.Idkode.backend.repository.projection.LabelCount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the counts of images after retention removed them, in the {@code image_counts} collection.
+ * <p>
+ * With {@code retention.counts.timeseries} the collection is created as a MongoDB time-series collection
+ * with camera as its meta field, which needs MongoDB 5.0 or later. Otherwise it is a regular collection
+ * with a {camera, datetime} index.
+ */
+@Service
+public class ImageCountArchive {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final Logger logger = LoggerFactory.getLogger(ImageCountArchive.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean timeSeries;
+    private volatile boolean ready;
+
+    @Autowired
+    public ImageCountArchive(MongoTemplate mongoTemplate,
+                             @Value("${retention.counts.timeseries}") boolean timeSeries) {
+        this.mongoTemplate = mongoTemplate;
+        this.timeSeries = timeSeries;
+    }
+
+    /**
+     * Creates the collection the first time counts are archived
+     */
+    private void ensureCollection() {
+        if (ready)
+            return;
+        synchronized (this) {
+            if (ready)
+                return;
+            if (!mongoTemplate.collectionExists(ImageCountPoint.class)) {
+                if (timeSeries) {
+                    mongoTemplate.createCollection(ImageCountPoint.class, CollectionOptions.timeSeries("datetime",
+                            options -> options.metaField("camera").granularity(Granularity.MINUTES)));
+                    logger.info("Created the image_counts time-series collection");
+                } else {
+                    mongoTemplate.indexOps(ImageCountPoint.class).ensureIndex(
+                            new Index().on("camera", Sort.Direction.ASC).on("datetime", Sort.Direction.ASC)
+                                    .named("camera_datetime"));
+                }
+            }
+            ready = true;
+        }
+    }
+
+    /**
+     * Stores the counts of images about to be removed. Each point is keyed by its image, so archiving
+     * a batch again, after a failure before its images were removed, adds nothing.
+     *
+     * @param images the images, with their detections
+     */
+    public void archive(Collection<Image> images) {
+        // Images that never got detections were never counted either
+        Map<String, ImageCountPoint> points = new LinkedHashMap<>();
+        for (Image image : images) {
+            if (image.getDetections() != null)
+                points.put(image.getId(), new ImageCountPoint(image.getId(), image.getCamera(), image.getDatetime(),
+                        image.getDetections().size(), Image.countLabels(image.getDetections())));
+        }
+        if (points.isEmpty())
+            return;
+        ensureCollection();
+
+        // Time-series collections do not enforce a unique _id, so the points already there are skipped first
+        Query existing = Query.query(Criteria.where("id").in(points.keySet()));
+        existing.fields().include("id");
+        mongoTemplate.find(existing, ImageCountPoint.class).forEach(point -> points.remove(point.getId()));
+        if (points.isEmpty())
+            return;
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ImageCountPoint.class)
+                    .insert(List.copyOf(points.values()))
+                    .execute();
+        } catch (BulkOperationException e) {
+            // Another replica archived some of the same images in between
+            if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY))
+                throw e;
+        }
+    }
+
+    /**
+     * Same as the count queries of ImageRepository, for archived images
+     *
+     * @param camera the camera
+     * @param start  the start, inclusive
+     * @param end    the end, exclusive
+     * @param labels whether to include the count of each label
+     * @return the counts, oldest first
+     */
+    public List<ImageCount> find(String camera, LocalDateTime start, LocalDateTime end, boolean labels) {
+        Query query = Query.query(Criteria.where("camera").is(camera).and("datetime").gte(start).lt(end))
+                .with(Sort.by("datetime"));
+        return find(query, labels);
+    }
+
+    /**
+     * @param camera   the camera
+     * @param datetime the datetime
+     * @param labels   whether to include the count of each label
+     * @return the counts of the archived image, at most one
+     */
+    public List<ImageCount> find(String camera, LocalDateTime datetime, boolean labels) {
+        return find(Query.query(Criteria.where("camera").is(camera).and("datetime").is(datetime)).limit(1), labels);
+    }
+
+    private List<ImageCount> find(Query query, boolean labels) {
+        return mongoTemplate.find(query, ImageCountPoint.class).stream()
+                .map(point -> new ImageCount(point.getDatetime(), point.getDetectionCount(),
+                        labels ? toLabelCounts(point.getLabelCounts()) : null))
+                .toList();
+    }
+
+    /**
+     * @param start the start, inclusive
+     * @param end   the end, exclusive
+     * @return the cameras with archived counts in the range
+     */
+    public List<String> findCameras(LocalDateTime start, LocalDateTime end) {
+        return mongoTemplate.findDistinct(Query.query(Criteria.where("datetime").gte(start).lt(end)),
+                "camera", ImageCountPoint.class, String.class);
+    }
+
+    private static List<LabelCount> toLabelCounts(Map<String, Integer> counts) {
+        if (counts == null)
+            return List.of();
+        return counts.entrySet().stream().map(entry -> new LabelCount(entry.getKey(), entry.getValue())).toList();
+    }
+}
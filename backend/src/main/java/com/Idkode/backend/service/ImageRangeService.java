@@ -0,0 +1,164 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.dtos.ImagePageDTO;
+import com.Idkode.backend.dtos.ImagePointDTO;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.service.exception.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Counts of the images of several cameras over any range of datetimes, read in {camera, datetime, id} order.
+ * <p>
+ * The order is the one of the {camera, datetime, _id} index, so Mongo never sorts in memory. Pages are keyset
+ * paginated: the cursor is the position of the last image returned, so every page is an index seek instead of
+ * a skip over the pages before it. Exports go through a Mongo cursor one image at a time.
+ * Only the counts are read, never the boxes of compact images.
+ * Days past retention are left out, their counts are in the count archive and the rollups.
+ */
+@Service
+public class ImageRangeService {
+
+    private static final int CURSOR_BATCH_SIZE = 1000;
+
+    /** The index whose order the queries read in, see {@link Image} */
+    static final String INDEX = "camera_datetime_id";
+
+    private final MongoTemplate mongoTemplate;
+    private final int maxPageSize;
+
+    @Autowired
+    public ImageRangeService(MongoTemplate mongoTemplate,
+                             @Value("${images.range.max-page-size}") int maxPageSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Get one page of the counts of several cameras in [from, to)
+     *
+     * @param cameras the cameras
+     * @param from    the start, inclusive
+     * @param to      the end, exclusive
+     * @param labels  whether to include the count of each label
+     * @param cursor  the next cursor of the previous page, null for the first one
+     * @param limit   the page size, capped at images.range.max-page-size
+     * @return the page
+     */
+    public ImagePageDTO findPage(Collection<String> cameras, LocalDateTime from, LocalDateTime to,
+                                 boolean labels, String cursor, int limit) {
+        if (limit < 1)
+            throw new InvalidRequestException("The limit must be positive.");
+        int size = Math.min(limit, maxPageSize);
+        // One more than the page tells whether there is a next one
+        Query query = query(cameras, from, to, labels, cursor == null ? null : Cursor.decode(cursor)).limit(size + 1);
+
+        List<ImagePointDTO> items = new ArrayList<>(size);
+        for (Image image : mongoTemplate.find(query, Image.class))
+            items.add(toPoint(image, labels));
+        String next = null;
+        if (items.size() > size) {
+            items.remove(size);
+            ImagePointDTO last = items.get(size - 1);
+            next = new Cursor(last.getCamera(), last.getDatetime(), last.getId()).encode();
+        }
+        return new ImagePageDTO(items, next);
+    }
+
+    /**
+     * Reads the counts of several cameras in [from, to) from a Mongo cursor, holding one batch at a time
+     *
+     * @param cameras  the cameras
+     * @param from     the start, inclusive
+     * @param to       the end, exclusive
+     * @param labels   whether to include the count of each label
+     * @param consumer receives every point in order
+     */
+    public void stream(Collection<String> cameras, LocalDateTime from, LocalDateTime to,
+                       boolean labels, Consumer<ImagePointDTO> consumer) {
+        Query query = query(cameras, from, to, labels, null).cursorBatchSize(CURSOR_BATCH_SIZE);
+        try (Stream<Image> images = mongoTemplate.stream(query, Image.class)) {
+            images.map(image -> toPoint(image, labels)).forEach(consumer);
+        }
+    }
+
+    static Query query(Collection<String> cameras, LocalDateTime from, LocalDateTime to,
+                               boolean labels, Cursor after) {
+        if (cameras == null || cameras.isEmpty())
+            throw new InvalidRequestException("At least one camera is required.");
+        if (from == null || to == null || !from.isBefore(to))
+            throw new InvalidRequestException("The range needs a start before its end.");
+
+        List<Criteria> criteria = new ArrayList<>();
+        criteria.add(Criteria.where("camera").in(cameras).and("datetime").gte(from).lt(to));
+        criteria.add(new Criteria().orOperator(
+                Criteria.where("detectionCount").ne(null),
+                Criteria.where("detections").ne(null)));
+        if (after != null) {
+            criteria.add(new Criteria().orOperator(
+                    Criteria.where("camera").gt(after.camera()),
+                    Criteria.where("camera").is(after.camera()).and("datetime").gt(after.datetime()),
+                    Criteria.where("camera").is(after.camera()).and("datetime").is(after.datetime())
+                            .and("id").gt(after.id())));
+        }
+
+        Query query = Query.query(new Criteria().andOperator(criteria))
+                .with(Sort.by("camera", "datetime", "id"))
+                // An older {camera, datetime} index may still exist, and would need a sort of the whole range
+                .withHint(INDEX);
+        query.fields().include("camera").include("datetime").include("detectionCount");
+        if (labels)
+            query.fields().include("labelCounts");
+        // Older images have no stored counts, the count comes from their subdocuments
+        query.fields().include("detections");
+        return query;
+    }
+
+    private static ImagePointDTO toPoint(Image image, boolean labels) {
+        Integer number = image.getDetectionCount();
+        if (number == null)
+            number = image.getDetections().size();
+        ImagePointDTO point = new ImagePointDTO(image.getId(), image.getCamera(), image.getDatetime(), number, null);
+        if (labels)
+            point.setLabels(image.getLabelCounts() != null ? image.getLabelCounts() : Image.countLabels(image.getDetections()));
+        return point;
+    }
+
+    /**
+     * Position of the last image of a page, sent to clients as an opaque url-safe string
+     */
+    record Cursor(String camera, LocalDateTime datetime, String id) {
+
+        private static final String SEPARATOR = "\n";
+
+        String encode() {
+            String value = camera + SEPARATOR + datetime + SEPARATOR + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+                if (parts.length != 3)
+                    throw new IllegalArgumentException();
+                return new Cursor(parts[0], LocalDateTime.parse(parts[1]), parts[2]);
+            } catch (RuntimeException e) {
+                throw new InvalidRequestException("Invalid cursor.");
+            }
+        }
+    }
+}
@@ -2,52 +2,53 @@ package com.Idkode.backend.service;
 
 import com.Idkode.backend.dtos.ImageDTO;
 import com.Idkode.backend.dtos.ImageFullDTO;
+import com.Idkode.backend.dtos.ImageMetaDTO;
+import com.Idkode.backend.dtos.UploadResultDTO;
 import com.Idkode.backend.entity.Detection;
-import com.Idkode.backend.entity.enumeration.EnumLabels;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.entity.enumeration.EnumRetentionTier;
 import com.Idkode.backend.entity.Image;
 import com.Idkode.backend.repository.ImageRepository;
+import com.Idkode.backend.repository.projection.ImageCount;
+import com.Idkode.backend.repository.projection.LabelCount;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
 import com.Idkode.backend.service.exception.ResourceNotFoundException;
+import com.Idkode.backend.service.storage.ImageStorage;
+import com.Idkode.backend.service.storage.StoredImage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Date;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 
 @Slf4j
@@ -58,20 +59,51 @@ public class ImageService {
 
     private final ImageRepository imageRepository;
     private final MongoTemplate mongoTemplate;
-
-    @Value("${images.directory}")
-    private String uploadDirectory;
-
-    @Value("${MODEL_URL}")
-    private String modelUrl;
-
-    private final RestTemplate restTemplate;
+    private final ImageStorage imageStorage;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RenderedImageCache renderedImageCache;
+    private final AnnotationRenderer annotationRenderer;
+    private final DerivativeService derivativeService;
+    private final ImageCountArchive countArchive;
+    private final CameraStateService cameraStateService;
+    private final MeterRegistry meterRegistry;
+    private final boolean compactDetections;
+    private final Timer storeTimer;
+    private final Timer saveTimer;
+    private final Timer detectionSaveTimer;
+    private final Timer annotateTimer;
+    private final Timer encodeTimer;
 
     @Autowired
-    public ImageService(ImageRepository imageRepository, MongoTemplate mongoTemplate, RestTemplate restTemplate) {
+    public ImageService(ImageRepository imageRepository, MongoTemplate mongoTemplate,
+                        ApplicationEventPublisher eventPublisher, RenderedImageCache renderedImageCache,
+                        AnnotationRenderer annotationRenderer, DerivativeService derivativeService,
+                        ImageStorage imageStorage, ImageCountArchive countArchive,
+                        CameraStateService cameraStateService, MeterRegistry meterRegistry,
+                        @Value("${images.detections.compact}") boolean compactDetections) {
         this.imageRepository = imageRepository;
         this.mongoTemplate = mongoTemplate;
-        this.restTemplate = restTemplate;
+        this.imageStorage = imageStorage;
+        this.eventPublisher = eventPublisher;
+        this.renderedImageCache = renderedImageCache;
+        this.annotationRenderer = annotationRenderer;
+        this.derivativeService = derivativeService;
+        this.countArchive = countArchive;
+        this.cameraStateService = cameraStateService;
+        this.meterRegistry = meterRegistry;
+        this.compactDetections = compactDetections;
+        this.storeTimer = timer(meterRegistry, "image.store", "Streaming an upload to storage while hashing it");
+        this.saveTimer = timer(meterRegistry, "image.save", "Inserting uploaded image documents");
+        this.detectionSaveTimer = timer(meterRegistry, "detections.save", "Saving the detections of one image");
+        this.annotateTimer = timer(meterRegistry, "image.annotate", "Decoding, drawing and encoding an image");
+        this.encodeTimer = timer(meterRegistry, "image.encode.base64", "Base64 encoding an image for the JSON response");
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 
     /**
@@ -81,24 +113,12 @@ public class ImageService {
      * @return the list of cameras
      */
     public List<String> getCameras(LocalDate date){
-        LocalDateTime start = date.atStartOfDay();
-        LocalDateTime end = date.atTime(23, 59, 59);
-        Date from = Date.from(start.atZone(ZoneId.systemDefault()).toInstant());
-        Date to = Date.from(end.atZone(ZoneId.systemDefault()).toInstant());
-
-        return mongoTemplate.findDistinct(
-                Query.query(
-                        Criteria.where("datetime").gte(from).lte(to)
-                ),
-                "camera",
-                Image.class,
-                String.class
-        );
+        return cameraStateService.getCameras(date);
     }
 
-
     /**
-     * Saves an image in the database
+     * Saves an image in the database. The upload is streamed into the storage while being hashed,
+     * and a retried upload of the same frame returns the image saved the first time.
      *
      * @param image  the image
      * @param camera the camera
@@ -112,39 +132,141 @@ public class ImageService {
     public Image saveImage(MultipartFile image, String camera,
                            String name, LocalDate date,
                            LocalTime time) throws IOException {
+        Image entity = storeImage(image, camera, name, date, time);
+        if (entity.isDuplicate())
+            return entity;
+        Image saved = saveTimer.record(() -> imageRepository.save(entity));
+        countIngested(List.of(saved));
+        cameraStateService.onSaved(List.of(saved));
+        return saved;
+    }
+
+    /**
+     * Saves several images with a single insert. Frames that fail are reported in place
+     * and do not stop the others.
+     *
+     * @param images  the images
+     * @param cameras the camera of each image
+     * @param names   the name of each image
+     * @param dates   the date of each image
+     * @param times   the time of each image
+     * @return the result of each image, in the order received
+     */
+    public List<UploadResultDTO> saveImages(List<MultipartFile> images, List<String> cameras,
+                                            List<String> names, List<LocalDate> dates,
+                                            List<LocalTime> times){
+        Image[] entities = new Image[images.size()];
+        boolean[] repeated = new boolean[images.size()];
+        List<Image> created = new ArrayList<>();
+        Map<String, Image> seen = new HashMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            try {
+                Image entity = storeImage(images.get(i), cameras.get(i), names.get(i), dates.get(i), times.get(i));
+                // The same frame sent twice in one batch is only inserted once
+                Image first = seen.putIfAbsent(entity.getCamera() + "|" + entity.getDatetime() + "|" + entity.getHash(), entity);
+                if (first != null) {
+                    entity = first;
+                    repeated[i] = true;
+                } else if (!entity.isDuplicate())
+                    created.add(entity);
+                entities[i] = entity;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not store image: {}, Error: {}", names.get(i), e.getMessage());
+            }
+        }
+        if (!created.isEmpty()) {
+            saveTimer.record(() -> imageRepository.insert(created));
+            countIngested(created);
+            cameraStateService.onSaved(created);
+        }
+
+        List<UploadResultDTO> results = new ArrayList<>(images.size());
+        for (int i = 0; i < entities.length; i++) {
+            if (entities[i] == null) {
+                results.add(new UploadResultDTO(i, cameras.get(i), "Could not store the image."));
+                continue;
+            }
+            UploadResultDTO result = new UploadResultDTO(i, entities[i]);
+            result.setDuplicate(entities[i].isDuplicate() || repeated[i]);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private void countIngested(List<Image> images) {
+        for (Image image : images)
+            meterRegistry.counter("images.ingested", "camera", image.getCamera()).increment();
+    }
+
+    /**
+     * Streams an upload into the storage and builds its unsaved document
+     *
+     * @return the new image, or the image already saved for the same frame with duplicate set
+     */
+    private Image storeImage(MultipartFile image, String camera,
+                             String name, LocalDate date,
+                             LocalTime time) throws IOException {
+        String filename = Paths.get(name).getFileName().toString();
+        int dot = filename.lastIndexOf('.');
+        String extension = dot > 0 ? filename.substring(dot).toLowerCase() : ".jpg";
+
+        StoredImage stored;
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try (InputStream content = image.getInputStream()) {
+            stored = imageStorage.store(content, camera, date, extension);
+        } finally {
+            sample.stop(storeTimer);
+        }
+        LocalDateTime datetime = LocalDateTime.of(date, time);
+        if (stored.isDuplicate()) {
+            Optional<Image> existing = imageRepository.findFirstByCameraAndDatetimeAndHash(camera, datetime, stored.getHash());
+            if (existing.isPresent()) {
+                existing.get().setDuplicate(true);
+                return existing.get();
+            }
+        }
+
         Image entity = new Image();
         entity.setCamera(camera);
-        entity.setDatetime(LocalDateTime.of(date, time));
-        Path file = Paths.get(name);
-        String filename = file.getFileName().toString();
+        entity.setDatetime(datetime);
         entity.setName(filename);
-
-        Path destinationFile = Paths.get(uploadDirectory, filename).normalize().toAbsolutePath();
-        Files.copy(image.getInputStream(), destinationFile, StandardCopyOption.REPLACE_EXISTING);
-        entity.setPath(destinationFile.toString());
-
-        return imageRepository.save(entity);
+        entity.setStatus(EnumDetectionStatus.QUEUED);
+        entity.setPath(stored.getKey());
+        entity.setHash(stored.getHash());
+        return entity;
     }
 
     /**
-     * Get all data points (number of vehicles and time) about a specific camera in a certain date
+     * Get all data points (number of vehicles and time) about a specific camera in a certain date,
+     * optionally restricted to a time window of that day
      *
      * @param camera the camera
      * @param date   the date
+     * @param from   the start of the window, inclusive. Null for the start of the day
+     * @param to     the end of the window, exclusive. Null for the end of the day
+     * @param labels whether to include the count of each label
      * @return the list image dtos (data points)
      */
     public List<ImageDTO> findImages(String camera,
-                                     LocalDate date){
-        List<Image> images = imageRepository.filterByCameraAndDate(camera,
-                date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
-
-        return images.stream().map(image -> {
-            ImageDTO dto = new ImageDTO();
-            dto.setNumber(image.getDetections().size());
-            Integer time = image.getDatetime().getHour() * 60 + image.getDatetime().getMinute();
-            dto.setTime(time);
-            return dto;
-        }).toList();
+                                     LocalDate date,
+                                     LocalTime from,
+                                     LocalTime to,
+                                     boolean labels){
+        LocalDateTime start = from == null ? date.atStartOfDay() : LocalDateTime.of(date, from);
+        LocalDateTime end = to == null ? date.plusDays(1).atStartOfDay() : LocalDateTime.of(date, to);
+        List<ImageCount> counts = labels
+                ? imageRepository.countLabelsByCameraAndDatetimeRange(camera, start, end)
+                : imageRepository.countByCameraAndDatetimeRange(camera, start, end);
+        // Retention removes the oldest images first, so a range it is working through is archived up to its first live image
+        LocalDateTime archivedUntil = counts.isEmpty() ? end : counts.get(0).getDatetime();
+        List<ImageCount> archived = countArchive.find(camera, start, archivedUntil, labels);
+        if (!archived.isEmpty()) {
+            List<ImageCount> merged = new ArrayList<>(archived);
+            merged.addAll(counts);
+            counts = merged;
+        }
+
+        return counts.stream().map(ImageService::toImageDTO).toList();
     }
 
     /**
@@ -153,151 +275,297 @@ public class ImageService {
      * @param camera the camera
      * @param date   the date
      * @param time   the time
+     * @param labels whether to include the count of each label
      * @return the image dto
      */
     public ImageDTO findImage(String camera,
                                     LocalDate date,
-                                    LocalTime time){
-        List<Image> images = imageRepository.findByCameraAndDatetime(camera, LocalDateTime.of(date, time));
-        if (images.isEmpty())
+                                    LocalTime time,
+                                    boolean labels){
+        LocalDateTime datetime = LocalDateTime.of(date, time);
+        List<ImageCount> counts = labels
+                ? imageRepository.countLabelsByCameraAndDatetime(camera, datetime)
+                : imageRepository.countByCameraAndDatetime(camera, datetime);
+        if (counts.isEmpty())
+            counts = countArchive.find(camera, datetime, labels);
+        if (counts.isEmpty())
             throw new ResourceNotFoundException("Image does not exist or is unavailable.");
 
-        return images.stream().map(image -> {
-            ImageDTO dto = new ImageDTO();
-            dto.setNumber(image.getDetections().size());
-            Integer minutes = image.getDatetime().getHour() * 60 + image.getDatetime().getMinute();
-            dto.setTime(minutes);
-            return dto;
-        }).toList().get(0);
+        return toImageDTO(counts.get(0));
+    }
+
+    /**
+     * Converts a count projection into a data point
+     *
+     * @param count the projection
+     * @return the image dto
+     */
+    public static ImageDTO toImageDTO(ImageCount count){
+        ImageDTO dto = new ImageDTO();
+        dto.setNumber(count.getDetectionCount());
+        Integer minutes = count.getDatetime().getHour() * 60 + count.getDatetime().getMinute();
+        dto.setTime(minutes);
+        if (count.getLabels() != null) {
+            Map<String, Integer> labels = new HashMap<>();
+            for (LabelCount label : count.getLabels()) {
+                if (label.getLabel() != null)
+                    labels.put(label.getLabel(), label.getCount());
+            }
+            dto.setLabels(labels);
+        }
+        return dto;
     }
 
     public ImageFullDTO retrieveImage(String camera,
                                       LocalDate date,
                                       LocalTime time,
-                                      Boolean annotated) throws IOException {
-        List<Image> images = imageRepository.findByCameraAndDatetime(camera, LocalDateTime.of(date, time));
+                                      Boolean annotated,
+                                      EnumImageSize size) throws IOException {
+        Image image = findImageEntity(camera, date, time);
 
-        if (images.isEmpty())
-            throw new ResourceNotFoundException("No images for the parameters sent");
-
-        Image image = images.get(0);
-
-        byte[] imageData = Files.readAllBytes(Paths.get(image.getPath()));
-        String base64Image = Base64.getEncoder().encodeToString(imageData);
+        byte[] imageData = loadImageBytes(image, annotated, size);
         ImageFullDTO dto = new ImageFullDTO();
         dto.setCamera(image.getCamera());
         dto.setDatetime(image.getDatetime());
         dto.setDetections(image.getDetections());
-        if (annotated){
-            dto.setImage(annotateImage(imageData, dto.getDetections()));
-        } else
-            dto.setImage(base64Image);
+        if (imageData != null)
+            dto.setImage(encodeTimer.record(() -> Base64.getEncoder().encodeToString(imageData)));
 
         return dto;
     }
 
     /**
-     * Sends an image to the detection model and saves the image results
+     * Get the metadata and detections of an image, without the image itself
      *
-     * @param filepath the image filepath
-     * @param imageId  the image id
-     * @return nothing
+     * @param camera the camera
+     * @param date   the date
+     * @param time   the time
+     * @return the image meta dto
      */
-    @Async
-    public CompletableFuture<Void> processImage(String filepath, String imageId){
-        Path path = Paths.get(filepath);
-        if (!Files.exists(path)) {
-            logger.error("Image not found at path: {}", filepath);
-            return CompletableFuture.completedFuture(null);
-        }
+    public ImageMetaDTO retrieveMetadata(String camera,
+                                         LocalDate date,
+                                         LocalTime time){
+        Image image = findImageEntity(camera, date, time);
+        return new ImageMetaDTO(image.getId(), image.getCamera(), image.getDatetime(),
+                image.getStatus(), image.getInferredFrom(), image.getDetections());
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    /**
+     * Get the image of a camera in a certain datetime
+     *
+     * @param camera the camera
+     * @param date   the date
+     * @param time   the time
+     * @return the image
+     */
+    public Image findImageEntity(String camera,
+                                 LocalDate date,
+                                 LocalTime time){
+        List<Image> images = imageRepository.findByCameraAndDatetime(camera, LocalDateTime.of(date, time));
 
-        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-        body.add("file", new FileSystemResource(path));
+        if (images.isEmpty())
+            throw new ResourceNotFoundException("No images for the parameters sent");
 
-        HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+        return images.get(0);
+    }
 
-        try {
-            Map<String, List<Map<String, Object>>> respose = restTemplate.postForObject(
-                    modelUrl,
-                    requestEntity,
-                    Map.class
-            );
-
-            if (respose != null && respose.containsKey("detections")) {
-                List<Map<String,Object>> detections = respose.get("detections");
-                List<Detection> detection = detections.stream()
-                        .map(map -> new Detection(
-                                (Double) map.get("confidence"),
-                                EnumLabels.getLabelForValue((Integer) map.get("label")),
-                                (Double) map.get("x1"),
-                                (Double) map.get("y1"),
-                                (Double) map.get("x2"),
-                                (Double) map.get("y2")
-                        ))
-                        .collect(Collectors.toList());
-                logger.info("{}", detection);
-                imageRepository.findById(imageId).ifPresent(image -> {
-                    image.setDetections(detection);
-                    imageRepository.save(image);
-                    logger.info("Detections saved for image: {}", path.getFileName());
-                });
-            } else {
-                logger.error("Received null detections for image: {}", path.getFileName());
+    /**
+     * Get the bytes served for an image, going through the rendered image cache.
+     * Storage is only reached on a miss, so a hit costs no round trip to it.
+     *
+     * @param image     the image
+     * @param annotated whether the boxes are drawn
+     * @param requested the size to serve
+     * @return the image bytes, or null if it could not be rendered
+     * @throws NoSuchFileException if neither a stored variant nor the original is left
+     * @throws IOException the io exception
+     */
+    public byte[] loadImageBytes(Image image, boolean annotated, EnumImageSize requested) throws IOException {
+        EnumImageSize size = servedSize(image, requested);
+        List<Detection> detections = image.getDetections() == null ? List.of() : image.getDetections();
+        int width = derivativeService.getWidth(size);
+
+        return renderedImageCache.get(image.getId(), annotated, size, getDetectionsVersion(image), () -> {
+            // Recorded files may have gone missing, reading them tells without asking storage first
+            String served = findServedFile(image, annotated, size);
+            byte[] stored = served == null ? null : readIfPresent(served);
+            if (stored != null)
+                return stored;
+            String derivative = getDerivativeFile(image, size);
+            if (annotated && derivative != null && image.getWidth() != null) {
+                byte[] base = readIfPresent(derivative);
+                if (base != null)
+                    return annotateImage(base, detections, 0, (double) width / image.getWidth());
             }
-            return CompletableFuture.completedFuture(null);
+            byte[] raw = imageStorage.read(image.getPath());
+            return annotateImage(raw, annotated ? detections : List.of(), width, 1.0);
+        });
+    }
 
-        } catch (Exception e) {
-            logger.error("Error processing image: {}, Error: {}", imageId, e.getMessage());
-            return CompletableFuture.completedFuture(null);
+    private byte[] readIfPresent(String key) throws IOException {
+        try {
+            return imageStorage.read(key);
+        } catch (NoSuchFileException e) {
+            return null;
         }
     }
 
+    /**
+     * Get the stored file that already holds the requested variant of an image. Only the image is looked at,
+     * the file may be missing from storage.
+     *
+     * @param image     the image
+     * @param annotated whether the boxes are drawn
+     * @param size      the size
+     * @return the storage key, or null if the variant has to be rendered
+     */
+    public String findServedFile(Image image, boolean annotated, EnumImageSize size){
+        size = servedSize(image, size);
+        if (annotated)
+            return size == EnumImageSize.ORIGINAL ? getAnnotatedFile(image) : null;
+        if (size == EnumImageSize.ORIGINAL)
+            return image.getPath();
+        String derivative = getDerivativeFile(image, size);
+        if (derivative == null && image.getWidth() != null && image.getWidth() <= derivativeService.getWidth(size))
+            return image.getPath();
+        return derivative;
+    }
+
+    /**
+     * @param image an image
+     * @param size  the requested size
+     * @return the size actually served, the thumbnail once retention removed the others
+     */
+    private static EnumImageSize servedSize(Image image, EnumImageSize size){
+        return image.getRetention() == EnumRetentionTier.THUMBNAIL ? EnumImageSize.THUMBNAIL : size;
+    }
+
+    /**
+     * Get the annotated file rendered at detection time, if it matches the current detections
+     *
+     * @param image the image
+     * @return the storage key of the annotated file, or null if there is none or it is outdated
+     */
+    public String getAnnotatedFile(Image image){
+        if (image.getAnnotatedPath() == null || !Objects.equals(image.getAnnotatedVersion(), image.getDetectionsVersion()))
+            return null;
+        return image.getAnnotatedPath();
+    }
+
+    private static String getDerivativeFile(Image image, EnumImageSize size){
+        return image.getDerivatives() == null ? null : image.getDerivatives().get(size);
+    }
+
+    /**
+     * @param image the image
+     * @return the version of its detections, 0 before the first detection
+     */
+    public static int getDetectionsVersion(Image image){
+        return image.getDetectionsVersion() == null ? 0 : image.getDetectionsVersion();
+    }
+
+    /**
+     * Saves the detections of an image. Only the detection fields are written, so the derivatives
+     * recorded at the same time by {@link DerivativeService} are kept.
+     *
+     * @param imageId      the image id
+     * @param detections   the detections
+     * @param inferredFrom the earlier frame the detections were copied from, null if the model ran
+     * @return false if the image no longer exists
+     * @throws RuntimeException if a listener of the saved detections failed, see {@link RollupService}
+     */
+    public boolean saveDetections(String imageId, List<Detection> detections, String inferredFrom){
+        Image saved = new Image();
+        saved.setDetections(detections, compactDetections);
+        Update update = new Update()
+                .set("detectionCount", saved.getDetectionCount())
+                .set("labelCounts", saved.getLabelCounts())
+                .inc("detectionsVersion", 1)
+                .set("status", EnumDetectionStatus.DONE)
+                .unset("rollupPending")
+                .unset("rollupDetections");
+        if (compactDetections)
+            update.set("packedDetections", saved.getPackedDetections()).unset("detections");
+        else
+            update.set("detections", detections).unset("packedDetections");
+        if (inferredFrom == null)
+            update.unset("inferredFrom");
+        else
+            update.set("inferredFrom", inferredFrom);
+
+        // The previous document is returned, it holds the detections being replaced
+        Image image = detectionSaveTimer.record(() -> mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(imageId)), update,
+                FindAndModifyOptions.options().returnNew(false), Image.class));
+        if (image == null)
+            return false;
+        // After a failed rollup update the rollups still count the detections marked then
+        List<Detection> previous = Boolean.TRUE.equals(image.getRollupPending()) ? image.getRollupDetections() : image.getDetections();
+        image.setRollupPending(null);
+        image.setRollupDetections(null);
+        image.setDetections(detections, compactDetections);
+        image.setInferredFrom(inferredFrom);
+        image.setDetectionsVersion(getDetectionsVersion(image) + 1);
+        image.setStatus(EnumDetectionStatus.DONE);
+        countDetections(image.getCamera(), detections);
+        eventPublisher.publishEvent(new DetectionsSavedEvent(image, previous));
+        return true;
+    }
+
+    private void countDetections(String camera, List<Detection> detections) {
+        for (Detection detection : detections)
+            meterRegistry.counter("detections.total", "camera", camera, "label", String.valueOf(detection.getLabel())).increment();
+    }
+
+    /**
+     * Updates only the detection status of an image
+     *
+     * @param imageId the image id
+     * @param status  the new status
+     */
+    public void updateStatus(String imageId, EnumDetectionStatus status){
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is(imageId)),
+                Update.update("status", status),
+                Image.class
+        );
+    }
+
+    /**
+     * Updates only the detection status of several images at once
+     *
+     * @param imageIds the image ids
+     * @param status   the new status
+     */
+    public void updateStatus(Collection<String> imageIds, EnumDetectionStatus status){
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("id").in(imageIds)),
+                Update.update("status", status),
+                Image.class
+        );
+    }
+
 
     /**
      * Generates an image based on an image and a list of detections
      *
      * @param image      the image
      * @param detections the list of detections
-     * @return the annotated image in base64
+     * @param maxWidth   the largest width of the result, 0 for the configured default
+     * @param boxScale   the factor from the detection coordinates to the image
+     * @return the annotated image as jpg, or null if it could not be rendered
      */
-    public static String annotateImage(byte[] image, List<Detection> detections){
+    public byte[] annotateImage(byte[] image, List<Detection> detections, int maxWidth, double boxScale){
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
-            // Decode image from byte[]
-            BufferedImage imageFile = ImageIO.read(new ByteArrayInputStream(image));
-            if (imageFile == null) throw new IllegalArgumentException("Invalid image data");
-
-            // Create a copy for annotation
-            BufferedImage annotated = new BufferedImage(imageFile.getWidth(), imageFile.getHeight(), BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2d = annotated.createGraphics();
-            g2d.drawImage(imageFile, 0, 0, null);
-
-            for (Detection det : detections) {
-                Color color = EnumLabels.getColorForLabel(det.getLabel());
-                g2d.setColor(color);
-                g2d.setStroke(new BasicStroke(2));
-                int x1 = (int) Math.round(det.getX1());
-                int x2 = (int) Math.round(det.getX2());
-                int y1 = (int) Math.round(det.getY1());
-                int y2 = (int) Math.round(det.getY2());
-                g2d.drawRect(x1, y1, x2 - x1, y2 - y1);
-
-//                String labelText = String.format("%s (%.2f)", det.label, det.confidence);
-//                g2d.drawString(labelText, det.x1 + 3, det.y1 - 5);
-            }
-
-            // Convert annotated image to Base64
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(annotated, "jpg", baos);
-
-            g2d.dispose();
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
-
+            return maxWidth == 0 && boxScale == 1.0
+                    ? annotationRenderer.render(image, detections)
+                    : annotationRenderer.render(image, detections, maxWidth, boxScale);
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.error("Could not annotate image, Error: {}", e.getMessage());
             return null;
+        } finally {
+            sample.stop(annotateTimer);
         }
     }
 }
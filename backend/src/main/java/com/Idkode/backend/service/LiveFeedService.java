@@ -0,0 +1,284 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.dtos.LiveEventDTO;
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the detections of new images to dashboards over Server-Sent Events.
+ * <p>
+ * Connections are held by the servlet container in async mode, not by a thread. Each subscriber has a
+ * bounded buffer that drops its oldest events when the client falls behind, and a small pool of
+ * dispatchers writes the buffers out, one subscriber at a time per dispatcher. A client that stops
+ * reading blocks the write to its socket, so a subscriber whose write takes longer than
+ * {@code live.write-timeout-ms} is dropped and its dispatcher released.
+ */
+@Service
+public class LiveFeedService {
+
+    private static final String ALL_CAMERAS = "";
+    private static final Object HEARTBEAT = new Object();
+
+    private final Logger logger = LoggerFactory.getLogger(LiveFeedService.class);
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final int bufferSize;
+    private final long timeoutMillis;
+    private final long writeTimeoutNanos;
+    private final ExecutorService dispatchers;
+    private final ScheduledExecutorService heartbeats;
+    private final Counter dropped;
+    private final Counter evicted;
+
+    @Autowired
+    public LiveFeedService(@Value("${live.buffer-size}") int bufferSize,
+                           @Value("${live.timeout-ms}") long timeoutMillis,
+                           @Value("${live.heartbeat-seconds}") long heartbeatSeconds,
+                           @Value("${live.dispatchers}") int dispatcherCount,
+                           @Value("${live.write-timeout-ms}") long writeTimeoutMillis,
+                           MeterRegistry meterRegistry) {
+        this.bufferSize = Math.max(1, bufferSize);
+        this.timeoutMillis = timeoutMillis;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        AtomicInteger counter = new AtomicInteger();
+        this.dispatchers = Executors.newFixedThreadPool(Math.max(1, dispatcherCount), runnable -> {
+            Thread thread = new Thread(runnable, "live-dispatcher-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Comments keep proxies from closing idle streams and reveal clients that went away
+        this.heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        long checkMillis = Math.max(10, writeTimeoutMillis / 2);
+        this.heartbeats.scheduleAtFixedRate(this::evictStalled, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        this.dropped = Counter.builder("live.events.dropped")
+                .description("Events dropped because a subscriber fell behind")
+                .register(meterRegistry);
+        this.evicted = Counter.builder("live.subscribers.evicted")
+                .description("Subscribers dropped because a write to them did not complete in time")
+                .register(meterRegistry);
+        Gauge.builder("live.subscribers", subscriberCount, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeats.shutdownNow();
+        dispatchers.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    /**
+     * Opens a stream of detection events
+     *
+     * @param camera the camera to follow, null for every camera
+     * @return the emitter, returned as is by the controller
+     */
+    public SseEmitter subscribe(String camera) {
+        return subscribe(camera, new SseEmitter(timeoutMillis));
+    }
+
+    SseEmitter subscribe(String camera, SseEmitter emitter) {
+        String topic = camera == null || camera.isBlank() ? ALL_CAMERAS : camera;
+        Subscriber subscriber = new Subscriber(topic, emitter);
+        subscribers.computeIfAbsent(topic, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        subscriberCount.incrementAndGet();
+
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        return emitter;
+    }
+
+    /**
+     * @return the number of open streams
+     */
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    @EventListener
+    public void onDetectionsSaved(DetectionsSavedEvent event) {
+        Image image = event.getImage();
+        Set<Subscriber> byCamera = subscribers.get(image.getCamera());
+        Set<Subscriber> all = subscribers.get(ALL_CAMERAS);
+        if ((byCamera == null || byCamera.isEmpty()) && (all == null || all.isEmpty()))
+            return;
+
+        LiveEventDTO dto = toLiveEvent(image);
+        if (byCamera != null)
+            byCamera.forEach(subscriber -> offer(subscriber, dto));
+        if (all != null)
+            all.forEach(subscriber -> offer(subscriber, dto));
+    }
+
+    /**
+     * Summarizes an image, from its stored counts when it has them
+     *
+     * @param image the image, with its detections
+     * @return the event
+     */
+    public static LiveEventDTO toLiveEvent(Image image) {
+        Integer number = image.getDetectionCount();
+        Map<String, Integer> labels = image.getLabelCounts();
+        if (number == null || labels == null) {
+            List<Detection> detections = image.getDetections() == null ? List.of() : image.getDetections();
+            number = detections.size();
+            labels = Image.countLabels(detections);
+        }
+        Integer minutes = image.getDatetime().getHour() * 60 + image.getDatetime().getMinute();
+        return new LiveEventDTO(image.getId(), image.getCamera(), image.getDatetime(), minutes, number, labels);
+    }
+
+    private void heartbeat() {
+        subscribers.values().forEach(set -> set.forEach(subscriber -> {
+            synchronized (subscriber.buffer) {
+                if (!subscriber.buffer.isEmpty())
+                    return;
+                subscriber.buffer.addLast(HEARTBEAT);
+            }
+            schedule(subscriber);
+        }));
+    }
+
+    /**
+     * Drops the subscribers whose current write has been blocked past the write timeout. The writer is
+     * interrupted and the response closed, which fails the blocked write and frees its dispatcher.
+     */
+    private void evictStalled() {
+        long now = System.nanoTime();
+        subscribers.values().forEach(set -> set.forEach(subscriber -> {
+            synchronized (subscriber) {
+                if (subscriber.writer == null || now - subscriber.writeStartedAt < writeTimeoutNanos)
+                    return;
+                logger.debug("Live subscriber stopped reading, dropping it");
+                remove(subscriber);
+                evicted.increment();
+                subscriber.writer.interrupt();
+            }
+            subscriber.emitter.completeWithError(new IOException("Write to live subscriber timed out"));
+        }));
+    }
+
+    private void offer(Subscriber subscriber, Object event) {
+        synchronized (subscriber.buffer) {
+            if (subscriber.buffer.size() >= bufferSize) {
+                subscriber.buffer.pollFirst();
+                dropped.increment();
+            }
+            subscriber.buffer.addLast(event);
+        }
+        schedule(subscriber);
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.closed || !subscriber.draining.compareAndSet(false, true))
+            return;
+        try {
+            dispatchers.execute(() -> drain(subscriber));
+        } catch (RejectedExecutionException e) {
+            subscriber.draining.set(false);
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            while (!subscriber.closed) {
+                Object event;
+                synchronized (subscriber.buffer) {
+                    event = subscriber.buffer.pollFirst();
+                }
+                if (event == null)
+                    break;
+                synchronized (subscriber) {
+                    subscriber.writer = Thread.currentThread();
+                    subscriber.writeStartedAt = System.nanoTime();
+                }
+                if (event == HEARTBEAT) {
+                    subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+                } else {
+                    LiveEventDTO dto = (LiveEventDTO) event;
+                    subscriber.emitter.send(SseEmitter.event()
+                            .name("detections")
+                            .id(dto.getId())
+                            .data(dto, MediaType.APPLICATION_JSON));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Live subscriber disconnected: {}", e.getMessage());
+            remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        } finally {
+            synchronized (subscriber) {
+                subscriber.writer = null;
+                // An eviction racing with the end of the write must not leak into the next subscriber
+                Thread.interrupted();
+            }
+            subscriber.draining.set(false);
+        }
+        boolean pending;
+        synchronized (subscriber.buffer) {
+            pending = !subscriber.buffer.isEmpty();
+        }
+        if (pending)
+            schedule(subscriber);
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscriber.closed)
+            return;
+        subscriber.closed = true;
+        Set<Subscriber> set = subscribers.get(subscriber.topic);
+        if (set != null && set.remove(subscriber))
+            subscriberCount.decrementAndGet();
+    }
+
+    private static class Subscriber {
+        private final String topic;
+        private final SseEmitter emitter;
+        private final Deque<Object> buffer = new ArrayDeque<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed;
+        /** The dispatcher writing to this subscriber and when the write started, guarded by the subscriber */
+        private Thread writer;
+        private long writeStartedAt;
+
+        private Subscriber(String topic, SseEmitter emitter) {
+            this.topic = topic;
+            this.emitter = emitter;
+        }
+    }
+}
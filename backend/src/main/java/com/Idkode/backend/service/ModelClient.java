@@ -0,0 +1,218 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import com.Idkode.backend.service.exception.ModelUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Client for the detection model service.
+ * <p>
+ * Transient failures (timeouts, connection errors, 5xx and 429) are retried a bounded number of times
+ * with jittered exponential backoff. Repeated failures open a circuit breaker, and while it is open calls
+ * fail fast with {@link ModelUnavailableException} instead of waiting on a model that is down.
+ */
+@Component
+public class ModelClient {
+
+    private final Logger logger = LoggerFactory.getLogger(ModelClient.class);
+
+    private final RestTemplate restTemplate;
+    private final String modelUrl;
+    private final String modelBatchUrl;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final Counter retries;
+    private final Timer singleCallTimer;
+    private final Timer batchCallTimer;
+    private final Timer parseTimer;
+
+    @Autowired
+    public ModelClient(RestTemplate restTemplate,
+                       @Value("${MODEL_URL}") String modelUrl,
+                       @Value("${model.batch-url}") String modelBatchUrl,
+                       @Value("${model.retry.max-attempts}") int maxAttempts,
+                       @Value("${model.retry.backoff-ms}") long backoffMillis,
+                       @Value("${model.retry.max-backoff-ms}") long maxBackoffMillis,
+                       @Value("${model.circuit.failure-threshold}") int failureThreshold,
+                       @Value("${model.circuit.open-ms}") long openMillis,
+                       MeterRegistry meterRegistry) {
+        this.restTemplate = restTemplate;
+        this.modelUrl = modelUrl;
+        this.modelBatchUrl = modelBatchUrl;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.retries = Counter.builder("model.retries")
+                .description("Calls to the model sent again after a transient failure")
+                .register(meterRegistry);
+        this.singleCallTimer = callTimer(meterRegistry, "single");
+        this.batchCallTimer = callTimer(meterRegistry, "batch");
+        this.parseTimer = Timer.builder("model.parse")
+                .description("Converting the model response into detections")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("model.circuit.open", circuitBreaker, breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("Whether calls to the model are being stopped")
+                .register(meterRegistry);
+    }
+
+    private static Timer callTimer(MeterRegistry meterRegistry, String endpoint) {
+        return Timer.builder("model.call")
+                .description("Round trip of one request to the model, per attempt")
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return whether the circuit breaker would let a call to the model through now
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * Sends a group of images to the model in a single request.
+     * A single image goes to the one-image endpoint.
+     *
+     * @param files the image contents, keyed by image id. They are streamed, not loaded in memory
+     * @return the detections keyed by image id. Images the model did not answer for are absent
+     * @throws ModelUnavailableException if the circuit is open or the model kept failing
+     */
+    public Map<String, List<Detection>> detect(Map<String, Resource> files) {
+        if (!circuitBreaker.tryAcquire())
+            throw new ModelUnavailableException("Model circuit is open");
+        try {
+            Map<String, List<Detection>> detections = callWithRetries(files);
+            circuitBreaker.onSuccess();
+            return detections;
+        } catch (ModelUnavailableException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        } catch (RuntimeException e) {
+            // The model answered, the request was the problem
+            circuitBreaker.onSuccess();
+            throw e;
+        }
+    }
+
+    private Map<String, List<Detection>> callWithRetries(Map<String, Resource> files) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call(files);
+            } catch (ResourceAccessException | HttpServerErrorException | HttpClientErrorException.TooManyRequests e) {
+                if (attempt >= maxAttempts)
+                    throw new ModelUnavailableException("Model failed after " + attempt + " attempts: " + e.getMessage(), e);
+                logger.warn("Model call failed, attempt {} of {}: {}", attempt, maxAttempts, e.getMessage());
+                retries.increment();
+                sleep(backoff(attempt));
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random wait up to the exponential backoff, so workers that failed together do not retry together
+     */
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModelUnavailableException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    private Map<String, List<Detection>> call(Map<String, Resource> files) {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        String part = files.size() == 1 ? "file" : "files";
+        files.forEach((id, resource) -> {
+            // The image id goes as the filename so batch results can be matched back
+            HttpHeaders partHeaders = new HttpHeaders();
+            partHeaders.setContentDisposition(ContentDisposition.formData().name(part).filename(id).build());
+            partHeaders.setContentType(MediaTypeFactory.getMediaType(resource).orElse(MediaType.IMAGE_JPEG));
+            body.add(part, new HttpEntity<>(resource, partHeaders));
+        });
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+
+        Map<String, List<Detection>> detections = new HashMap<>();
+        if (files.size() == 1) {
+            Map<String, Object> response = singleCallTimer.record(() -> restTemplate.postForObject(modelUrl, requestEntity, Map.class));
+            if (response != null && response.containsKey("detections"))
+                detections.put(files.keySet().iterator().next(), parseTimer.record(() -> parse(response)));
+            return detections;
+        }
+
+        Map<String, List<Map<String, Object>>> response = batchCallTimer.record(() -> restTemplate.postForObject(modelBatchUrl, requestEntity, Map.class));
+        if (response == null || !response.containsKey("results")) {
+            logger.error("Received no results for a batch of {} images", files.size());
+            return detections;
+        }
+        parseTimer.record(() -> {
+            for (Map<String, Object> result : response.get("results")) {
+                String id = (String) result.get("id");
+                if (id != null && files.containsKey(id) && result.containsKey("detections"))
+                    detections.put(id, parse(result));
+            }
+        });
+        return detections;
+    }
+
+    /**
+     * Converts the model payload of one image into detections
+     *
+     * @param result the model payload, with a "detections" list
+     * @return the list of detections
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Detection> parse(Map<String, Object> result) {
+        List<Map<String, Object>> detections = (List<Map<String, Object>>) result.get("detections");
+        return detections.stream()
+                .map(map -> new Detection(
+                        (Double) map.get("confidence"),
+                        EnumLabels.getLabelForValue((Integer) map.get("label")),
+                        (Double) map.get("x1"),
+                        (Double) map.get("y1"),
+                        (Double) map.get("x2"),
+                        (Double) map.get("y2")
+                ))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,68 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Size-bounded cache of the bytes served for an image, raw or annotated.
+ * Bounded by the total number of bytes held, evicted with Caffeine's W-TinyLFU policy.
+ * Entries are keyed by the detections version, so renders made before new detections are
+ * never served again and simply age out.
+ */
+@Component
+public class RenderedImageCache {
+
+    private record Key(String imageId, boolean annotated, EnumImageSize size, int detectionsVersion) {
+    }
+
+    private final Cache<Key, byte[]> cache;
+
+    @Autowired
+    public RenderedImageCache(@Value("${images.cache.max-bytes}") long maxBytes,
+                              MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, byte[] value) -> value.length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "rendered_images");
+    }
+
+    /**
+     * Get the rendered bytes of an image, rendering them on a miss
+     *
+     * @param imageId           the image id
+     * @param annotated         whether the boxes are drawn
+     * @param size              the size served
+     * @param detectionsVersion the version of the detections the render is based on
+     * @param loader            renders the bytes on a miss. A null result is not cached
+     * @return the bytes, or null if the loader gave none
+     * @throws IOException the io exception thrown by the loader
+     */
+    public byte[] get(String imageId, boolean annotated, EnumImageSize size, int detectionsVersion,
+                      Callable<byte[]> loader) throws IOException {
+        try {
+            return cache.get(new Key(imageId, annotated, size, detectionsVersion), key -> {
+                try {
+                    return loader.call();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.DetectionJob;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.entity.enumeration.EnumRetentionTier;
+import com.Idkode.backend.service.storage.ImageStorage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ages images through the retention tiers, in batches, on a schedule:
+ * <ul>
+ *     <li>after {@code retention.raw-days} only the thumbnail is kept, and served for every size;</li>
+ *     <li>after {@code retention.thumbnail-days} the files and the document are removed and only the counts
+ *     are kept, in {@link ImageCountArchive} and in the rollups.</li>
+ * </ul>
+ * A tier set to 0 days is skipped. Days are counted from the start of today, so whole days change tier together.
+ * <p>
+ * Files are content addressed and two images of a camera may share one, so a file is only deleted
+ * when no image outside the batch still points at it.
+ */
+@Service
+public class RetentionService {
+
+    private final Logger logger = LoggerFactory.getLogger(RetentionService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ImageStorage imageStorage;
+    private final ImageCountArchive countArchive;
+    private final boolean enabled;
+    private final int rawDays;
+    private final int thumbnailDays;
+    private final int batchSize;
+    private final int batchesPerRun;
+    private final Counter filesDeleted;
+    private final Counter thumbnailImages;
+    private final Counter removedImages;
+
+    @Autowired
+    public RetentionService(MongoTemplate mongoTemplate, ImageStorage imageStorage, ImageCountArchive countArchive,
+                            MeterRegistry meterRegistry,
+                            @Value("${retention.enabled}") boolean enabled,
+                            @Value("${retention.raw-days}") int rawDays,
+                            @Value("${retention.thumbnail-days}") int thumbnailDays,
+                            @Value("${retention.batch-size}") int batchSize,
+                            @Value("${retention.batches-per-run}") int batchesPerRun) {
+        if (rawDays > 0 && thumbnailDays > 0 && thumbnailDays <= rawDays)
+            throw new IllegalArgumentException("retention.thumbnail-days must be greater than retention.raw-days");
+        this.mongoTemplate = mongoTemplate;
+        this.imageStorage = imageStorage;
+        this.countArchive = countArchive;
+        this.enabled = enabled;
+        this.rawDays = rawDays;
+        this.thumbnailDays = thumbnailDays;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchesPerRun = Math.max(1, batchesPerRun);
+        this.filesDeleted = Counter.builder("retention.files.deleted")
+                .description("Image files deleted by retention")
+                .register(meterRegistry);
+        this.thumbnailImages = Counter.builder("retention.images")
+                .description("Images moved to a retention tier")
+                .tag("tier", "thumbnail")
+                .register(meterRegistry);
+        this.removedImages = Counter.builder("retention.images")
+                .description("Images moved to a retention tier")
+                .tag("tier", "counts")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a bounded number of batches, oldest tier first, so a large backlog is worked off over several runs
+     * without holding the scheduler
+     */
+    @Scheduled(fixedDelayString = "${retention.interval-ms}", initialDelayString = "${retention.interval-ms}")
+    public void compact() {
+        if (!enabled)
+            return;
+        try {
+            int batches = 0;
+            if (thumbnailDays > 0) {
+                LocalDateTime cutoff = LocalDate.now().minusDays(thumbnailDays).atStartOfDay();
+                while (batches++ < batchesPerRun && removeBatch(cutoff) == batchSize) ;
+            }
+            if (rawDays > 0) {
+                LocalDateTime cutoff = LocalDate.now().minusDays(rawDays).atStartOfDay();
+                while (batches++ < batchesPerRun && thumbnailBatch(cutoff) == batchSize) ;
+            }
+        } catch (Exception e) {
+            logger.error("Retention run failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps only the thumbnail of the oldest full images before the cutoff
+     *
+     * @param cutoff the cutoff
+     * @return the number of images in the batch
+     */
+    int thumbnailBatch(LocalDateTime cutoff) {
+        Query query = Query.query(Criteria.where("datetime").lt(cutoff).and("retention").ne(EnumRetentionTier.THUMBNAIL))
+                .with(Sort.by("datetime"))
+                .limit(batchSize);
+        List<Image> images = mongoTemplate.find(query, Image.class);
+        if (images.isEmpty())
+            return 0;
+
+        Set<String> kept = new HashSet<>();
+        Set<String> expired = new HashSet<>();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class);
+        for (Image image : images) {
+            Map<EnumImageSize, String> derivatives = image.getDerivatives();
+            String thumbnail = derivatives == null ? null : derivatives.get(EnumImageSize.THUMBNAIL);
+            Update update = new Update()
+                    .set("retention", EnumRetentionTier.THUMBNAIL)
+                    .unset("annotatedPath")
+                    .unset("annotatedVersion");
+            if (thumbnail != null) {
+                kept.add(thumbnail);
+                expired.add(image.getPath());
+                update.set("derivatives", Map.of(EnumImageSize.THUMBNAIL, thumbnail));
+            } else {
+                // No thumbnail means the original is already that small, or never got its derivatives
+                kept.add(image.getPath());
+                update.unset("derivatives");
+            }
+            if (derivatives != null)
+                expired.addAll(derivatives.values());
+            if (image.getAnnotatedPath() != null)
+                expired.add(image.getAnnotatedPath());
+            bulk.updateOne(Query.query(Criteria.where("id").is(image.getId())), update);
+        }
+        expired.removeAll(kept);
+        // Documents first: a file left behind by a crash is only wasted space, a missing one is a broken image
+        bulk.execute();
+        deleteUnreferenced(expired, images);
+        thumbnailImages.increment(images.size());
+        return images.size();
+    }
+
+    /**
+     * Archives the counts of the oldest images before the cutoff, then removes their files and documents
+     *
+     * @param cutoff the cutoff
+     * @return the number of images in the batch
+     */
+    int removeBatch(LocalDateTime cutoff) {
+        Query query = Query.query(Criteria.where("datetime").lt(cutoff)).with(Sort.by("datetime")).limit(batchSize);
+        List<Image> images = mongoTemplate.find(query, Image.class);
+        if (images.isEmpty())
+            return 0;
+
+        Set<String> expired = new HashSet<>();
+        for (Image image : images) {
+            expired.add(image.getPath());
+            if (image.getDerivatives() != null)
+                expired.addAll(image.getDerivatives().values());
+            if (image.getAnnotatedPath() != null)
+                expired.add(image.getAnnotatedPath());
+        }
+        List<String> ids = images.stream().map(Image::getId).toList();
+        countArchive.archive(images);
+        mongoTemplate.remove(Query.query(Criteria.where("id").in(ids)), Image.class);
+        mongoTemplate.remove(Query.query(Criteria.where("id").in(ids)), DetectionJob.class);
+        deleteUnreferenced(expired, images);
+        removedImages.increment(images.size());
+        return images.size();
+    }
+
+    /**
+     * Deletes files unless an image outside the batch still points at them.
+     * Every file of an image is named after its original, so images sharing a file share the original.
+     */
+    private void deleteUnreferenced(Set<String> keys, List<Image> batch) {
+        keys.remove(null);
+        if (keys.isEmpty())
+            return;
+        List<String> ids = batch.stream().map(Image::getId).toList();
+        Set<String> paths = new HashSet<>(batch.stream().map(Image::getPath).toList());
+        Query shared = Query.query(Criteria.where("path").in(paths).and("id").nin(ids));
+        shared.fields().include("path").include("derivatives").include("annotatedPath");
+        for (Image image : mongoTemplate.find(shared, Image.class)) {
+            keys.remove(image.getPath());
+            keys.remove(image.getAnnotatedPath());
+            if (image.getDerivatives() != null)
+                keys.removeAll(image.getDerivatives().values());
+        }
+
+        for (String key : keys) {
+            try {
+                imageStorage.delete(key);
+                filesDeleted.increment();
+            } catch (Exception e) {
+                logger.warn("Could not delete expired file: {}, Error: {}", key, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.dtos.TrafficStatsDTO;
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.TrafficRollup;
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import com.Idkode.backend.repository.TrafficRollupRepository;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps per-camera, per-label vehicle counts in minute, hour and day buckets.
+ * Counters are upserted as detections arrive, so reads never touch the images collection.
+ */
+@Service
+public class RollupService {
+
+    private final Logger logger = LoggerFactory.getLogger(RollupService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final TrafficRollupRepository rollupRepository;
+
+    @Autowired
+    public RollupService(MongoTemplate mongoTemplate, TrafficRollupRepository rollupRepository) {
+        this.mongoTemplate = mongoTemplate;
+        this.rollupRepository = rollupRepository;
+    }
+
+    /**
+     * Counts a detection write before it is reported done. When the rollups cannot be updated the image is
+     * marked with the detections they still count, and the error goes back to the detection worker:
+     * the job is retried, and its next save nets against the marked detections instead of the uncounted ones.
+     */
+    @EventListener
+    public void onDetectionsSaved(DetectionsSavedEvent event) {
+        try {
+            record(event.getImage(), event.getPreviousDetections());
+        } catch (RuntimeException e) {
+            markPending(event.getImage().getId(), event.getPreviousDetections());
+            throw e;
+        }
+    }
+
+    private void markPending(String imageId, List<Detection> counted) {
+        try {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(imageId)),
+                    new Update().set("rollupPending", true).set("rollupDetections", counted), Image.class);
+        } catch (RuntimeException e) {
+            logger.error("Could not mark the rollups of image: {} for repair, they miss its last detections, Error: {}",
+                    imageId, e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the detections of an image to its buckets in a single bulk write.
+     * When the image was already counted its previous detections are taken out first;
+     * the max of a bucket cannot be taken back and stays as it was.
+     * Buckets whose upsert failed, as concurrent upserts of a new bucket can, are sent once more.
+     *
+     * @param image              the image with its new detections
+     * @param previousDetections the detections counted before, or null
+     */
+    public void record(Image image, List<Detection> previousDetections) {
+        // A single Update keeps one $inc per field, so additions and removals are netted first
+        Map<String, Long> deltas = new HashMap<>();
+        addDeltas(deltas, image.getDetections(), 1);
+        if (previousDetections != null)
+            addDeltas(deltas, previousDetections, -1);
+
+        Instant now = Instant.now();
+        List<Pair<Query, Update>> upserts = new ArrayList<>();
+        for (EnumGranularity granularity : EnumGranularity.values()) {
+            LocalDateTime bucket = granularity.truncate(image.getDatetime());
+            Query query = Query.query(Criteria.where("id").is(rollupId(image.getCamera(), granularity, bucket)));
+
+            Update update = new Update()
+                    .setOnInsert("camera", image.getCamera())
+                    .setOnInsert("granularity", granularity)
+                    .setOnInsert("bucket", bucket)
+                    .max("max", image.getDetections().size())
+                    .set("updatedAt", now);
+            deltas.forEach((field, delta) -> {
+                if (delta != 0)
+                    update.inc(field, delta);
+            });
+            upserts.add(Pair.of(query, update));
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TrafficRollup.class).upsert(upserts).execute();
+        } catch (BulkOperationException e) {
+            List<Pair<Query, Update>> failed = e.getErrors().stream().map(error -> upserts.get(error.getIndex())).toList();
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TrafficRollup.class).upsert(failed).execute();
+        }
+    }
+
+    /**
+     * Get the buckets of a camera between two days
+     *
+     * @param camera      the camera
+     * @param from        the first day
+     * @param to          the last day, inclusive
+     * @param granularity the bucket size
+     * @return the stats of each bucket with data
+     */
+    public List<TrafficStatsDTO> getStats(String camera, LocalDate from, LocalDate to, EnumGranularity granularity) {
+        return rollupRepository.findBuckets(camera, granularity, from.atStartOfDay(), to.plusDays(1).atStartOfDay())
+                .stream()
+                .map(rollup -> toStats(rollup.getBucket(), rollup.getFrames(), rollup.getTotal(),
+                        rollup.getMax(), rollup.getHistogram(), rollup.getLabels()))
+                .toList();
+    }
+
+    /**
+     * Get the stats of a camera over a whole range of days, merged from the day buckets
+     *
+     * @param camera the camera
+     * @param from   the first day
+     * @param to     the last day, inclusive
+     * @return the stats of the range
+     */
+    public TrafficStatsDTO getTotal(String camera, LocalDate from, LocalDate to) {
+        long frames = 0;
+        long total = 0;
+        int max = 0;
+        Map<String, Long> histogram = new HashMap<>();
+        Map<String, Long> labels = new HashMap<>();
+        for (TrafficRollup day : rollupRepository.findBuckets(camera, EnumGranularity.DAY,
+                from.atStartOfDay(), to.plusDays(1).atStartOfDay())) {
+            frames += day.getFrames();
+            total += day.getTotal();
+            max = Math.max(max, day.getMax());
+            if (day.getHistogram() != null)
+                day.getHistogram().forEach((count, n) -> histogram.merge(count, n, Long::sum));
+            if (day.getLabels() != null)
+                day.getLabels().forEach((label, n) -> labels.merge(label, n, Long::sum));
+        }
+        return toStats(from.atStartOfDay(), frames, total, max, histogram, labels);
+    }
+
+    private static void addDeltas(Map<String, Long> deltas, List<Detection> detections, long sign) {
+        deltas.merge("frames", sign, Long::sum);
+        deltas.merge("total", sign * detections.size(), Long::sum);
+        deltas.merge("histogram." + detections.size(), sign, Long::sum);
+        for (Detection detection : detections) {
+            if (detection.getLabel() != null)
+                deltas.merge("labels." + detection.getLabel(), sign, Long::sum);
+        }
+    }
+
+    private static TrafficStatsDTO toStats(LocalDateTime bucket, long frames, long total, int max,
+                                           Map<String, Long> histogram, Map<String, Long> labels) {
+        Double avg = frames == 0 ? null : (double) total / frames;
+        return new TrafficStatsDTO(bucket, frames, avg, median(histogram, frames), max, labels);
+    }
+
+    private static Integer median(Map<String, Long> histogram, long frames) {
+        if (histogram == null || frames <= 0)
+            return null;
+        TreeMap<Integer, Long> sorted = new TreeMap<>();
+        histogram.forEach((count, n) -> sorted.put(Integer.valueOf(count), n));
+        long seen = 0;
+        for (Map.Entry<Integer, Long> entry : sorted.entrySet()) {
+            seen += entry.getValue();
+            if (seen * 2 >= frames)
+                return entry.getKey();
+        }
+        return sorted.isEmpty() ? null : sorted.lastKey();
+    }
+
+    private static String rollupId(String camera, EnumGranularity granularity, LocalDateTime bucket) {
+        return camera + "|" + granularity + "|" + bucket;
+    }
+}
@@ -0,0 +1,234 @@
+package com.Idkode.backend.service.analytics;
+
+import com.Idkode.backend.dtos.TrafficAnalyticsDTO;
+import com.Idkode.backend.dtos.TrafficAnomalyDTO;
+import com.Idkode.backend.entity.TrafficRollup;
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import com.Idkode.backend.service.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Moving averages, rush-hour peaks, day-over-day and week-over-week changes and z-score anomalies
+ * for each camera and label, computed as traffic arrives.
+ * <p>
+ * The input is the minute rollups kept by {@code RollupService} on every detection write. Each poll reads
+ * only the minutes updated since the last one, in order of update, and feeds them to constant-memory
+ * {@link TrafficSeries}. A minute is read once it has had no detections for {@code analytics.grace-seconds},
+ * and read again whenever frames of it are detected later, which revises it in its series.
+ * History is never queried again: after a restart the series start empty and fill with the minutes updated from then on.
+ * Because the rollups are shared, every replica computes the same analytics for every camera,
+ * whichever replica ran its detections.
+ */
+@Service
+public class TrafficAnalyticsService {
+
+    public static final String TOTAL = "total";
+
+    private static final int MAX_ANOMALIES = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(TrafficAnalyticsService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int[] windows;
+    private final double zThreshold;
+    private final double alpha;
+    private final int minSamples;
+    private final double peakFactor;
+    private final long graceSeconds;
+    private final int batchSize;
+    private final int batchesPerRun;
+
+    /** Series of each camera, by label */
+    private final Map<String, Map<String, TrafficSeries>> series = new ConcurrentHashMap<>();
+    /** Latest anomalies of each camera, newest first */
+    private final Map<String, Deque<TrafficAnomalyDTO>> anomalies = new ConcurrentHashMap<>();
+    /** Position of the last rollup processed, ordered by update time then id */
+    private Instant cursorUpdatedAt;
+    private String cursorId;
+
+    @Autowired
+    public TrafficAnalyticsService(MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+                                   @Value("${analytics.enabled}") boolean enabled,
+                                   @Value("${analytics.windows}") int[] windows,
+                                   @Value("${analytics.z-threshold}") double zThreshold,
+                                   @Value("${analytics.alpha}") double alpha,
+                                   @Value("${analytics.min-samples}") int minSamples,
+                                   @Value("${analytics.peak-factor}") double peakFactor,
+                                   @Value("${analytics.grace-seconds}") long graceSeconds,
+                                   @Value("${analytics.batch-size}") int batchSize,
+                                   @Value("${analytics.batches-per-run}") int batchesPerRun) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.windows = Arrays.stream(windows).filter(w -> w > 0 && w <= TrafficSeries.WINDOW_MINUTES).sorted().toArray();
+        this.zThreshold = zThreshold;
+        this.alpha = alpha;
+        this.minSamples = minSamples;
+        this.peakFactor = peakFactor;
+        this.graceSeconds = graceSeconds;
+        this.batchSize = batchSize;
+        this.batchesPerRun = batchesPerRun;
+    }
+
+    /**
+     * Feeds the minutes updated since the last poll, a bounded number of batches per run
+     */
+    @Scheduled(fixedDelayString = "${analytics.poll-ms}")
+    public void poll() {
+        if (!enabled)
+            return;
+        try {
+            Instant settled = Instant.now().minusSeconds(graceSeconds);
+            if (cursorUpdatedAt == null) {
+                cursorUpdatedAt = settled;
+                cursorId = "";
+            }
+            for (int batch = 0; batch < batchesPerRun; batch++) {
+                List<TrafficRollup> minutes = mongoTemplate.find(next(settled), TrafficRollup.class);
+                minutes.forEach(this::ingest);
+                if (minutes.size() < batchSize)
+                    break;
+            }
+        } catch (Exception e) {
+            logger.error("Could not update traffic analytics: {}", e.getMessage());
+        }
+    }
+
+    private Query next(Instant settled) {
+        Criteria after = new Criteria().orOperator(
+                Criteria.where("updatedAt").gt(cursorUpdatedAt).lte(settled),
+                Criteria.where("updatedAt").is(cursorUpdatedAt).and("id").gt(cursorId));
+        return Query.query(Criteria.where("granularity").is(EnumGranularity.MINUTE).andOperator(after))
+                .with(Sort.by("updatedAt", "id"))
+                .limit(batchSize);
+    }
+
+    /**
+     * Adds a minute of a camera to the total and to each of its labels, or revises it when it was added before
+     */
+    void ingest(TrafficRollup minute) {
+        if (minute.getUpdatedAt() != null) {
+            cursorUpdatedAt = minute.getUpdatedAt();
+            cursorId = minute.getId();
+        }
+        if (minute.getFrames() == null || minute.getFrames() <= 0)
+            return;
+        Map<String, TrafficSeries> labels = series.computeIfAbsent(minute.getCamera(), camera -> new ConcurrentHashMap<>());
+        Map<String, Long> counts = new TreeMap<>();
+        if (minute.getLabels() != null)
+            counts.putAll(minute.getLabels());
+        // Labels seen before and missing from this minute had no vehicles in it
+        labels.keySet().forEach(label -> counts.putIfAbsent(label, 0L));
+        counts.put(TOTAL, minute.getTotal() == null ? 0 : minute.getTotal());
+
+        counts.forEach((label, vehicles) -> {
+            TrafficSeries labelSeries = labels.computeIfAbsent(label, l -> new TrafficSeries());
+            Double zScore;
+            Double expected;
+            synchronized (labelSeries) {
+                expected = labelSeries.baselineMean();
+                zScore = labelSeries.add(minute.getBucket(), minute.getFrames(), vehicles, alpha, minSamples);
+            }
+            recordAnomaly(new TrafficAnomalyDTO(minute.getCamera(), label, minute.getBucket(),
+                    (double) vehicles / minute.getFrames(), expected, zScore));
+        });
+    }
+
+    /**
+     * Keeps the anomaly when its z-score passes the threshold. An anomaly flagged before for the same minute
+     * is replaced, or dropped once late frames bring the minute back in line.
+     */
+    private void recordAnomaly(TrafficAnomalyDTO anomaly) {
+        boolean anomalous = anomaly.getZScore() != null && Math.abs(anomaly.getZScore()) >= zThreshold;
+        Deque<TrafficAnomalyDTO> recent = anomalies.get(anomaly.getCamera());
+        if (recent == null && !anomalous)
+            return;
+        if (recent == null)
+            recent = anomalies.computeIfAbsent(anomaly.getCamera(), camera -> new ArrayDeque<>());
+        boolean flagged;
+        synchronized (recent) {
+            flagged = recent.removeIf(previous -> previous.getLabel().equals(anomaly.getLabel())
+                    && previous.getMinute().equals(anomaly.getMinute()));
+            if (!anomalous)
+                return;
+            recent.addFirst(anomaly);
+            if (recent.size() > MAX_ANOMALIES)
+                recent.removeLast();
+        }
+        if (!flagged)
+            meterRegistry.counter("analytics.anomalies", "camera", anomaly.getCamera(), "label", anomaly.getLabel()).increment();
+    }
+
+    /**
+     * @param camera the camera
+     * @return its analytics for the total and each label, the total first
+     */
+    public List<TrafficAnalyticsDTO> getAnalytics(String camera) {
+        Map<String, TrafficSeries> labels = series.get(camera);
+        if (labels == null)
+            throw new ResourceNotFoundException("No traffic analytics for camera: " + camera);
+        List<TrafficAnalyticsDTO> result = new ArrayList<>();
+        labels.forEach((label, labelSeries) -> {
+            synchronized (labelSeries) {
+                result.add(toAnalytics(camera, label, labelSeries));
+            }
+        });
+        result.sort(Comparator.comparing((TrafficAnalyticsDTO dto) -> !TOTAL.equals(dto.getLabel()))
+                .thenComparing(TrafficAnalyticsDTO::getLabel));
+        return result;
+    }
+
+    private TrafficAnalyticsDTO toAnalytics(String camera, String label, TrafficSeries labelSeries) {
+        Map<Integer, Double> averages = new LinkedHashMap<>();
+        for (int window : windows)
+            averages.put(window, labelSeries.movingAverage(window));
+        Double zScore = labelSeries.getLastZScore();
+        return new TrafficAnalyticsDTO(camera, label, labelSeries.getLastMinute(), averages,
+                labelSeries.baselineMean(), labelSeries.baselineStd(),
+                zScore, zScore != null && Math.abs(zScore) >= zThreshold,
+                labelSeries.peakHour(), labelSeries.peakHours(peakFactor),
+                labelSeries.change(1), labelSeries.change(7));
+    }
+
+    /**
+     * @param camera the camera, null for every camera
+     * @param limit  the most anomalies to return
+     * @return the latest anomalies, newest first
+     */
+    public List<TrafficAnomalyDTO> getAnomalies(String camera, int limit) {
+        List<TrafficAnomalyDTO> result = new ArrayList<>();
+        for (Map.Entry<String, Deque<TrafficAnomalyDTO>> entry : anomalies.entrySet()) {
+            if (camera != null && !camera.equals(entry.getKey()))
+                continue;
+            synchronized (entry.getValue()) {
+                result.addAll(entry.getValue());
+            }
+        }
+        result.sort(Comparator.comparing(TrafficAnomalyDTO::getMinute).reversed());
+        return result.subList(0, Math.min(Math.max(limit, 0), result.size()));
+    }
+}
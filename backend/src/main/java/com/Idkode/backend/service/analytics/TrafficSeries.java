@@ -0,0 +1,253 @@
+package com.Idkode.backend.service.analytics;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming statistics of the vehicles per frame of one camera and label, fed one minute at a time.
+ * Memory is constant whatever the history:
+ * <ul>
+ *     <li>a ring of the last 6 hours of minutes, for sliding window averages and to revise a minute
+ *     whose frames were detected late</li>
+ *     <li>a ring of hourly sums for the last 8 days, for peak hours and day-over-day and week-over-week changes</li>
+ *     <li>an exponentially weighted mean and variance for each hour of weekdays and of weekends,
+ *     the baseline of the z-scores, so rush hour is not flagged as an anomaly every day</li>
+ * </ul>
+ * Not thread safe, callers synchronize on the series.
+ */
+class TrafficSeries {
+
+    static final int WINDOW_MINUTES = 60;
+    /** How far behind the last minute a minute can still be revised */
+    static final int REVISABLE_MINUTES = 360;
+    static final int DAYS = 8;
+    private static final int SEASONS = 48;
+
+    private final long[] minuteKeys = new long[REVISABLE_MINUTES];
+    private final long[] minuteFrames = new long[REVISABLE_MINUTES];
+    private final long[] minuteVehicles = new long[REVISABLE_MINUTES];
+
+    private final long[] dayKeys = new long[DAYS];
+    private final long[][] hourFrames = new long[DAYS][24];
+    private final long[][] hourVehicles = new long[DAYS][24];
+
+    private final double[] means = new double[SEASONS];
+    private final double[] variances = new double[SEASONS];
+    private final int[] samples = new int[SEASONS];
+
+    private long lastMinute = Long.MIN_VALUE;
+    private Double lastZScore;
+
+    TrafficSeries() {
+        Arrays.fill(minuteKeys, Long.MIN_VALUE);
+        Arrays.fill(dayKeys, Long.MIN_VALUE);
+    }
+
+    /**
+     * Adds a minute, or revises it when it was added before: its counts replace the earlier ones
+     * in the averages and hourly sums, and the baseline moves by the change of its value.
+     * Minutes more than {@link #REVISABLE_MINUTES} behind the last one are dropped, they may have been counted already.
+     *
+     * @param minute     the start of the minute
+     * @param frames     the frames of the camera in that minute so far
+     * @param vehicles   the vehicles of this label in those frames
+     * @param alpha      the weight of the minute in the baseline, higher adapts faster
+     * @param minSamples the minutes the baseline needs before scoring
+     * @return the z-score of the minute against the baseline of its hour, null while the baseline is too young
+     */
+    Double add(LocalDateTime minute, long frames, long vehicles, double alpha, int minSamples) {
+        long epochMinute = minute.toEpochSecond(ZoneOffset.UTC) / 60;
+        if (lastMinute != Long.MIN_VALUE && epochMinute <= lastMinute - REVISABLE_MINUTES)
+            return null;
+        int slot = (int) Math.floorMod(epochMinute, (long) REVISABLE_MINUTES);
+        boolean revision = minuteKeys[slot] == epochMinute;
+        long previousFrames = revision ? minuteFrames[slot] : 0;
+        long previousVehicles = revision ? minuteVehicles[slot] : 0;
+        if (frames <= 0 && previousFrames <= 0)
+            return null;
+        minuteKeys[slot] = epochMinute;
+        minuteFrames[slot] = frames;
+        minuteVehicles[slot] = vehicles;
+
+        long epochDay = minute.toLocalDate().toEpochDay();
+        int day = (int) Math.floorMod(epochDay, (long) DAYS);
+        if (dayKeys[day] < epochDay) {
+            dayKeys[day] = epochDay;
+            Arrays.fill(hourFrames[day], 0);
+            Arrays.fill(hourVehicles[day], 0);
+        }
+        if (dayKeys[day] == epochDay) {
+            hourFrames[day][minute.getHour()] += frames - previousFrames;
+            hourVehicles[day][minute.getHour()] += vehicles - previousVehicles;
+        }
+        lastMinute = Math.max(lastMinute, epochMinute);
+        if (frames <= 0)
+            return null;
+
+        double value = (double) vehicles / frames;
+        int season = season(minute);
+        Double zScore = null;
+        if (samples[season] >= minSamples && variances[season] > 0)
+            zScore = (value - means[season]) / Math.sqrt(variances[season]);
+        if (previousFrames > 0) {
+            // Already in the baseline, the variance is left as it was
+            means[season] += alpha * (value - (double) previousVehicles / previousFrames);
+        } else if (samples[season] == 0) {
+            means[season] = value;
+            samples[season]++;
+        } else {
+            // Exponentially weighted form of Welford's update
+            double diff = value - means[season];
+            double increment = alpha * diff;
+            means[season] += increment;
+            variances[season] = (1 - alpha) * (variances[season] + diff * increment);
+            samples[season]++;
+        }
+        if (epochMinute == lastMinute)
+            lastZScore = zScore;
+        return zScore;
+    }
+
+    private static int season(LocalDateTime minute) {
+        DayOfWeek day = minute.getDayOfWeek();
+        boolean weekend = day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY;
+        return (weekend ? 24 : 0) + minute.getHour();
+    }
+
+    /**
+     * @return the last minute added, null when empty
+     */
+    LocalDateTime getLastMinute() {
+        return lastMinute == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(lastMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    Double getLastZScore() {
+        return lastZScore;
+    }
+
+    /**
+     * @param minutes the length of the window, at most 60
+     * @return the vehicles per frame over the last minutes up to the last minute added, null without frames
+     */
+    Double movingAverage(int minutes) {
+        long frames = 0;
+        long vehicles = 0;
+        for (int i = 0; i < REVISABLE_MINUTES; i++) {
+            if (minuteKeys[i] > lastMinute - minutes && minuteKeys[i] <= lastMinute) {
+                frames += minuteFrames[i];
+                vehicles += minuteVehicles[i];
+            }
+        }
+        return frames == 0 ? null : (double) vehicles / frames;
+    }
+
+    /**
+     * @return the baseline mean of the hour of the last minute, null when empty
+     */
+    Double baselineMean() {
+        LocalDateTime last = getLastMinute();
+        return last == null || samples[season(last)] == 0 ? null : means[season(last)];
+    }
+
+    /**
+     * @return the baseline standard deviation of the hour of the last minute, null when empty
+     */
+    Double baselineStd() {
+        LocalDateTime last = getLastMinute();
+        return last == null || samples[season(last)] == 0 ? null : Math.sqrt(variances[season(last)]);
+    }
+
+    /**
+     * @return the vehicles per frame of each hour of the day of the last minute, null for hours without frames
+     */
+    Double[] hourlyAverages() {
+        Double[] averages = new Double[24];
+        int day = dayIndex(0);
+        if (day < 0)
+            return averages;
+        for (int hour = 0; hour < 24; hour++) {
+            if (hourFrames[day][hour] > 0)
+                averages[hour] = (double) hourVehicles[day][hour] / hourFrames[day][hour];
+        }
+        return averages;
+    }
+
+    /**
+     * Rush hours of the day of the last minute
+     *
+     * @param factor how much busier than the day average an hour must be
+     * @return the hours at least factor times the day average, in order
+     */
+    List<Integer> peakHours(double factor) {
+        List<Integer> peaks = new ArrayList<>();
+        Double dayAverage = averageUpTo(0, 23);
+        if (dayAverage == null || dayAverage == 0)
+            return peaks;
+        Double[] hourly = hourlyAverages();
+        for (int hour = 0; hour < 24; hour++) {
+            if (hourly[hour] != null && hourly[hour] >= factor * dayAverage)
+                peaks.add(hour);
+        }
+        return peaks;
+    }
+
+    /**
+     * @return the busiest hour of the day of the last minute, null when empty
+     */
+    Integer peakHour() {
+        Double[] hourly = hourlyAverages();
+        Integer peak = null;
+        for (int hour = 0; hour < 24; hour++) {
+            if (hourly[hour] != null && (peak == null || hourly[hour] > hourly[peak]))
+                peak = hour;
+        }
+        return peak;
+    }
+
+    /**
+     * Relative change of the vehicles per frame from midnight to the hour of the last minute,
+     * against the same hours some days before
+     *
+     * @param daysBefore 1 for day-over-day, 7 for week-over-week
+     * @return the change, 0.1 for 10% more, null when either day has no frames
+     */
+    Double change(int daysBefore) {
+        LocalDateTime last = getLastMinute();
+        if (last == null)
+            return null;
+        Double current = averageUpTo(0, last.getHour());
+        Double previous = averageUpTo(daysBefore, last.getHour());
+        if (current == null || previous == null || previous == 0)
+            return null;
+        return (current - previous) / previous;
+    }
+
+    private Double averageUpTo(int daysBefore, int lastHour) {
+        int day = dayIndex(daysBefore);
+        if (day < 0)
+            return null;
+        long frames = 0;
+        long vehicles = 0;
+        for (int hour = 0; hour <= lastHour; hour++) {
+            frames += hourFrames[day][hour];
+            vehicles += hourVehicles[day][hour];
+        }
+        return frames == 0 ? null : (double) vehicles / frames;
+    }
+
+    /**
+     * @return the ring index of a day relative to the day of the last minute, -1 when it is not kept
+     */
+    private int dayIndex(int daysBefore) {
+        LocalDateTime last = getLastMinute();
+        if (last == null || daysBefore >= DAYS)
+            return -1;
+        long epochDay = last.toLocalDate().toEpochDay() - daysBefore;
+        int day = (int) Math.floorMod(epochDay, (long) DAYS);
+        return dayKeys[day] == epochDay ? day : -1;
+    }
+}
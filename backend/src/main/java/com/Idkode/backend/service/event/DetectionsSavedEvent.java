@@ -0,0 +1,22 @@
+package com.Idkode.backend.service.event;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published after the detections of an image are stored
+ */
+@Getter
+@AllArgsConstructor
+public class DetectionsSavedEvent {
+
+    /** The image, with its new detections */
+    private final Image image;
+
+    /** The detections the image had before, null on its first detection */
+    private final List<Detection> previousDetections;
+}
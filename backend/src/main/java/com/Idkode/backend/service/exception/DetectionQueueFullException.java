@@ -0,0 +1,14 @@
+package com.Idkode.backend.service.exception;
+
+import lombok.Getter;
+
+@Getter
+public class DetectionQueueFullException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public DetectionQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
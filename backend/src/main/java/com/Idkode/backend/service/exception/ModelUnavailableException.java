@@ -0,0 +1,14 @@
+package com.Idkode.backend.service.exception;
+
+/**
+ * The model service could not be reached. The images are fine and can be sent again later.
+ */
+public class ModelUnavailableException extends RuntimeException {
+    public ModelUnavailableException(String message) {
+        super(message);
+    }
+
+    public ModelUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,10 @@
+package com.Idkode.backend.service.exception;
+
+/**
+ * The image store could not be reached. The request can be retried later.
+ */
+public class StorageUnavailableException extends RuntimeException {
+    public StorageUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
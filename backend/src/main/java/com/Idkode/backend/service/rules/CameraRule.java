@@ -0,0 +1,104 @@
+package com.Idkode.backend.service.rules;
+
+import com.Idkode.backend.entity.Detection;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Detection settings of a camera, see {@link CameraRuleRegistry}. Unset fields take the defaults.
+ */
+@Data
+@NoArgsConstructor
+public class CameraRule {
+
+    /** Road area as [x, y] points in frame pixels. Only this area is sent to the model and boxes outside it are dropped */
+    private List<double[]> roi;
+
+    /** Boxes below this confidence are dropped */
+    private Double minConfidence;
+
+    /** Labels kept, e.g. ["Car", "Bus"]. Null keeps every label */
+    private Set<String> labels;
+
+    /** Labels dropped even when kept by {@link #labels}, e.g. ["Person"] */
+    private Set<String> excludedLabels;
+
+    /** Width the frame is scaled down to before inference, 0 or null to send it as is */
+    private Integer maxWidth;
+
+    @JsonIgnore
+    private Path2D polygon;
+
+    /**
+     * @param defaults the rule for cameras without their own
+     * @return this rule, with unset fields taken from defaults
+     */
+    CameraRule withDefaults(CameraRule defaults) {
+        CameraRule rule = new CameraRule();
+        rule.setRoi(roi != null ? roi : defaults.getRoi());
+        rule.setMinConfidence(minConfidence != null ? minConfidence : defaults.getMinConfidence());
+        rule.setLabels(labels != null ? labels : defaults.getLabels());
+        rule.setExcludedLabels(excludedLabels != null ? excludedLabels : defaults.getExcludedLabels());
+        rule.setMaxWidth(maxWidth != null ? maxWidth : defaults.getMaxWidth());
+        rule.polygon = toPolygon(rule.getRoi());
+        return rule;
+    }
+
+    private static Path2D toPolygon(List<double[]> points) {
+        if (points == null || points.size() < 3)
+            return null;
+        Path2D polygon = new Path2D.Double();
+        polygon.moveTo(points.get(0)[0], points.get(0)[1]);
+        for (double[] point : points.subList(1, points.size()))
+            polygon.lineTo(point[0], point[1]);
+        polygon.closePath();
+        return polygon;
+    }
+
+    /**
+     * @return whether frames are cropped or scaled before inference
+     */
+    public boolean transformsFrame() {
+        return polygon != null || (maxWidth != null && maxWidth > 0);
+    }
+
+    /**
+     * @return the bounds of the road area, null when the whole frame is used
+     */
+    public Rectangle getRoiBounds() {
+        return polygon == null ? null : polygon.getBounds();
+    }
+
+    /**
+     * Keeps the boxes above the minimum confidence, with a kept label that is not excluded and their center
+     * in the road area
+     *
+     * @param detections the detections, in frame coordinates
+     * @return the kept detections
+     */
+    public List<Detection> filter(List<Detection> detections) {
+        return detections.stream().filter(this::accepts).toList();
+    }
+
+    private boolean accepts(Detection detection) {
+        if (minConfidence != null && (detection.getConfidence() == null || detection.getConfidence() < minConfidence))
+            return false;
+        if (labels != null && !labels.contains(detection.getLabel()))
+            return false;
+        if (excludedLabels != null && excludedLabels.contains(detection.getLabel()))
+            return false;
+        if (polygon != null && detection.getX1() != null && detection.getY1() != null
+                && detection.getX2() != null && detection.getY2() != null) {
+            double x = (detection.getX1() + detection.getX2()) / 2;
+            double y = (detection.getY1() + detection.getY2()) / 2;
+            return polygon.contains(x, y);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+package com.Idkode.backend.service.rules;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-camera detection rules, read from the json file at {@code detection.rules.path} and reloaded
+ * when it changes, without a restart:
+ * <pre>
+ * {
+ *   "defaults": { "minConfidence": 0.3, "excludedLabels": ["Person"] },
+ *   "cameras": {
+ *     "Av. Eduardo Ribeiro": {
+ *       "roi": [[0, 120], [655, 90], [655, 355], [0, 355]],
+ *       "labels": ["Car", "Motorcycle", "Bus"],
+ *       "maxWidth": 640
+ *     }
+ *   }
+ * }
+ * </pre>
+ * A file that fails to parse is logged and the rules loaded before stay in use.
+ */
+@Service
+public class CameraRuleRegistry {
+
+    private final Logger logger = LoggerFactory.getLogger(CameraRuleRegistry.class);
+
+    private final ObjectMapper objectMapper;
+    private final Path path;
+    private volatile Rules rules = new Rules();
+    private volatile FileTime loadedAt;
+
+    @Data
+    @NoArgsConstructor
+    static class Rules {
+        private CameraRule defaults = new CameraRule();
+        private Map<String, CameraRule> cameras = new HashMap<>();
+    }
+
+    @Autowired
+    public CameraRuleRegistry(ObjectMapper objectMapper, @Value("${detection.rules.path}") String path) {
+        this.objectMapper = objectMapper;
+        this.path = path == null || path.isBlank() ? null : Path.of(path);
+        reload();
+    }
+
+    /**
+     * @param camera the camera
+     * @return its rule, the defaults when it has none
+     */
+    public CameraRule forCamera(String camera) {
+        Rules current = rules;
+        CameraRule rule = camera == null ? null : current.getCameras().get(camera);
+        return rule != null ? rule : current.getDefaults();
+    }
+
+    /**
+     * Reads the file again if it changed since the last load
+     */
+    @Scheduled(fixedDelayString = "${detection.rules.reload-ms}", initialDelayString = "${detection.rules.reload-ms}")
+    public void reload() {
+        if (path == null)
+            return;
+        try {
+            if (!Files.exists(path)) {
+                if (loadedAt == null)
+                    logger.warn("Camera rules file not found: {}", path);
+                return;
+            }
+            FileTime modified = Files.getLastModifiedTime(path);
+            if (modified.equals(loadedAt))
+                return;
+            Rules loaded = objectMapper.readValue(path.toFile(), Rules.class);
+            CameraRule defaults = loaded.getDefaults() == null ? new CameraRule() : loaded.getDefaults();
+            Rules resolved = new Rules();
+            resolved.setDefaults(defaults.withDefaults(new CameraRule()));
+            if (loaded.getCameras() != null)
+                loaded.getCameras().forEach((camera, rule) -> resolved.getCameras().put(camera, rule.withDefaults(defaults)));
+            rules = resolved;
+            loadedAt = modified;
+            logger.info("Loaded detection rules for {} cameras from {}", resolved.getCameras().size(), path);
+        } catch (Exception e) {
+            logger.error("Could not load camera rules from {}, keeping the previous ones: {}", path, e.getMessage());
+        }
+    }
+}
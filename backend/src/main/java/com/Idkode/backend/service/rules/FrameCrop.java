@@ -0,0 +1,57 @@
+package com.Idkode.backend.service.rules;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.service.AnnotationRenderer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The part of a frame sent to the model, and how to bring the boxes it returns back to frame coordinates
+ *
+ * @param image   the encoded crop
+ * @param offsetX the left of the crop in the frame
+ * @param offsetY the top of the crop in the frame
+ * @param scale   the size of the crop over the size of the frame area it covers
+ */
+public record FrameCrop(byte[] image, int offsetX, int offsetY, double scale) {
+
+    /**
+     * Crops a frame to the bounds of the road area of its rule, then scales it down to the rule's max width
+     *
+     * @param frame    the encoded frame
+     * @param rule     the rule of its camera
+     * @param renderer encodes the crop
+     * @return the crop
+     * @throws IOException if the frame cannot be decoded or the crop encoded
+     */
+    public static FrameCrop of(byte[] frame, CameraRule rule, AnnotationRenderer renderer) throws IOException {
+        BufferedImage decoded = AnnotationRenderer.decode(frame);
+        Rectangle area = new Rectangle(0, 0, decoded.getWidth(), decoded.getHeight());
+        Rectangle bounds = rule.getRoiBounds();
+        if (bounds != null)
+            area = area.intersection(bounds);
+        if (area.isEmpty())
+            area = new Rectangle(0, 0, decoded.getWidth(), decoded.getHeight());
+
+        BufferedImage cropped = decoded.getSubimage(area.x, area.y, area.width, area.height);
+        int maxWidth = rule.getMaxWidth() == null ? 0 : rule.getMaxWidth();
+        double scale = maxWidth > 0 && area.width > maxWidth ? (double) maxWidth / area.width : 1.0;
+        BufferedImage sent = AnnotationRenderer.draw(cropped, List.of(), maxWidth, 1.0);
+        return new FrameCrop(renderer.encode(sent), area.x, area.y, scale);
+    }
+
+    /**
+     * @param detections boxes in crop coordinates
+     * @return the same boxes in frame coordinates
+     */
+    public List<Detection> toFrame(List<Detection> detections) {
+        return detections.stream()
+                .map(detection -> new Detection(detection.getConfidence(), detection.getLabel(),
+                        detection.getX1() / scale + offsetX, detection.getY1() / scale + offsetY,
+                        detection.getX2() / scale + offsetX, detection.getY2() / scale + offsetY))
+                .toList();
+    }
+}
@@ -0,0 +1,68 @@
+package com.Idkode.backend.service.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Optional;
+
+/**
+ * Where image files live. Files are addressed by keys, which are what {@code Image} stores.
+ */
+public interface ImageStorage {
+
+    /**
+     * Streams an uploaded image into the store, hashing it on the way.
+     * Keys are derived from camera, date and content hash, so the same frame is stored once.
+     *
+     * @param content   the image content, read once and not closed
+     * @param camera    the camera
+     * @param date      the capture date
+     * @param extension the file extension, with the dot
+     * @return the stored image
+     * @throws IOException the io exception
+     */
+    StoredImage store(InputStream content, String camera, LocalDate date, String extension) throws IOException;
+
+    /**
+     * Writes a file derived from a stored image, replacing it if present
+     *
+     * @param key  the key, usually from {@link #siblingKey}
+     * @param data the content
+     * @throws IOException the io exception
+     */
+    void write(String key, byte[] data) throws IOException;
+
+    byte[] read(String key) throws IOException;
+
+    boolean exists(String key);
+
+    void delete(String key) throws IOException;
+
+    /**
+     * @param key the key
+     * @return the content as a resource that can be streamed to a response or a request
+     */
+    Resource load(String key);
+
+    /**
+     * @param key the key
+     * @return the file on the local disk, when the store is local, for zero-copy transfers
+     */
+    Optional<Path> localPath(String key);
+
+    /**
+     * Key of a file stored next to another one, such as a thumbnail
+     *
+     * @param key    the key of the original
+     * @param suffix what replaces its extension, e.g. ".thumbnail.jpg"
+     * @return the key of the sibling
+     */
+    static String siblingKey(String key, String suffix) {
+        int slash = Math.max(key.lastIndexOf('/'), key.lastIndexOf('\\'));
+        int dot = key.lastIndexOf('.');
+        return (dot > slash ? key.substring(0, dot) : key) + suffix;
+    }
+}
@@ -0,0 +1,125 @@
+package com.Idkode.backend.service.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Stores images under {@code images.directory}, sharded as camera/yyyy/MM/dd/xx/hash.ext
+ * so no directory grows without bound.
+ * <p>
+ * Keys are relative to the directory. Absolute keys, from images saved before the sharded layout,
+ * are still resolved as they are. Several replicas can share the directory over a network volume,
+ * or use {@link S3ImageStorage} instead.
+ */
+@Component
+@ConditionalOnProperty(name = "images.storage.type", havingValue = "local", matchIfMissing = true)
+public class LocalImageStorage implements ImageStorage {
+
+    private static final DateTimeFormatter DATE_SHARDS = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+    private final Path root;
+
+    @Autowired
+    public LocalImageStorage(@Value("${images.directory}") String directory) {
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public StoredImage store(InputStream content, String camera, LocalDate date, String extension) throws IOException {
+        Path incoming = Files.createDirectories(root.resolve(".incoming"));
+        Path temporary = Files.createTempFile(incoming, "upload-", ".part");
+        try {
+            MessageDigest digest = sha256();
+            long size = Files.copy(new DigestInputStream(content, digest), temporary, StandardCopyOption.REPLACE_EXISTING);
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String key = shardedKey(camera, date, hash, extension);
+
+            Path target = resolve(key);
+            if (Files.exists(target))
+                return new StoredImage(key, hash, size, true);
+            Files.createDirectories(target.getParent());
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            return new StoredImage(key, hash, size, false);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @Override
+    public void write(String key, byte[] data) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path temporary = Files.write(target.resolveSibling(target.getFileName() + ".tmp"), data);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        return Files.readAllBytes(resolve(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Resource load(String key) {
+        return new FileSystemResource(resolve(key));
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!Paths.get(key).isAbsolute() && !path.startsWith(root))
+            throw new IllegalArgumentException("Key outside of the image directory: " + key);
+        return path;
+    }
+
+    /**
+     * Key of an image in the sharded layout, camera/yyyy/MM/dd/xx/hash.ext
+     */
+    static String shardedKey(String camera, LocalDate date, String hash, String extension) {
+        return String.join("/", sanitize(camera), date.format(DATE_SHARDS), hash.substring(0, 2), hash + extension);
+    }
+
+    private static String sanitize(String camera) {
+        String safe = camera.replaceAll("[^A-Za-z0-9_-]", "_");
+        return safe.isEmpty() ? "_" : safe;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
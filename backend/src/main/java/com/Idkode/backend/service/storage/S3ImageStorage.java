@@ -0,0 +1,250 @@
+package com.Idkode.backend.service.storage;
+
+import com.Idkode.backend.config.requests.RestTemplateConfig;
+import com.Idkode.backend.service.exception.StorageUnavailableException;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.classic.methods.HttpDelete;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.classic.methods.HttpPut;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Stores images in an S3-compatible bucket (AWS S3, MinIO, Ceph...), so every replica sees the same files.
+ * Enabled with {@code images.storage.type=s3}.
+ * <p>
+ * Keys follow the same sharded layout as {@link LocalImageStorage}. Requests are path-style and signed
+ * with Signature Version 4 over the pooled http client, without an SDK.
+ */
+@Component
+@ConditionalOnProperty(name = "images.storage.type", havingValue = "s3")
+public class S3ImageStorage implements ImageStorage {
+
+    private final CloseableHttpClient httpClient;
+    private final SigV4Signer signer;
+    private final URI endpoint;
+    private final String bucket;
+
+    @Autowired
+    public S3ImageStorage(@Value("${images.storage.s3.endpoint}") String endpoint,
+                          @Value("${images.storage.s3.bucket}") String bucket,
+                          @Value("${images.storage.s3.region}") String region,
+                          @Value("${images.storage.s3.access-key}") String accessKey,
+                          @Value("${images.storage.s3.secret-key}") String secretKey,
+                          @Value("${images.storage.s3.max-connections}") int maxConnections,
+                          @Value("${images.storage.s3.timeout-ms}") long timeout) {
+        this.httpClient = RestTemplateConfig.httpClient(maxConnections, timeout, timeout, 30000);
+        this.signer = new SigV4Signer(region, accessKey, secretKey);
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.bucket = bucket;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    @Override
+    public StoredImage store(InputStream content, String camera, LocalDate date, String extension) throws IOException {
+        // The key depends on the hash, so the frame is buffered before it is sent
+        byte[] data = content.readAllBytes();
+        String hash = SigV4Signer.sha256Hex(data);
+        String key = LocalImageStorage.shardedKey(camera, date, hash, extension);
+        if (exists(key))
+            return new StoredImage(key, hash, data.length, true);
+        put(key, data, hash);
+        return new StoredImage(key, hash, data.length, false);
+    }
+
+    @Override
+    public void write(String key, byte[] data) throws IOException {
+        put(key, data, SigV4Signer.sha256Hex(data));
+    }
+
+    private void put(String key, byte[] data, String hash) throws IOException {
+        HttpPut request = new HttpPut(uri(key));
+        request.setEntity(new ByteArrayEntity(data, ContentType.APPLICATION_OCTET_STREAM));
+        execute(request, hash, key);
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        try (InputStream input = open(key)) {
+            return input.readAllBytes();
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        try {
+            return head(key) != null;
+        } catch (IOException e) {
+            throw new StorageUnavailableException("Could not reach the image store: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        execute(new HttpDelete(uri(key)), SigV4Signer.EMPTY_PAYLOAD, key);
+    }
+
+    @Override
+    public Resource load(String key) {
+        return new S3Resource(key);
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+
+    /**
+     * @return the object headers, null when it does not exist
+     */
+    private ClassicHttpResponse head(String key) throws IOException {
+        HttpHead request = new HttpHead(uri(key));
+        sign(request, SigV4Signer.EMPTY_PAYLOAD);
+        return httpClient.execute(request, response -> {
+            if (response.getCode() == 404)
+                return null;
+            if (response.getCode() >= 300)
+                throw new IOException("HEAD " + key + " answered " + response.getCode());
+            return response;
+        });
+    }
+
+    private InputStream open(String key) throws IOException {
+        HttpGet request = new HttpGet(uri(key));
+        sign(request, SigV4Signer.EMPTY_PAYLOAD);
+        ClassicHttpResponse response = httpClient.executeOpen(null, request, null);
+        if (response.getCode() != 200) {
+            int code = response.getCode();
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+            if (code == 404)
+                throw new NoSuchFileException(key);
+            throw new IOException("GET " + key + " answered " + code);
+        }
+        // Closing the stream hands the connection back to the pool
+        return new FilterInputStream(response.getEntity().getContent()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    private void execute(HttpUriRequestBase request, String payloadHash, String key) throws IOException {
+        sign(request, payloadHash);
+        httpClient.execute(request, response -> {
+            EntityUtils.consume(response.getEntity());
+            if (response.getCode() >= 300)
+                throw new IOException(request.getMethod() + " " + key + " answered " + response.getCode());
+            return null;
+        });
+    }
+
+    private void sign(HttpUriRequestBase request, String payloadHash) {
+        URI uri = URI.create(request.getRequestUri());
+        SortedMap<String, String> headers = new TreeMap<>();
+        headers.put("host", endpoint.getPort() < 0 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort());
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", SigV4Signer.now());
+        headers.forEach(request::setHeader);
+        request.setHeader("Authorization", signer.authorization(request.getMethod(), uri.getRawPath(), "", headers, payloadHash));
+    }
+
+    private URI uri(String key) {
+        return URI.create(endpoint + "/" + bucket + "/" + SigV4Signer.encodePath(key.startsWith("/") ? key.substring(1) : key));
+    }
+
+    /**
+     * An object read lazily: opening it starts a GET, its size and date come from a single HEAD
+     */
+    private class S3Resource extends AbstractResource {
+
+        private final String key;
+        private ClassicHttpResponse metadata;
+
+        S3Resource(String key) {
+            this.key = key;
+        }
+
+        private synchronized ClassicHttpResponse metadata() throws IOException {
+            if (metadata == null) {
+                metadata = head(key);
+                if (metadata == null)
+                    throw new NoSuchFileException(key);
+            }
+            return metadata;
+        }
+
+        @Override
+        public boolean exists() {
+            try {
+                return metadata() != null;
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                throw new StorageUnavailableException("Could not reach the image store: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            Header length = metadata().getFirstHeader("Content-Length");
+            return length == null ? read(key).length : Long.parseLong(length.getValue());
+        }
+
+        @Override
+        public long lastModified() throws IOException {
+            Header modified = metadata().getFirstHeader("Last-Modified");
+            Instant instant = modified == null ? null : DateUtils.parseStandardDate(modified.getValue());
+            return instant == null ? 0 : instant.toEpochMilli();
+        }
+
+        @Override
+        public String getFilename() {
+            return key.substring(key.lastIndexOf('/') + 1);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return open(key);
+        }
+
+        @Override
+        public String getDescription() {
+            return "S3 object [" + bucket + "/" + key + "]";
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.Idkode.backend.service.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Result of storing an uploaded image
+ */
+@Getter
+@AllArgsConstructor
+public class StoredImage {
+
+    /** Storage key of the content, saved as the image path */
+    private final String key;
+
+    /** SHA-256 of the content, hex encoded */
+    private final String hash;
+
+    private final long size;
+
+    /** Whether the same content was already stored under this key */
+    private final boolean duplicate;
+}
@@ -0,0 +1,122 @@
+package com.Idkode.backend;
+
+import com.Idkode.backend.entity.Detection;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Mongo for the tests that need a real database: the server at TEST_MONGO_URI when set,
+ * otherwise a throwaway container of the version docker-compose runs.
+ * When neither is available the calling test is skipped, not failed.
+ * <p>
+ * Registered on a static field with {@code @RegisterExtension}, the database is started on first use,
+ * so the tests of the class that do not touch it still run, and dropped after the last test of the class.
+ * Every instance works in its own database, with the indexes of the given documents created as the application creates them.
+ */
+public class TestMongo implements AfterAllCallback, AutoCloseable {
+
+    public static final String IMAGE = "mongo:4.0.6";
+
+    /** Two cars and a bus, the detections the image tests store and count */
+    public static final List<Detection> DETECTIONS = List.of(
+            new Detection(0.9, "Car", 10.0, 20.0, 110.0, 90.0),
+            new Detection(0.7, "Car", 300.0, 40.0, 380.0, 120.0),
+            new Detection(0.8, "Bus", 200.0, 40.0, 380.0, 160.0));
+
+    private final Class<?>[] documents;
+
+    private MongoDBContainer container;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * @param documents the document classes whose indexes are created, and whose documents {@link #clean()} removes
+     */
+    public TestMongo(Class<?>... documents) {
+        this.documents = documents;
+    }
+
+    private void start() {
+        String uri = System.getenv("TEST_MONGO_URI");
+        if (uri == null) {
+            Assumptions.assumeTrue(DockerClientFactory.instance().isDockerAvailable(),
+                    "Neither TEST_MONGO_URI nor docker is available");
+            container = new MongoDBContainer(DockerImageName.parse(IMAGE));
+            container.start();
+            uri = container.getReplicaSetUrl();
+        }
+        client = MongoClients.create(uri);
+        mongoTemplate = new MongoTemplate(client, "traffic_test_" + UUID.randomUUID().toString().replace("-", ""));
+        for (Class<?> document : documents)
+            ensureIndexes(document);
+    }
+
+    private void ensureIndexes(Class<?> document) {
+        MongoMappingContext mappingContext = (MongoMappingContext) mongoTemplate.getConverter().getMappingContext();
+        IndexOperations indexOps = mongoTemplate.indexOps(document);
+        new MongoPersistentEntityIndexResolver(mappingContext).resolveIndexFor(document).forEach(indexOps::ensureIndex);
+    }
+
+    /**
+     * @return the database, started on the first call
+     */
+    public synchronized MongoTemplate getMongoTemplate() {
+        if (mongoTemplate == null)
+            start();
+        return mongoTemplate;
+    }
+
+    /**
+     * @return the database without the documents left by the previous tests, indexes kept
+     */
+    public MongoTemplate clean() {
+        MongoTemplate template = getMongoTemplate();
+        for (Class<?> document : documents)
+            template.remove(new Query(), document);
+        return template;
+    }
+
+    /**
+     * @param repositoryInterface a Spring Data repository interface
+     * @return the repository, built on this database
+     */
+    public <T> T getRepository(Class<T> repositoryInterface) {
+        return new MongoRepositoryFactory(getMongoTemplate()).getRepository(repositoryInterface);
+    }
+
+    @Override
+    public void afterAll(ExtensionContext context) {
+        close();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client == null)
+            return;
+        try {
+            mongoTemplate.getDb().drop();
+        } finally {
+            client.close();
+            if (container != null)
+                container.stop();
+            client = null;
+            container = null;
+            mongoTemplate = null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.Idkode.backend.benchmark;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import com.Idkode.backend.service.AnnotationRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders annotated frames with the previous implementation and with {@link AnnotationRenderer}.
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=AnnotationRendererBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotationRendererBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String frame;
+
+    @Param({"10", "50"})
+    public int boxes;
+
+    private byte[] image;
+    private List<Detection> detections;
+    private AnnotationRenderer renderer;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] size = frame.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        image = syntheticFrame(width, height);
+        detections = syntheticDetections(width, height, boxes);
+        renderer = new AnnotationRenderer(0.85f, 0);
+    }
+
+    @Benchmark
+    public byte[] legacy() throws IOException {
+        BufferedImage imageFile = ImageIO.read(new ByteArrayInputStream(image));
+        BufferedImage annotated = new BufferedImage(imageFile.getWidth(), imageFile.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = annotated.createGraphics();
+        g2d.drawImage(imageFile, 0, 0, null);
+        for (Detection det : detections) {
+            g2d.setColor(EnumLabels.getColorForLabel(det.getLabel()));
+            g2d.setStroke(new BasicStroke(2));
+            int x1 = (int) Math.round(det.getX1());
+            int x2 = (int) Math.round(det.getX2());
+            int y1 = (int) Math.round(det.getY1());
+            int y2 = (int) Math.round(det.getY2());
+            g2d.drawRect(x1, y1, x2 - x1, y2 - y1);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(annotated, "jpg", baos);
+        g2d.dispose();
+        return baos.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] renderer() throws IOException {
+        return renderer.render(image, detections);
+    }
+
+    static byte[] syntheticFrame(int width, int height) throws IOException {
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2d = frame.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, width, height, Color.LIGHT_GRAY));
+        g2d.fillRect(0, 0, width, height);
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            g2d.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g2d.fillRect(random.nextInt(width), random.nextInt(height), 20 + random.nextInt(80), 10 + random.nextInt(40));
+        }
+        g2d.dispose();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(frame, "jpg", baos);
+        return baos.toByteArray();
+    }
+
+    static List<Detection> syntheticDetections(int width, int height, int count) {
+        Random random = new Random(11);
+        EnumLabels[] labels = EnumLabels.values();
+        List<Detection> detections = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double x1 = random.nextInt(width - 100);
+            double y1 = random.nextInt(height - 100);
+            detections.add(new Detection(0.3 + random.nextDouble() * 0.7,
+                    labels[random.nextInt(labels.length)].getLabel(),
+                    x1, y1, x1 + 20 + random.nextInt(80), y1 + 20 + random.nextInt(80)));
+        }
+        return detections;
+    }
+}
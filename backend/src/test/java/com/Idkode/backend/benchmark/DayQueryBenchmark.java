@@ -0,0 +1,114 @@
+package com.Idkode.backend.benchmark;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the old $dateToString day filter with the range query on the {camera, datetime} index.
+ * <p>
+ * Needs a running MongoDB. Seeds synthetic images once and reuses them on later runs.
+ * <pre>
+ * BENCH_MONGO_URI=mongodb://localhost:27017/traffic_bench BENCH_DOCUMENTS=3000000 \
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.Idkode.backend.benchmark.DayQueryBenchmark
+ * </pre>
+ */
+public class DayQueryBenchmark {
+
+    private static final int CAMERAS = 20;
+    private static final int DAYS = 365;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) {
+        String uri = System.getenv().getOrDefault("BENCH_MONGO_URI", "mongodb://localhost:27017/traffic_bench");
+        int documents = Integer.parseInt(System.getenv().getOrDefault("BENCH_DOCUMENTS", "3000000"));
+
+        try (MongoClient client = MongoClients.create(uri)) {
+            String database = uri.substring(uri.lastIndexOf('/') + 1).split("\\?")[0];
+            MongoCollection<Document> images = client.getDatabase(database).getCollection("images");
+            seed(images, documents);
+            images.createIndex(Indexes.ascending("datetime"));
+            images.createIndex(Indexes.ascending("camera", "datetime", "_id"), new IndexOptions().name("camera_datetime_id"));
+
+            LocalDate day = LocalDate.now().minusDays(DAYS / 2);
+            String camera = "camera-7";
+            Document before = new Document("camera", camera)
+                    .append("$expr", new Document("$eq", Arrays.asList(
+                            new Document("$dateToString", new Document("format", "%Y-%m-%d").append("date", "$datetime")),
+                            day.format(DateTimeFormatter.ISO_LOCAL_DATE))));
+            Document after = new Document("camera", camera)
+                    .append("datetime", new Document("$gte", toDate(day.atStartOfDay()))
+                            .append("$lt", toDate(day.plusDays(1).atStartOfDay())));
+
+            run(images, "$dateToString", before);
+            run(images, "range", after);
+        }
+    }
+
+    private static void seed(MongoCollection<Document> images, int documents) {
+        long existing = images.estimatedDocumentCount();
+        if (existing >= documents) {
+            System.out.printf("Reusing %d existing documents%n", existing);
+            return;
+        }
+        Random random = new Random(42);
+        LocalDateTime first = LocalDate.now().minusDays(DAYS).atStartOfDay();
+        long span = DAYS * 24L * 60 * 60;
+        List<Document> batch = new ArrayList<>(10_000);
+        for (long i = existing; i < documents; i++) {
+            LocalDateTime datetime = first.plusSeconds((long) (random.nextDouble() * span));
+            List<Document> detections = new ArrayList<>();
+            for (int d = random.nextInt(30); d > 0; d--) {
+                detections.add(new Document("confidence", random.nextDouble())
+                        .append("label", "Car")
+                        .append("x1", 10.0).append("y1", 10.0).append("x2", 50.0).append("y2", 50.0));
+            }
+            batch.add(new Document("name", "frame-" + i + ".png")
+                    .append("camera", "camera-" + random.nextInt(CAMERAS))
+                    .append("path", "/app/uploads/frame-" + i + ".png")
+                    .append("datetime", toDate(datetime))
+                    .append("detections", detections));
+            if (batch.size() == 10_000) {
+                images.insertMany(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            images.insertMany(batch);
+        System.out.printf("Seeded %d documents%n", documents - existing);
+    }
+
+    private static void run(MongoCollection<Document> images, String name, Document filter) {
+        long[] samples = new long[ITERATIONS];
+        int results = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            results = images.find(filter).into(new ArrayList<>()).size();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        Document stats = images.find(filter).explain().get("executionStats", Document.class);
+        System.out.printf("%-14s results=%d p50=%.2fms p99=%.2fms docsExamined=%s keysExamined=%s%n",
+                name, results, samples[ITERATIONS / 2] / 1e6, samples[ITERATIONS * 99 / 100] / 1e6,
+                stats == null ? "?" : stats.get("totalDocsExamined"),
+                stats == null ? "?" : stats.get("totalKeysExamined"));
+    }
+
+    private static Date toDate(LocalDateTime datetime) {
+        return Date.from(datetime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,77 @@
+package com.Idkode.backend.benchmark;
+
+import com.Idkode.backend.dtos.ImageDTO;
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import com.Idkode.backend.repository.projection.ImageCount;
+import com.Idkode.backend.repository.projection.LabelCount;
+import com.Idkode.backend.service.ImageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps a day of count projections into the data points returned by findImages.
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=ImageDtoBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageDtoBenchmark {
+
+    /** One image a minute and one every ten seconds */
+    @Param({"1440", "8640"})
+    public int images;
+
+    @Param({"false", "true"})
+    public boolean withLabels;
+
+    private List<ImageCount> counts;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(5);
+        EnumLabels[] values = EnumLabels.values();
+        LocalDateTime start = LocalDate.of(2025, 1, 1).atStartOfDay();
+        long step = 24L * 60 * 60 / images;
+        counts = new ArrayList<>(images);
+        for (int i = 0; i < images; i++) {
+            List<LabelCount> labels = null;
+            int total = random.nextInt(30);
+            if (withLabels) {
+                labels = new ArrayList<>(values.length);
+                int left = total;
+                for (EnumLabels label : values) {
+                    int count = label == values[values.length - 1] ? left : random.nextInt(left + 1);
+                    labels.add(new LabelCount(label.getLabel(), count));
+                    left -= count;
+                }
+            }
+            counts.add(new ImageCount(start.plusSeconds(i * step), total, labels));
+        }
+    }
+
+    @Benchmark
+    public List<ImageDTO> toImageDTO() {
+        return counts.stream().map(ImageService::toImageDTO).toList();
+    }
+}
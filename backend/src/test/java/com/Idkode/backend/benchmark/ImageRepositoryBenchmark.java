@@ -0,0 +1,87 @@
+package com.Idkode.backend.benchmark;
+
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.repository.ImageRepository;
+import com.Idkode.backend.repository.projection.ImageCount;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the repository queries behind the day charts and the image endpoints against {@link MongoHarness}.
+ * <p>
+ * Starts a Mongo container, so it needs docker unless BENCH_MONGO_URI points at a database.
+ * That database is cleared and seeded on every run.
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=ImageRepositoryBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageRepositoryBenchmark {
+
+    private static final int CAMERAS = 4;
+    private static final int DAYS = 3;
+    private static final int INTERVAL_SECONDS = 30;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2025, 1, 1);
+
+    private MongoHarness harness;
+    private ImageRepository imageRepository;
+    private String camera;
+    private LocalDateTime start;
+    private LocalDateTime end;
+    private LocalDateTime datetime;
+
+    @Setup
+    public void setup() {
+        harness = new MongoHarness();
+        harness.seed(CAMERAS, DAYS, FIRST_DAY, INTERVAL_SECONDS);
+        imageRepository = harness.getImageRepository();
+        camera = MongoHarness.camera(1);
+        start = FIRST_DAY.plusDays(1).atStartOfDay();
+        end = start.plusDays(1);
+        datetime = start.plusHours(12);
+    }
+
+    @TearDown
+    public void tearDown() {
+        harness.close();
+    }
+
+    @Benchmark
+    public List<ImageCount> countDay() {
+        return imageRepository.countByCameraAndDatetimeRange(camera, start, end);
+    }
+
+    @Benchmark
+    public List<ImageCount> countLabelsDay() {
+        return imageRepository.countLabelsByCameraAndDatetimeRange(camera, start, end);
+    }
+
+    @Benchmark
+    public List<ImageCount> countOne() {
+        return imageRepository.countByCameraAndDatetime(camera, datetime);
+    }
+
+    @Benchmark
+    public List<Image> findOne() {
+        return imageRepository.findByCameraAndDatetime(camera, datetime);
+    }
+}
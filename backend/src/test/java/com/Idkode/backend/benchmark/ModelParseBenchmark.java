@@ -0,0 +1,86 @@
+package com.Idkode.backend.benchmark;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import com.Idkode.backend.service.ModelClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the model payload into detections, and the label lookups done for every box.
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=ModelParseBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelParseBenchmark {
+
+    @Param({"10", "50"})
+    public int boxes;
+
+    private Map<String, Object> payload;
+    private int[] ids;
+    private String[] labels;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(3);
+        EnumLabels[] values = EnumLabels.values();
+        List<Map<String, Object>> detections = new ArrayList<>(boxes);
+        ids = new int[boxes];
+        labels = new String[boxes];
+        for (int i = 0; i < boxes; i++) {
+            // Same shape Jackson produces for the model's JSON: Integer labels, Double coordinates
+            Map<String, Object> detection = new HashMap<>();
+            ids[i] = values[random.nextInt(values.length)].getId();
+            labels[i] = values[ids[i]].getLabel();
+            detection.put("confidence", random.nextDouble());
+            detection.put("label", ids[i]);
+            detection.put("x1", random.nextDouble() * 1800);
+            detection.put("y1", random.nextDouble() * 1000);
+            detection.put("x2", random.nextDouble() * 1800);
+            detection.put("y2", random.nextDouble() * 1000);
+            detections.add(detection);
+        }
+        payload = Map.of("detections", detections);
+    }
+
+    @Benchmark
+    public List<Detection> parse() {
+        return ModelClient.parse(payload);
+    }
+
+    @Benchmark
+    public void labelForValue(Blackhole blackhole) {
+        for (int id : ids)
+            blackhole.consume(EnumLabels.getLabelForValue(id));
+    }
+
+    @Benchmark
+    public void colorForLabel(Blackhole blackhole) {
+        for (String label : labels)
+            blackhole.consume(EnumLabels.getColorForLabel(label));
+    }
+}
@@ -0,0 +1,123 @@
+package com.Idkode.backend.benchmark;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import com.Idkode.backend.repository.ImageRepository;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mongo for the repository benchmarks: the database at BENCH_MONGO_URI when set,
+ * otherwise a throwaway container of the version docker-compose runs.
+ * <p>
+ * The repository is built on a plain {@link MongoTemplate}, so the derived and {@code @Aggregation}
+ * queries run exactly as in the application, without starting the Spring context.
+ */
+class MongoHarness implements AutoCloseable {
+
+    static final String IMAGE = "mongo:4.0.6";
+
+    private final MongoDBContainer container;
+    private final MongoClient client;
+    private final MongoTemplate mongoTemplate;
+    private final ImageRepository imageRepository;
+
+    MongoHarness() {
+        String uri = System.getenv("BENCH_MONGO_URI");
+        if (uri == null) {
+            container = new MongoDBContainer(DockerImageName.parse(IMAGE));
+            container.start();
+            uri = container.getReplicaSetUrl("traffic_bench");
+        } else {
+            container = null;
+        }
+        String database = uri.substring(uri.lastIndexOf('/') + 1).split("\\?")[0];
+        client = MongoClients.create(uri);
+        mongoTemplate = new MongoTemplate(client, database);
+        imageRepository = new MongoRepositoryFactory(mongoTemplate).getRepository(ImageRepository.class);
+        ensureIndexes();
+    }
+
+    private void ensureIndexes() {
+        MongoMappingContext mappingContext = (MongoMappingContext) mongoTemplate.getConverter().getMappingContext();
+        IndexOperations indexOps = mongoTemplate.indexOps(Image.class);
+        new MongoPersistentEntityIndexResolver(mappingContext).resolveIndexFor(Image.class).forEach(indexOps::ensureIndex);
+    }
+
+    MongoTemplate getMongoTemplate() {
+        return mongoTemplate;
+    }
+
+    ImageRepository getImageRepository() {
+        return imageRepository;
+    }
+
+    /**
+     * Replaces the images with a synthetic set: every camera has one image every interval seconds for each day
+     *
+     * @param cameras  number of cameras
+     * @param days     number of days, ending on the day before first + days
+     * @param first    the first day
+     * @param interval seconds between two images of a camera
+     */
+    void seed(int cameras, int days, LocalDate first, int interval) {
+        mongoTemplate.remove(new Query(), Image.class);
+        Random random = new Random(42);
+        EnumLabels[] labels = EnumLabels.values();
+        List<Image> batch = new ArrayList<>(10_000);
+        int perDay = 24 * 60 * 60 / interval;
+        for (int day = 0; day < days; day++) {
+            LocalDateTime start = first.plusDays(day).atStartOfDay();
+            for (int camera = 0; camera < cameras; camera++) {
+                for (int i = 0; i < perDay; i++) {
+                    List<Detection> detections = new ArrayList<>();
+                    for (int d = random.nextInt(30); d > 0; d--) {
+                        double x1 = random.nextInt(1800);
+                        double y1 = random.nextInt(1000);
+                        detections.add(new Detection(random.nextDouble(), labels[random.nextInt(labels.length)].getLabel(),
+                                x1, y1, x1 + 50, y1 + 50));
+                    }
+                    Image image = new Image();
+                    image.setCamera(camera(camera));
+                    image.setDatetime(start.plusSeconds((long) i * interval));
+                    image.setName(image.getDatetime() + ".jpg");
+                    image.setPath(image.getCamera() + "/" + image.getName());
+                    image.setDetections(detections, true);
+                    batch.add(image);
+                    if (batch.size() == 10_000) {
+                        mongoTemplate.insertAll(batch);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty())
+            mongoTemplate.insertAll(batch);
+    }
+
+    static String camera(int index) {
+        return "camera-" + index;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        if (container != null)
+            container.stop();
+    }
+}
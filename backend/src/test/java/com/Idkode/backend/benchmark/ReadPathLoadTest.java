@@ -0,0 +1,140 @@
+package com.Idkode.backend.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of the dashboard read endpoints: each client sends its next request as soon as
+ * the previous one is answered, mixing /cameras, /general, /specific/less and thumbnail /specific.
+ * Prints throughput and latency percentiles for every target, so a build with {@code QUERY_ASYNC=false}
+ * (blocking, on the request thread) can be compared with the default async read path.
+ * <p>
+ * Needs running backends with images on LOAD_DATE. Raise the open files limit first for 1000 clients.
+ * <pre>
+ * LOAD_TARGETS=http://localhost:8081/api,http://localhost:8082/api LOAD_DATE=2025-05-01 \
+ *   LOAD_CLIENTS=1000 LOAD_SECONDS=60 \
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.Idkode.backend.benchmark.ReadPathLoadTest
+ * </pre>
+ */
+public class ReadPathLoadTest {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH-mm-ss");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private record Frame(String camera, LocalDateTime datetime) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] targets = System.getenv().getOrDefault("LOAD_TARGETS", "http://localhost:8081/api").split(",");
+        LocalDate date = LocalDate.parse(System.getenv().getOrDefault("LOAD_DATE", LocalDate.now().toString()));
+        int clients = Integer.parseInt(System.getenv().getOrDefault("LOAD_CLIENTS", "1000"));
+        int seconds = Integer.parseInt(System.getenv().getOrDefault("LOAD_SECONDS", "60"));
+        int warmup = Integer.parseInt(System.getenv().getOrDefault("LOAD_WARMUP_SECONDS", "10"));
+
+        System.out.printf("%-40s %10s %10s %10s %10s %10s %8s%n", "target", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (String target : targets) {
+            HttpClient http = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            List<String> paths = paths(http, target, date);
+            run(http, target, paths, clients, warmup);
+            Result result = run(http, target, paths, clients, seconds);
+            Histogram latency = result.latency();
+            System.out.printf("%-40s %10.0f %10.1f %10.1f %10.1f %10.1f %8d%n", target,
+                    latency.getTotalCount() / (double) seconds,
+                    latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                    latency.getValueAtPercentile(99.9) / 1e3, latency.getMaxValue() / 1e3, result.errors());
+        }
+    }
+
+    /**
+     * Finds the cameras and some frames of the day, then builds the request mix from them
+     */
+    private static List<String> paths(HttpClient http, String target, LocalDate date) throws Exception {
+        JsonNode cameras = get(http, target + "/image/cameras?date=" + date);
+        List<Frame> frames = new ArrayList<>();
+        for (JsonNode camera : cameras) {
+            JsonNode page = get(http, target + "/image/range?camera=" + encode(camera.asText())
+                    + "&from=" + date.atStartOfDay() + "&to=" + date.plusDays(1).atStartOfDay() + "&limit=100");
+            for (JsonNode item : page.get("items"))
+                frames.add(new Frame(item.get("camera").asText(), LocalDateTime.parse(item.get("datetime").asText())));
+        }
+        if (frames.isEmpty())
+            throw new IllegalStateException("No images on " + date + " at " + target);
+
+        List<String> paths = new ArrayList<>();
+        for (Frame frame : frames) {
+            String camera = encode(frame.camera());
+            String at = "camera=" + camera + "&date=" + date + "&time=" + frame.datetime().format(TIME);
+            paths.add("/image/cameras?date=" + date);
+            paths.add("/image/general?camera=" + camera + "&date=" + date + "&labels=true");
+            paths.add("/image/specific/less?" + at + "&labels=true");
+            paths.add("/image/specific?" + at + "&size=THUMBNAIL");
+        }
+        return paths;
+    }
+
+    private record Result(Histogram latency, long errors) {
+    }
+
+    private static Result run(HttpClient http, String target, List<String> paths, int clients, int seconds) throws Exception {
+        Recorder recorder = new Recorder(3);
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        List<CompletableFuture<Void>> loops = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++)
+            loops.add(loop(http, target, paths, recorder, errors, deadline));
+        CompletableFuture.allOf(loops.toArray(CompletableFuture[]::new)).get();
+        return new Result(recorder.getIntervalHistogram(), errors.get());
+    }
+
+    private static CompletableFuture<Void> loop(HttpClient http, String target, List<String> paths, Recorder recorder,
+                                                AtomicLong errors, long deadline) {
+        if (System.nanoTime() >= deadline)
+            return CompletableFuture.completedFuture(null);
+        String path = paths.get(ThreadLocalRandom.current().nextInt(paths.size()));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(target + path)).timeout(Duration.ofSeconds(30)).build();
+        long start = System.nanoTime();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    if (error != null || response.statusCode() >= 400)
+                        errors.incrementAndGet();
+                    else
+                        recorder.recordValue((System.nanoTime() - start) / 1000);
+                    return null;
+                })
+                .thenCompose(ignored -> loop(http, target, paths, recorder, errors, deadline));
+    }
+
+    private static JsonNode get(HttpClient http, String url) throws Exception {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+            throw new IllegalStateException(url + " answered " + response.statusCode());
+        return MAPPER.readTree(response.body());
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
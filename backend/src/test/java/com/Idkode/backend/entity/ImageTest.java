@@ -0,0 +1,106 @@
+package com.Idkode.backend.entity;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.Idkode.backend.TestMongo.DETECTIONS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageTest {
+
+    @Test
+    void compactDetectionsAreDecodedAndCounted() {
+        Image image = new Image();
+        image.setDetections(DETECTIONS, true);
+
+        assertNotNull(image.getPackedDetections());
+        assertEquals(DETECTIONS, image.getDetections());
+        assertEquals(3, image.getDetectionCount());
+        assertEquals(Map.of("Car", 2, "Bus", 1), image.getLabelCounts());
+    }
+
+    @Test
+    void switchingFormatDropsTheOtherOne() {
+        Image image = new Image();
+        image.setDetections(DETECTIONS, true);
+        image.setDetections(DETECTIONS.subList(0, 1), false);
+
+        assertNull(image.getPackedDetections());
+        assertEquals(1, image.getDetections().size());
+
+        image.setDetections(DETECTIONS, true);
+        assertEquals(3, image.getDetections().size());
+    }
+
+    @Test
+    void nullDetectionsClearEverything() {
+        Image image = new Image();
+        image.setDetections(DETECTIONS, true);
+        image.setDetections(null, true);
+
+        assertNull(image.getDetections());
+        assertNull(image.getPackedDetections());
+        assertNull(image.getDetectionCount());
+        assertNull(image.getLabelCounts());
+    }
+
+    @Test
+    void legacyDocumentIsReadFromTheSubdocuments() {
+        Document legacy = new Document("_id", "legacy")
+                .append("camera", "camera-1")
+                .append("detections", List.of(
+                        new Document("confidence", 0.9).append("label", "Car")
+                                .append("x1", 10.0).append("y1", 20.0).append("x2", 110.0).append("y2", 90.0),
+                        new Document("confidence", 0.8).append("label", "Bus")
+                                .append("x1", 200.0).append("y1", 40.0).append("x2", 380.0).append("y2", 160.0)));
+
+        Image image = converter().read(Image.class, legacy);
+
+        assertNull(image.getPackedDetections());
+        assertNull(image.getDetectionCount());
+        assertEquals(2, image.getDetections().size());
+        assertEquals("Bus", image.getDetections().get(1).getLabel());
+    }
+
+    @Test
+    void compactDocumentIsDecodedOnRead() {
+        Image written = new Image();
+        written.setId("compact");
+        written.setDetections(DETECTIONS, true);
+        Document document = new Document();
+        MappingMongoConverter converter = converter();
+        converter.write(written, document);
+
+        assertFalse(document.containsKey("detections"));
+        assertInstanceOf(byte[].class, document.get("packedDetections"));
+        assertEquals(3, document.get("detectionCount"));
+
+        Image image = converter.read(Image.class, document);
+        assertEquals(DETECTIONS, image.getDetections());
+    }
+
+    @Test
+    void documentWithoutDetectionsHasNone() {
+        Image image = converter().read(Image.class, new Document("_id", "queued").append("camera", "camera-1"));
+
+        assertNull(image.getDetections());
+    }
+
+    private static MappingMongoConverter converter() {
+        MongoCustomConversions conversions = MongoCustomConversions.create(adapter -> {
+        });
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+}
@@ -0,0 +1,127 @@
+package com.Idkode.backend.entity;
+
+import com.Idkode.backend.entity.enumeration.EnumLabels;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedDetectionsTest {
+
+    @Test
+    void roundTripStaysWithinTheQuantizationStep() {
+        Random random = new Random(7);
+        EnumLabels[] labels = EnumLabels.values();
+        List<Detection> detections = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double x1 = random.nextDouble() * 6000;
+            double y1 = random.nextDouble() * 4000;
+            detections.add(new Detection(random.nextDouble(), labels[i % labels.length].getLabel(),
+                    x1, y1, x1 + random.nextDouble() * 500, y1 + random.nextDouble() * 500));
+        }
+
+        byte[] packed = PackedDetections.encode(detections);
+        List<Detection> decoded = PackedDetections.decode(packed);
+
+        assertEquals(5 + 11 * detections.size(), packed.length);
+        assertEquals(detections.size(), decoded.size());
+        for (int i = 0; i < detections.size(); i++) {
+            Detection expected = detections.get(i);
+            Detection actual = decoded.get(i);
+            assertEquals(expected.getLabel(), actual.getLabel());
+            // Rounding to the nearest step is off by at most half a step
+            assertEquals(expected.getConfidence(), actual.getConfidence(), 0.5 / 10_000 + 1e-12);
+            assertEquals(expected.getX1(), actual.getX1(), 0.05 + 1e-9);
+            assertEquals(expected.getY1(), actual.getY1(), 0.05 + 1e-9);
+            assertEquals(expected.getX2(), actual.getX2(), 0.05 + 1e-9);
+            assertEquals(expected.getY2(), actual.getY2(), 0.05 + 1e-9);
+        }
+    }
+
+    @Test
+    void valuesOnTheGridRoundTripExactly() {
+        Detection detection = new Detection(0.8765, "Bus", 12.3, 0.0, 1919.9, 1080.0);
+
+        assertEquals(List.of(detection), PackedDetections.decode(PackedDetections.encode(List.of(detection))));
+    }
+
+    @Test
+    void outOfRangeCoordinatesAreClamped() {
+        Detection detection = new Detection(1.5, "Car", -3.0, -0.04, 7000.0, 6553.4);
+
+        Detection decoded = PackedDetections.decode(PackedDetections.encode(List.of(detection))).get(0);
+
+        assertEquals(0.0, decoded.getX1());
+        assertEquals(0.0, decoded.getY1());
+        // 6553.5 would be the missing value marker, so the largest coordinate is 6553.4
+        assertEquals(6553.4, decoded.getX2());
+        assertEquals(6553.4, decoded.getY2());
+        // A confidence above 1 still fits the unsigned short
+        assertEquals(1.5, decoded.getConfidence());
+    }
+
+    @Test
+    void missingValuesAndUnknownLabelsDecodeAsNull() {
+        Detection detection = new Detection(null, "Tractor", null, 5.0, null, 7.0);
+
+        Detection decoded = PackedDetections.decode(PackedDetections.encode(List.of(detection))).get(0);
+
+        assertNull(decoded.getConfidence());
+        assertNull(decoded.getLabel());
+        assertNull(decoded.getX1());
+        assertEquals(5.0, decoded.getY1());
+        assertNull(decoded.getX2());
+        assertEquals(7.0, decoded.getY2());
+    }
+
+    @Test
+    void labelIdsAbove127DoNotDisturbTheBox() {
+        byte[] packed = PackedDetections.encode(List.of(new Detection(0.5, "Car", 1.0, 2.0, 3.0, 4.0)));
+        for (int id : new int[]{128, 200, 254}) {
+            // A byte above 127 is negative in Java; it must still be read as the id, which no label has yet
+            packed[5] = (byte) id;
+            Detection decoded = PackedDetections.decode(packed).get(0);
+            assertEquals(EnumLabels.getLabelForValue(id), decoded.getLabel());
+            assertEquals(new Detection(0.5, null, 1.0, 2.0, 3.0, 4.0), decoded);
+        }
+        packed[5] = (byte) 0xFF;
+        assertNull(PackedDetections.decode(packed).get(0).getLabel());
+    }
+
+    @Test
+    void everyKnownLabelRoundTrips() {
+        for (EnumLabels label : EnumLabels.values()) {
+            Detection detection = new Detection(0.5, label.getLabel(), 1.0, 2.0, 3.0, 4.0);
+            assertEquals(label.getLabel(), PackedDetections.decode(PackedDetections.encode(List.of(detection))).get(0).getLabel());
+        }
+    }
+
+    @Test
+    void emptyListIsOnlyTheHeader() {
+        byte[] packed = PackedDetections.encode(List.of());
+
+        assertEquals(5, packed.length);
+        assertTrue(PackedDetections.decode(packed).isEmpty());
+    }
+
+    @Test
+    void unknownVersionAndTruncatedInputAreRejected() {
+        byte[] packed = PackedDetections.encode(List.of(new Detection(0.5, "Car", 1.0, 2.0, 3.0, 4.0)));
+
+        byte[] otherVersion = packed.clone();
+        otherVersion[0] = 2;
+        assertThrows(IllegalArgumentException.class, () -> PackedDetections.decode(otherVersion));
+        assertThrows(IllegalArgumentException.class, () -> PackedDetections.decode(Arrays.copyOf(packed, packed.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> PackedDetections.decode(new byte[]{1, 0}));
+
+        byte[] wrongCount = packed.clone();
+        ByteBuffer.wrap(wrongCount).order(ByteOrder.LITTLE_ENDIAN).putInt(1, 2);
+        assertThrows(IllegalArgumentException.class, () -> PackedDetections.decode(wrongCount));
+    }
+}
@@ -0,0 +1,101 @@
+package com.Idkode.backend.repository;
+
+import com.Idkode.backend.TestMongo;
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.repository.projection.ImageCount;
+import com.Idkode.backend.repository.projection.LabelCount;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.Idkode.backend.TestMongo.DETECTIONS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The count queries over a mix of images stored before the compact format, with only the detection
+ * subdocuments, and after it, with the packed boxes and the stored counts
+ */
+class ImageRepositoryTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 3, 1, 8, 0);
+
+    @RegisterExtension
+    static final TestMongo mongo = new TestMongo(Image.class);
+
+    private static ImageRepository imageRepository;
+
+    @BeforeAll
+    static void start() {
+        imageRepository = mongo.getRepository(ImageRepository.class);
+        MongoTemplate mongoTemplate = mongo.getMongoTemplate();
+
+        // Written as the documents were before the compact format: subdocuments, no counts
+        mongoTemplate.getCollection("images").insertOne(new Document("camera", "camera-1")
+                .append("datetime", T0)
+                .append("detections", DETECTIONS.stream().map(detection -> new Document("confidence", detection.getConfidence())
+                        .append("label", detection.getLabel())
+                        .append("x1", detection.getX1()).append("y1", detection.getY1())
+                        .append("x2", detection.getX2()).append("y2", detection.getY2())).toList()));
+        mongoTemplate.insert(image(T0.plusMinutes(1), DETECTIONS, true));
+        mongoTemplate.insert(image(T0.plusMinutes(2), DETECTIONS.subList(2, 3), false));
+        mongoTemplate.insert(image(T0.plusMinutes(3), List.of(), true));
+        // Not detected yet: neither format, left out of the counts
+        mongoTemplate.insert(image(T0.plusMinutes(4), null, true));
+    }
+
+    private static Image image(LocalDateTime datetime, List<Detection> detections, boolean compact) {
+        Image image = new Image();
+        image.setCamera("camera-1");
+        image.setDatetime(datetime);
+        image.setDetections(detections, compact);
+        return image;
+    }
+
+    @Test
+    void countsReadStoredCountsAndFallBackToSubdocuments() {
+        List<ImageCount> counts = imageRepository.countByCameraAndDatetimeRange("camera-1", T0, T0.plusHours(1));
+
+        assertEquals(List.of(T0, T0.plusMinutes(1), T0.plusMinutes(2), T0.plusMinutes(3)),
+                counts.stream().map(ImageCount::getDatetime).toList());
+        assertEquals(List.of(3, 3, 1, 0), counts.stream().map(ImageCount::getDetectionCount).toList());
+    }
+
+    @Test
+    void labelCountsReadStoredCountsAndFallBackToSubdocuments() {
+        List<ImageCount> counts = imageRepository.countLabelsByCameraAndDatetimeRange("camera-1", T0, T0.plusHours(1));
+
+        assertEquals(4, counts.size());
+        assertEquals(List.of(new LabelCount("Bus", 1), new LabelCount("Car", 2)), sorted(counts.get(0).getLabels()));
+        assertEquals(List.of(new LabelCount("Bus", 1), new LabelCount("Car", 2)), sorted(counts.get(1).getLabels()));
+        assertEquals(List.of(new LabelCount("Bus", 1)), sorted(counts.get(2).getLabels()));
+        assertTrue(counts.get(3).getLabels().isEmpty());
+    }
+
+    @Test
+    void singleImageCountsHandleBothFormats() {
+        assertEquals(3, imageRepository.countByCameraAndDatetime("camera-1", T0).get(0).getDetectionCount());
+        assertEquals(3, imageRepository.countByCameraAndDatetime("camera-1", T0.plusMinutes(1)).get(0).getDetectionCount());
+        assertTrue(imageRepository.countByCameraAndDatetime("camera-1", T0.plusMinutes(4)).isEmpty());
+        assertEquals(List.of(new LabelCount("Bus", 1), new LabelCount("Car", 2)),
+                sorted(imageRepository.countLabelsByCameraAndDatetime("camera-1", T0).get(0).getLabels()));
+    }
+
+    @Test
+    void legacyImageLoadsItsDetections() {
+        Image legacy = imageRepository.findByCameraAndDatetime("camera-1", T0).get(0);
+
+        assertEquals(DETECTIONS, legacy.getDetections());
+        assertNull(legacy.getDetectionCount());
+    }
+
+    private static List<LabelCount> sorted(List<LabelCount> labels) {
+        return labels.stream().sorted(Comparator.comparing(LabelCount::getLabel)).toList();
+    }
+}
@@ -0,0 +1,32 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Image;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnotationPrecomputerTest {
+
+    @Test
+    void imagesSharingAnOriginalGetTheirOwnRender() {
+        Image first = image("a", "camera-1/2025/01/01/abc.jpg", 1);
+        Image second = image("b", "camera-1/2025/01/01/abc.jpg", 1);
+
+        assertNotEquals(AnnotationPrecomputer.annotatedKey(first), AnnotationPrecomputer.annotatedKey(second));
+        assertEquals("camera-1/2025/01/01/abc.a.v1.annotated.jpg", AnnotationPrecomputer.annotatedKey(first));
+    }
+
+    @Test
+    void newDetectionsGetANewRender() {
+        assertNotEquals(AnnotationPrecomputer.annotatedKey(image("a", "camera-1/abc.jpg", 1)),
+                AnnotationPrecomputer.annotatedKey(image("a", "camera-1/abc.jpg", 2)));
+    }
+
+    private static Image image(String id, String path, int detectionsVersion) {
+        Image image = new Image();
+        image.setId(id);
+        image.setPath(path);
+        image.setDetectionsVersion(detectionsVersion);
+        return image;
+    }
+}
@@ -0,0 +1,218 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DetectionGateTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 5, 1, 10, 0);
+    private static final List<Detection> CARS = List.of(new Detection(0.9, "car", 10.0, 20.0, 50.0, 40.0));
+    private static final List<Detection> BUSES = List.of(new Detection(0.8, "bus", 60.0, 10.0, 120.0, 60.0));
+
+    private static final byte[] EMPTY = frame(null);
+    private static final byte[] BUSY = frame(new Color(200, 30, 30));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private DetectionGate gate(int maxSkips, long maxAgeSeconds) {
+        return new DetectionGate(meterRegistry, true, 24, 0.002, maxSkips, maxAgeSeconds);
+    }
+
+    /**
+     * Images of one camera, with the content to read for each
+     */
+    private static class Batch {
+        private final List<Image> images = new ArrayList<>();
+        private final Map<String, byte[]> frames = new LinkedHashMap<>();
+
+        private Batch add(String id, int second, byte[] content) {
+            images.add(image(id, second));
+            frames.put(id, content);
+            return this;
+        }
+
+        private DetectionGate.Plan plan(DetectionGate gate) {
+            return gate.plan(images, frames);
+        }
+    }
+
+    @Test
+    void unchangedFramesReuseTheDetectionsOfTheirReference() {
+        DetectionGate gate = gate(10, 60);
+        DetectionGate.Plan plan = new Batch()
+                .add("a", 0, EMPTY)
+                .add("b", 1, EMPTY)
+                .add("c", 2, BUSY)
+                .add("d", 3, BUSY)
+                .plan(gate);
+
+        assertTrue(plan.needsModel("a"));
+        assertFalse(plan.needsModel("b"));
+        assertTrue(plan.needsModel("c"));
+        assertFalse(plan.needsModel("d"));
+        assertEquals("a", plan.getSource("b"));
+        assertEquals("c", plan.getSource("d"));
+        assertNull(plan.getSource("a"));
+
+        Map<String, List<Detection>> results = new HashMap<>(Map.of("a", CARS, "c", BUSES));
+        gate.complete(plan, results);
+        assertEquals(CARS, results.get("b"));
+        assertEquals(BUSES, results.get("d"));
+        assertEquals(2.0, meterRegistry.counter("detection.gate", "camera", "camera-1", "outcome", "skipped").count());
+        assertEquals(2.0, meterRegistry.counter("detection.gate", "camera", "camera-1", "outcome", "model").count());
+    }
+
+    @Test
+    void reusedDetectionsAlwaysPointAtAFrameTheModelSaw() {
+        DetectionGate gate = gate(10, 60);
+        DetectionGate.Plan plan = new Batch().add("a", 0, EMPTY).add("b", 1, EMPTY).add("c", 2, EMPTY).plan(gate);
+
+        // c is inferred from a, never from b, whose detections were themselves copied
+        assertEquals("a", plan.getSource("b"));
+        assertEquals("a", plan.getSource("c"));
+        Map<String, List<Detection>> results = new HashMap<>(Map.of("a", CARS));
+        gate.complete(plan, results);
+        assertSame(CARS, results.get("c"));
+    }
+
+    @Test
+    void referenceCarriesOverToLaterBatches() {
+        DetectionGate gate = gate(10, 60);
+        DetectionGate.Plan first = new Batch().add("a", 0, EMPTY).plan(gate);
+        gate.complete(first, new HashMap<>(Map.of("a", CARS)));
+
+        DetectionGate.Plan second = new Batch().add("b", 5, EMPTY).plan(gate);
+        assertEquals("a", second.getSource("b"));
+        // Nothing went through the model, the detections come from the stored reference
+        Map<String, List<Detection>> results = new HashMap<>();
+        gate.complete(second, results);
+        assertEquals(Map.of("b", CARS), results);
+    }
+
+    @Test
+    void referenceIsDroppedAfterMaxSkipsEvenAcrossBatches() {
+        DetectionGate gate = gate(2, 60);
+        DetectionGate.Plan plan = new Batch().add("a", 0, EMPTY).add("b", 1, EMPTY).add("c", 2, EMPTY).add("d", 3, EMPTY).plan(gate);
+        assertTrue(plan.needsModel("a"));
+        assertEquals("a", plan.getSource("b"));
+        assertEquals("a", plan.getSource("c"));
+        assertTrue(plan.needsModel("d"));
+        gate.complete(plan, new HashMap<>(Map.of("a", CARS, "d", BUSES)));
+
+        // The reuses of each batch are added to the stored reference
+        for (int second = 4; second < 6; second++) {
+            DetectionGate.Plan next = new Batch().add("frame-" + second, second, EMPTY).plan(gate);
+            assertEquals("d", next.getSource("frame-" + second));
+            gate.complete(next, new HashMap<>());
+        }
+        assertTrue(new Batch().add("e", 6, EMPTY).plan(gate).needsModel("e"));
+    }
+
+    @Test
+    void referenceOlderThanMaxAgeIsNotReused() {
+        DetectionGate gate = gate(10, 30);
+        DetectionGate.Plan plan = new Batch().add("a", 0, EMPTY).add("b", 30, EMPTY).add("c", 61, EMPTY).plan(gate);
+        assertEquals("a", plan.getSource("b"));
+        assertTrue(plan.needsModel("c"));
+    }
+
+    @Test
+    void framesAreNotComparedWithANewerReference() {
+        DetectionGate gate = gate(10, 60);
+        gate.complete(new Batch().add("a", 10, EMPTY).plan(gate), new HashMap<>(Map.of("a", CARS)));
+
+        // A late frame from before the reference goes through the model and does not replace it
+        DetectionGate.Plan late = new Batch().add("late", 5, EMPTY).plan(gate);
+        assertTrue(late.needsModel("late"));
+        gate.complete(late, new HashMap<>(Map.of("late", BUSES)));
+
+        Map<String, List<Detection>> results = new HashMap<>();
+        DetectionGate.Plan next = new Batch().add("b", 11, EMPTY).plan(gate);
+        gate.complete(next, results);
+        assertEquals("a", next.getSource("b"));
+        assertEquals(CARS, results.get("b"));
+    }
+
+    @Test
+    void framesWhoseReferenceFailedGetNoDetections() {
+        DetectionGate gate = gate(10, 60);
+        DetectionGate.Plan plan = new Batch().add("a", 0, EMPTY).add("b", 1, EMPTY).plan(gate);
+
+        // The model returned nothing for a, so b has nothing to copy and is retried with it
+        Map<String, List<Detection>> results = new HashMap<>();
+        gate.complete(plan, results);
+        assertTrue(results.isEmpty());
+        assertTrue(new Batch().add("c", 2, EMPTY).plan(gate).needsModel("c"));
+    }
+
+    @Test
+    void frameThatCannotBeReadOrDecodedGoesThroughTheModel() {
+        DetectionGate gate = gate(10, 60);
+        Batch batch = new Batch().add("a", 0, EMPTY).add("b", 1, new byte[]{1, 2, 3});
+        batch.images.add(image("missing", 2));
+        DetectionGate.Plan plan = batch.plan(gate);
+        assertTrue(plan.needsModel("b"));
+        assertTrue(plan.needsModel("missing"));
+    }
+
+    @Test
+    void disabledGateSendsEveryFrameToTheModel() {
+        DetectionGate gate = new DetectionGate(meterRegistry, false, 24, 0.002, 10, 60);
+        DetectionGate.Plan plan = new Batch().add("a", 0, EMPTY).add("b", 1, EMPTY).plan(gate);
+        assertTrue(plan.needsModel("a"));
+        assertTrue(plan.needsModel("b"));
+
+        Map<String, List<Detection>> results = new HashMap<>(Map.of("a", CARS));
+        gate.complete(plan, results);
+        assertEquals(Map.of("a", CARS), results);
+    }
+
+    private static Image image(String id, int second) {
+        Image image = new Image();
+        image.setId(id);
+        image.setCamera("camera-1");
+        image.setDatetime(T0.plusSeconds(second));
+        return image;
+    }
+
+    /**
+     * @param vehicle the color of a vehicle on the road, null for an empty road
+     */
+    private static byte[] frame(Color vehicle) {
+        BufferedImage image = new BufferedImage(256, 144, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(140, 160, 190));
+        graphics.fillRect(0, 0, 256, 60);
+        graphics.setColor(new Color(95, 95, 100));
+        graphics.fillRect(0, 60, 256, 84);
+        if (vehicle != null) {
+            graphics.setColor(vehicle);
+            graphics.fillRect(100, 90, 60, 30);
+        }
+        graphics.dispose();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
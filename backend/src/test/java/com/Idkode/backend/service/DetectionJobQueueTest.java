@@ -0,0 +1,267 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.TestMongo;
+import com.Idkode.backend.entity.DetectionJob;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumJobState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DetectionJobQueueTest {
+
+    private static final long BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    @RegisterExtension
+    static final TestMongo mongo = new TestMongo(DetectionJob.class, Image.class);
+
+    private static DetectionJobQueue queue(MongoTemplate mongoTemplate, long leaseMillis, int maxAttempts) {
+        return queue(mongoTemplate, leaseMillis, maxAttempts, 0);
+    }
+
+    private static DetectionJobQueue queue(MongoTemplate mongoTemplate, long leaseMillis, int maxAttempts, int partitionCount) {
+        DetectionPartitions partitions = new DetectionPartitions(mongoTemplate, partitionCount, 15_000, new SimpleMeterRegistry());
+        return new DetectionJobQueue(mongoTemplate, partitions, leaseMillis, maxAttempts, BACKOFF_MS, MAX_BACKOFF_MS);
+    }
+
+    private static List<Image> images(int count) {
+        List<Image> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Image image = new Image();
+            image.setId("image-" + i);
+            image.setCamera("camera-" + i % 3);
+            image.setPath("camera/" + i + ".jpg");
+            images.add(image);
+        }
+        return images;
+    }
+
+    @Test
+    void backoffGrowsExponentiallyAndIsCapped() {
+        DetectionJobQueue queue = queue(null, 60_000, 5);
+        for (int attempts = 1; attempts <= 40; attempts++) {
+            long ceiling = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << Math.min(attempts - 1, 20));
+            for (int i = 0; i < 100; i++) {
+                long backoff = queue.backoff(attempts);
+                assertTrue(backoff >= ceiling / 2 && backoff <= ceiling,
+                        "attempt " + attempts + " waited " + backoff + " outside [" + ceiling / 2 + ", " + ceiling + "]");
+            }
+        }
+        // Far past the shift width the cap still holds instead of overflowing
+        assertTrue(queue.backoff(Integer.MAX_VALUE) <= MAX_BACKOFF_MS);
+    }
+
+    @Test
+    void expiredLeaseIsClaimedAgainByAnotherWorker() throws Exception {
+        MongoTemplate mongoTemplate = mongo.clean();
+        DetectionJobQueue queue = queue(mongoTemplate, 200, 5);
+        queue.enqueue(images(1), DetectionJobQueue.PRIORITY_LIVE);
+
+        assertEquals(1, queue.claim("worker-a", 10, null).size());
+        assertTrue(queue.claim("worker-b", 10, null).isEmpty(), "a live lease must not be claimed");
+
+        Thread.sleep(300);
+        List<DetectionJob> reclaimed = queue.claim("worker-b", 10, null);
+        assertEquals(1, reclaimed.size());
+        assertEquals("worker-b", reclaimed.get(0).getLeaseOwner());
+
+        // The worker that lost the lease can no longer complete or fail the job
+        queue.complete("worker-a", List.of("image-0"));
+        assertEquals(1, mongoTemplate.count(new Query(), DetectionJob.class));
+        queue.complete("worker-b", List.of("image-0"));
+        assertEquals(0, mongoTemplate.count(new Query(), DetectionJob.class));
+    }
+
+    @Test
+    void failedJobWaitsForItsBackoffThenGoesDeadAfterMaxAttempts() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 3);
+        queue.enqueue(images(1), DetectionJobQueue.PRIORITY_LIVE);
+
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            // Make the job claimable again without waiting out the backoff
+            mongoTemplate.updateFirst(new Query(), new Update()
+                    .set("availableAt", Instant.now().minusSeconds(1)), DetectionJob.class);
+            List<DetectionJob> claimed = queue.claim("worker-a", 10, null);
+            assertEquals(1, claimed.size());
+            Instant failedAt = Instant.now();
+            List<String> dead = queue.fail("worker-a", claimed, "model error");
+
+            DetectionJob job = mongoTemplate.findById("image-0", DetectionJob.class);
+            assertEquals(attempt, job.getAttempts());
+            assertEquals("model error", job.getLastError());
+            assertNull(job.getLeaseOwner());
+            if (attempt < 3) {
+                assertTrue(dead.isEmpty());
+                assertEquals(EnumJobState.READY, job.getState());
+                long ceiling = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << (attempt - 1));
+                Duration wait = Duration.between(failedAt, job.getAvailableAt());
+                assertTrue(wait.toMillis() >= ceiling / 2 - 100 && wait.toMillis() <= ceiling + 100, wait.toString());
+                assertTrue(queue.claim("worker-a", 10, null).isEmpty(), "claimed before its backoff ran out");
+            } else {
+                assertEquals(List.of("image-0"), dead);
+                assertEquals(EnumJobState.DEAD, job.getState());
+            }
+        }
+        mongoTemplate.updateFirst(new Query(), new Update()
+                .set("availableAt", Instant.now().minusSeconds(1)), DetectionJob.class);
+        assertTrue(queue.claim("worker-a", 10, null).isEmpty(), "a DEAD job must never be claimed");
+    }
+
+    @Test
+    void releaseDoesNotCountAnAttempt() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 1);
+        queue.enqueue(images(1), DetectionJobQueue.PRIORITY_LIVE);
+
+        queue.release("worker-a", List.of(queue.claim("worker-a", 1, null).get(0).getId()), Duration.ZERO);
+
+        DetectionJob job = mongoTemplate.findById("image-0", DetectionJob.class);
+        assertEquals(EnumJobState.READY, job.getState());
+        assertEquals(0, job.getAttempts());
+        assertEquals(1, queue.claim("worker-b", 1, null).size());
+    }
+
+    @Test
+    void concurrentWorkersNeverClaimTheSameJob() throws Exception {
+        MongoTemplate mongoTemplate = mongo.clean();
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 5);
+        int jobs = 500;
+        queue.enqueue(images(jobs), DetectionJobQueue.PRIORITY_LIVE);
+
+        int workers = 8;
+        ConcurrentLinkedQueue<String> claimed = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                String owner = "worker-" + w;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    // Workers see overlapping candidates, only the conditional update decides who gets them,
+                    // so a worker may come back empty-handed while jobs are left
+                    while (queue.countReady() > 0)
+                        queue.claim(owner, 16, null).forEach(job -> claimed.add(job.getId()));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures)
+                future.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Set<String> unique = new HashSet<>(claimed);
+        assertEquals(claimed.size(), unique.size(), "a job was claimed by two workers");
+        assertEquals(jobs, unique.size());
+    }
+
+    @Test
+    void jobsPartitionedUnderAHigherCountAreStillClaimed() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        List<Image> images = images(30);
+        // Queued while detection.partitions.count was 64, every camera of the test lands past 4
+        queue(mongoTemplate, 60_000, 5, 64).enqueue(images, DetectionJobQueue.PRIORITY_LIVE);
+        assertEquals(images.size(), mongoTemplate.count(Query.query(Criteria.where("partition").gte(4)), DetectionJob.class));
+
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 5, 4);
+        Set<String> claimed = new HashSet<>();
+        for (int partition = 0; partition < 4; partition++)
+            queue.claim("worker-" + partition, 100, Set.of(partition)).forEach(job -> claimed.add(job.getId()));
+        assertEquals(images.size(), claimed.size(), "jobs past the partition count were stranded");
+    }
+
+    @Test
+    void repartitionMovesJobsToThePartitionOfTheirCamera() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        List<Image> images = images(30);
+        images.forEach(mongoTemplate::insert);
+        queue(mongoTemplate, 60_000, 5, 64).enqueue(images, DetectionJobQueue.PRIORITY_LIVE);
+        // A job whose image was removed in the meantime, it was past the count too
+        Image gone = new Image();
+        gone.setId("gone");
+        gone.setCamera("camera-gone");
+        queue(mongoTemplate, 60_000, 5, 64).enqueue(List.of(gone), DetectionJobQueue.PRIORITY_LIVE);
+        long stale = mongoTemplate.count(Query.query(Criteria.where("partition").gte(4)), DetectionJob.class);
+
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 5, 4);
+        assertEquals(stale, queue.repartition());
+        assertEquals(0, queue.repartition());
+
+        DetectionPartitions partitions = new DetectionPartitions(null, 4, 15_000, new SimpleMeterRegistry());
+        for (Image image : images)
+            assertEquals(partitions.partitionOf(image.getCamera()),
+                    mongoTemplate.findById(image.getId(), DetectionJob.class).getPartition(), image.getId());
+        assertNull(mongoTemplate.findById("gone", DetectionJob.class).getPartition());
+    }
+
+    @Test
+    void reprocessingALeasedJobRunsItAgainAfterItsWorkerCompletes() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 5);
+        List<Image> images = images(2);
+        images.forEach(image -> image.setDatetime(LocalDate.of(2025, 1, 1).atTime(12, 0)));
+        images.forEach(mongoTemplate::insert);
+        queue.enqueue(images, DetectionJobQueue.PRIORITY_LIVE);
+        // image-0 is being run and already failed once, image-1 waits
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is("image-0")), new Update().set("attempts", 1), DetectionJob.class);
+        assertEquals(List.of("image-0"), queue.claim("worker-a", 1, null).stream().map(DetectionJob::getId).toList());
+
+        assertEquals(2, queue.reprocess(null, LocalDate.of(2025, 1, 1), LocalDate.of(2025, 1, 1)));
+
+        // The running job is left to its worker
+        DetectionJob running = mongoTemplate.findById("image-0", DetectionJob.class);
+        assertEquals(EnumJobState.LEASED, running.getState());
+        assertEquals("worker-a", running.getLeaseOwner());
+        assertEquals(1, running.getAttempts());
+        assertTrue(running.getRerun());
+        // The waiting live upload is not pushed behind reprocessing
+        assertEquals(DetectionJobQueue.PRIORITY_LIVE, mongoTemplate.findById("image-1", DetectionJob.class).getPriority());
+        assertEquals(List.of("image-1"), queue.claim("worker-b", 10, null).stream().map(DetectionJob::getId).toList());
+
+        // Once completed, the job runs again instead of being removed
+        queue.complete("worker-a", List.of("image-0"));
+        DetectionJob rerun = mongoTemplate.findById("image-0", DetectionJob.class);
+        assertEquals(EnumJobState.READY, rerun.getState());
+        assertNull(rerun.getRerun());
+        assertEquals(0, rerun.getAttempts());
+        assertEquals(1, queue.claim("worker-b", 10, null).size());
+        queue.complete("worker-b", List.of("image-0", "image-1"));
+        assertEquals(0, mongoTemplate.count(new Query(), DetectionJob.class));
+    }
+
+    @Test
+    void jobsWaitingOutABackoffAreNotCountedAsReady() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        DetectionJobQueue queue = queue(mongoTemplate, 60_000, 5);
+        queue.enqueue(images(3), DetectionJobQueue.PRIORITY_LIVE);
+        assertEquals(3, queue.countReady());
+
+        queue.fail("worker-a", queue.claim("worker-a", 1, null), "model error");
+        queue.release("worker-a", List.of(queue.claim("worker-a", 1, null).get(0).getId()), Duration.ofMinutes(1));
+        assertEquals(1, queue.countReady());
+    }
+}
@@ -0,0 +1,121 @@
+package com.Idkode.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameSignatureTest {
+
+    /** The defaults of detection.dedup.pixel-delta and detection.dedup.max-changed */
+    private static final int PIXEL_DELTA = 24;
+    private static final double MAX_CHANGED = 0.002;
+    private static final double NOISE = 6;
+
+    private static final BufferedImage ROAD = road();
+    private static final byte[] REFERENCE = signature(ROAD, 1.0, 0, 1);
+
+    @Test
+    void sensorNoiseIsNotAChange() {
+        for (long seed = 2; seed < 5; seed++)
+            assertEquals(0.0, FrameSignature.changed(REFERENCE, signature(ROAD, 1.0, 0, seed), PIXEL_DELTA), "seed " + seed);
+    }
+
+    @Test
+    void lightingDriftIsNotAChange() {
+        // A cloud or the auto exposure shifts and scales every pixel at once
+        for (int offset : new int[]{-30, -10, 10, 20, 40})
+            assertTrue(changed(signature(ROAD, 1.0, offset, 3)) <= MAX_CHANGED, "offset " + offset);
+        for (double gain : new double[]{0.85, 1.1, 1.2})
+            assertTrue(changed(signature(ROAD, gain, 0, 3)) <= MAX_CHANGED, "gain " + gain);
+        assertTrue(changed(signature(ROAD, 1.15, -15, 3)) <= MAX_CHANGED);
+    }
+
+    @Test
+    void vehicleEnteringIsAChange() {
+        assertTrue(changed(signature(withVehicle(new Color(40, 40, 45)), 1.0, 0, 4)) > MAX_CHANGED, "dark car");
+        // About as bright as the asphalt, only its color sets it apart
+        assertTrue(changed(signature(withVehicle(new Color(200, 30, 30)), 1.0, 0, 4)) > MAX_CHANGED, "red car");
+        // The change of light is taken out, not the vehicle that came with it
+        assertTrue(changed(signature(withVehicle(new Color(40, 40, 45)), 1.1, 15, 4)) > MAX_CHANGED, "car at dusk");
+    }
+
+    @Test
+    void signaturesOfDifferentSizesAreFullyChanged() {
+        assertEquals(1.0, FrameSignature.changed(REFERENCE, new byte[FrameSignature.CELLS], PIXEL_DELTA));
+    }
+
+    @Test
+    void undecodableImageIsRejected() {
+        assertThrows(IOException.class, () -> FrameSignature.of(new byte[]{1, 2, 3}));
+    }
+
+    private static double changed(byte[] signature) {
+        return FrameSignature.changed(REFERENCE, signature, PIXEL_DELTA);
+    }
+
+    /**
+     * A 720p frame of an empty road: sky, asphalt with lane marks and some grass
+     */
+    private static BufferedImage road() {
+        BufferedImage image = new BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(150, 170, 200), 0, 300, new Color(120, 130, 140)));
+        graphics.fillRect(0, 0, 1280, 300);
+        graphics.setColor(new Color(95, 95, 100));
+        graphics.fillRect(0, 300, 1280, 420);
+        graphics.setColor(new Color(230, 230, 230));
+        for (int x = 0; x < 1280; x += 160)
+            graphics.fillRect(x, 500, 80, 8);
+        graphics.setColor(new Color(60, 90, 50));
+        graphics.fillRect(0, 250, 300, 120);
+        graphics.fillRect(1000, 230, 280, 140);
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage withVehicle(Color color) {
+        BufferedImage image = new BufferedImage(ROAD.getWidth(), ROAD.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.drawImage(ROAD, 0, 0, null);
+        graphics.setColor(color);
+        graphics.fillRect(600, 420, 100, 50);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * @return the signature of the frame as a camera would send it: under the given light, with sensor noise, as jpg
+     */
+    private static byte[] signature(BufferedImage frame, double gain, int offset, long seed) {
+        Random random = new Random(seed);
+        BufferedImage shot = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                int rgb = frame.getRGB(x, y);
+                int noise = (int) Math.round(random.nextGaussian() * NOISE);
+                int pixel = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int value = (int) Math.round(((rgb >> shift) & 0xFF) * gain) + offset + noise;
+                    pixel |= Math.max(0, Math.min(255, value)) << shift;
+                }
+                shot.setRGB(x, y, pixel);
+            }
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(shot, "jpg", out);
+            return FrameSignature.of(out.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
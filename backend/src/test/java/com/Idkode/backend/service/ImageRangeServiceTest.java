@@ -0,0 +1,164 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.TestMongo;
+import com.Idkode.backend.dtos.ImagePageDTO;
+import com.Idkode.backend.dtos.ImagePointDTO;
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.service.exception.InvalidRequestException;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageRangeServiceTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 5, 1, 10, 0);
+    private static final LocalDateTime T1 = T0.plusSeconds(30);
+
+    @RegisterExtension
+    static final TestMongo mongo = new TestMongo(Image.class);
+
+    @Test
+    void cursorRoundTrips() {
+        for (ImageRangeService.Cursor cursor : List.of(
+                new ImageRangeService.Cursor("camera-1", T0, "6650f0c2a1b2c3d4e5f60718"),
+                new ImageRangeService.Cursor("Av. Paulista / Rua 7 ção", T0.withNano(123_456_789), "x"),
+                new ImageRangeService.Cursor("camera-1", LocalDateTime.of(2025, 1, 1, 0, 0), ""))) {
+            String encoded = cursor.encode();
+            assertTrue(encoded.matches("[A-Za-z0-9_-]+"), "not url safe: " + encoded);
+            assertEquals(cursor, ImageRangeService.Cursor.decode(encoded));
+        }
+    }
+
+    @Test
+    void malformedCursorIsAnInvalidRequest() {
+        for (String cursor : List.of("not base64!", encode("camera-1\n" + T0), encode("camera-1\nyesterday\nid"),
+                encode("a\nb\nc\nd"), ""))
+            assertThrows(InvalidRequestException.class, () -> ImageRangeService.Cursor.decode(cursor), cursor);
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void invalidRangesAreRejected() {
+        ImageRangeService service = new ImageRangeService(null, 100);
+
+        assertThrows(InvalidRequestException.class, () -> service.findPage(List.of(), T0, T1, false, null, 10));
+        assertThrows(InvalidRequestException.class, () -> service.findPage(List.of("camera-1"), T1, T0, false, null, 10));
+        assertThrows(InvalidRequestException.class, () -> service.findPage(List.of("camera-1"), T0, T1, false, null, 0));
+    }
+
+    @Test
+    void pagesSplitImagesWithTheSameTimestampWithoutLosingOrRepeatingAny() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        List<Image> saved = new ArrayList<>();
+        // Seven frames stamped to the same second, so page boundaries fall between equal timestamps
+        for (int i = 0; i < 7; i++)
+            saved.add(insert(mongoTemplate, "camera-1", T0, i));
+        saved.add(insert(mongoTemplate, "camera-1", T1, 1));
+        saved.add(insert(mongoTemplate, "camera-1", T1, 2));
+        saved.add(insert(mongoTemplate, "camera-2", T0, 3));
+        saved.add(insert(mongoTemplate, "camera-2", T0, 4));
+        insert(mongoTemplate, "camera-3", T0, 5);
+        ImageRangeService service = new ImageRangeService(mongoTemplate, 100);
+
+        for (int size = 1; size <= 4; size++) {
+            List<ImagePointDTO> read = new ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                ImagePageDTO page = service.findPage(List.of("camera-2", "camera-1"), T0, T1.plusSeconds(1), true, cursor, size);
+                assertTrue(page.getItems().size() <= size);
+                read.addAll(page.getItems());
+                cursor = page.getNext();
+                assertTrue(++pages <= saved.size(), "pagination does not end");
+            } while (cursor != null);
+
+            List<String> expected = saved.stream()
+                    .sorted(Comparator.comparing(Image::getCamera).thenComparing(Image::getDatetime).thenComparing(Image::getId))
+                    .map(Image::getId)
+                    .toList();
+            assertEquals(expected, read.stream().map(ImagePointDTO::getId).toList(), "page size " + size);
+            assertEquals(read.size(), new HashSet<>(read).size());
+        }
+    }
+
+    @Test
+    void exportStreamsInPageOrder() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        for (int i = 0; i < 5; i++)
+            insert(mongoTemplate, "camera-1", T0, i);
+        insert(mongoTemplate, "camera-2", T0, 1);
+        ImageRangeService service = new ImageRangeService(mongoTemplate, 100);
+
+        List<ImagePointDTO> streamed = new ArrayList<>();
+        service.stream(List.of("camera-1", "camera-2"), T0, T1, true, streamed::add);
+
+        assertEquals(service.findPage(List.of("camera-1", "camera-2"), T0, T1, true, null, 100).getItems(), streamed);
+        assertEquals(Map.of("Car", 1), streamed.get(5).getLabels());
+    }
+
+    @Test
+    void rangeQueryReadsTheIndexInOrderWithoutASortStage() {
+        MongoTemplate mongoTemplate = mongo.clean();
+        for (int i = 0; i < 50; i++)
+            insert(mongoTemplate, "camera-" + i % 5, T0.plusSeconds(i / 5), i);
+        ImagePointDTO after = new ImageRangeService(mongoTemplate, 100)
+                .findPage(List.of("camera-1", "camera-3"), T0, T1, false, null, 3).getItems().get(2);
+
+        for (ImageRangeService.Cursor cursor : new ImageRangeService.Cursor[]{null,
+                new ImageRangeService.Cursor(after.getCamera(), after.getDatetime(), after.getId())}) {
+            Query query = ImageRangeService.query(List.of("camera-1", "camera-3"), T0, T1, true, cursor).limit(101);
+            MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(Image.class);
+            QueryMapper mapper = new QueryMapper(mongoTemplate.getConverter());
+            Document explain = mongoTemplate.getCollection("images")
+                    .find(mapper.getMappedObject(query.getQueryObject(), entity))
+                    .sort(mapper.getMappedSort(query.getSortObject(), entity))
+                    .hintString(ImageRangeService.INDEX)
+                    .limit(101)
+                    .explain();
+
+            Object plan = explain.get("queryPlanner", Document.class).get("winningPlan");
+            assertTrue(stages(plan).contains("IXSCAN"), explain.toJson());
+            assertFalse(stages(plan).contains("SORT"), "blocking sort in " + explain.toJson());
+        }
+    }
+
+    private static List<String> stages(Object plan) {
+        List<String> stages = new ArrayList<>();
+        if (plan instanceof Document document) {
+            if (document.get("stage") instanceof String stage)
+                stages.add(stage);
+            document.values().forEach(value -> stages.addAll(stages(value)));
+        } else if (plan instanceof List<?> list) {
+            list.forEach(value -> stages.addAll(stages(value)));
+        }
+        return stages;
+    }
+
+    private static Image insert(MongoTemplate mongoTemplate, String camera, LocalDateTime datetime, int index) {
+        Image image = new Image();
+        image.setCamera(camera);
+        image.setDatetime(datetime);
+        image.setPath(camera + "/" + index + ".jpg");
+        image.setDetections(List.of(new Detection(0.9, "Car", 1.0, 2.0, 3.0, 4.0)), true);
+        return mongoTemplate.insert(image);
+    }
+}
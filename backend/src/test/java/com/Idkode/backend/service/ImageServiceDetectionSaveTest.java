@@ -0,0 +1,136 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.TestMongo;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumDetectionStatus;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import com.Idkode.backend.service.storage.LocalImageStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.Idkode.backend.TestMongo.DETECTIONS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageServiceDetectionSaveTest {
+
+    @RegisterExtension
+    static final TestMongo mongo = new TestMongo(Image.class);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void derivativesAndDetectionsWrittenTogetherBothSurvive() throws Exception {
+        MongoTemplate mongoTemplate = mongo.getMongoTemplate();
+        LocalImageStorage storage = new LocalImageStorage(directory.toString());
+        AnnotationRenderer renderer = new AnnotationRenderer(0.85f, 0);
+        DerivativeService derivatives = new DerivativeService(renderer, mongoTemplate, storage, 960, 320, 1, 10);
+        List<Object> events = new CopyOnWriteArrayList<>();
+        ImageService images = new ImageService(null, mongoTemplate, events::add, null, renderer, derivatives,
+                storage, null, null, new SimpleMeterRegistry(), true);
+
+        List<Image> saved = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Image image = new Image();
+            image.setCamera("camera-1");
+            image.setDatetime(LocalDateTime.of(2025, 1, 1, 12, 0).plusSeconds(i));
+            image.setPath("camera-1/" + i + ".jpg");
+            image.setStatus(EnumDetectionStatus.QUEUED);
+            storage.write(image.getPath(), jpeg(1280, 720));
+            saved.add(mongoTemplate.insert(image));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (Image image : saved) {
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> derivative = executor.submit(() -> {
+                    start.await();
+                    derivatives.generate(image);
+                    return null;
+                });
+                Future<Boolean> detection = executor.submit(() -> {
+                    start.await();
+                    return images.saveDetections(image.getId(), DETECTIONS, null);
+                });
+                start.countDown();
+                derivative.get();
+                assertTrue(detection.get());
+            }
+        } finally {
+            executor.shutdownNow();
+            derivatives.stop();
+        }
+
+        for (Image image : saved) {
+            Image stored = mongoTemplate.findById(image.getId(), Image.class);
+            assertNotNull(stored);
+            assertEquals(1280, stored.getWidth());
+            assertEquals(720, stored.getHeight());
+            assertNotNull(stored.getDerivatives());
+            assertTrue(stored.getDerivatives().containsKey(EnumImageSize.MEDIUM));
+            assertTrue(stored.getDerivatives().containsKey(EnumImageSize.THUMBNAIL));
+            assertEquals(3, stored.getDetectionCount());
+            assertEquals(3, stored.getDetections().size());
+            assertEquals(1, stored.getDetectionsVersion());
+            assertEquals(EnumDetectionStatus.DONE, stored.getStatus());
+        }
+        assertEquals(saved.size(), events.size());
+    }
+
+    @Test
+    void detectionSaveReplacesPreviousDetectionsAndPublishesThem() {
+        MongoTemplate mongoTemplate = mongo.getMongoTemplate();
+        List<DetectionsSavedEvent> events = new CopyOnWriteArrayList<>();
+        ImageService images = new ImageService(null, mongoTemplate, event -> events.add((DetectionsSavedEvent) event),
+                null, null, null, null, null, null, new SimpleMeterRegistry(), false);
+
+        Image image = new Image();
+        image.setCamera("camera-2");
+        image.setDatetime(LocalDateTime.of(2025, 1, 1, 12, 0));
+        image.setPath("camera-2/a.jpg");
+        image.setDetections(DETECTIONS, true);
+        image.setDetectionsVersion(1);
+        image.setInferredFrom("earlier");
+        image = mongoTemplate.insert(image);
+
+        assertTrue(images.saveDetections(image.getId(), DETECTIONS.subList(0, 1), null));
+        assertFalse(images.saveDetections("missing", DETECTIONS, null));
+
+        Image stored = mongoTemplate.findById(image.getId(), Image.class);
+        assertNull(stored.getPackedDetections());
+        assertEquals(1, stored.getDetections().size());
+        assertEquals(1, stored.getDetectionCount());
+        assertEquals(2, stored.getDetectionsVersion());
+        assertNull(stored.getInferredFrom());
+
+        assertEquals(1, events.size());
+        assertEquals(3, events.get(0).getPreviousDetections().size());
+        assertEquals(2, events.get(0).getImage().getDetectionsVersion());
+        assertEquals(1, events.get(0).getImage().getDetections().size());
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.service.storage.LocalImageStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageServiceImageBytesTest {
+
+    @TempDir
+    Path directory;
+
+    private CountingStorage storage;
+    private DerivativeService derivatives;
+    private ImageService images;
+
+    /**
+     * Counts the round trips to storage
+     */
+    private static class CountingStorage extends LocalImageStorage {
+        private int calls;
+
+        private CountingStorage(String directory) {
+            super(directory);
+        }
+
+        @Override
+        public byte[] read(String key) throws IOException {
+            calls++;
+            return super.read(key);
+        }
+
+        @Override
+        public boolean exists(String key) {
+            calls++;
+            return super.exists(key);
+        }
+    }
+
+    @BeforeEach
+    void start() {
+        storage = new CountingStorage(directory.toString());
+        AnnotationRenderer renderer = new AnnotationRenderer(0.85f, 0);
+        derivatives = new DerivativeService(renderer, null, storage, 320, 80, 1, 10);
+        images = new ImageService(null, null, event -> {
+        }, new RenderedImageCache(10_000_000, new SimpleMeterRegistry()), renderer, derivatives, storage,
+                null, null, new SimpleMeterRegistry(), true);
+    }
+
+    @AfterEach
+    void stop() {
+        derivatives.stop();
+    }
+
+    private Image image(String id) throws IOException {
+        Image image = new Image();
+        image.setId(id);
+        image.setCamera("camera-1");
+        image.setDatetime(LocalDateTime.of(2025, 1, 1, 12, 0));
+        image.setPath("camera-1/" + id + ".jpg");
+        image.setWidth(640);
+        image.setHeight(360);
+        image.setDetections(List.of(new Detection(0.9, "Car", 10.0, 20.0, 110.0, 90.0)), true);
+        image.setDetectionsVersion(1);
+        Map<EnumImageSize, String> stored = new EnumMap<>(EnumImageSize.class);
+        stored.put(EnumImageSize.MEDIUM, image.getPath() + ".medium.jpg");
+        image.setDerivatives(stored);
+        image.setAnnotatedPath(image.getPath() + "." + id + ".v1.annotated.jpg");
+        image.setAnnotatedVersion(1);
+        storage.write(image.getPath(), jpeg(640, 360));
+        storage.write(image.getPath() + ".medium.jpg", jpeg(320, 180));
+        storage.write(image.getAnnotatedPath(), jpeg(640, 360));
+        return image;
+    }
+
+    @Test
+    void cachedImageIsServedWithoutReachingStorage() throws IOException {
+        Image image = image("a");
+        for (EnumImageSize size : List.of(EnumImageSize.ORIGINAL, EnumImageSize.MEDIUM))
+            for (boolean annotated : new boolean[]{false, true}) {
+                assertNotNull(images.loadImageBytes(image, annotated, size));
+                int calls = storage.calls;
+                assertNotNull(images.loadImageBytes(image, annotated, size));
+                assertEquals(calls, storage.calls, size + (annotated ? " annotated" : " raw"));
+            }
+    }
+
+    @Test
+    void storedFileIsReadOnceOnAMiss() throws IOException {
+        Image image = image("a");
+        assertArrayEquals(storage.read(image.getAnnotatedPath()), images.loadImageBytes(image, true, EnumImageSize.ORIGINAL));
+        storage.calls = 0;
+        assertNotNull(images.loadImageBytes(image, false, EnumImageSize.MEDIUM));
+        assertEquals(1, storage.calls);
+    }
+
+    @Test
+    void missingStoredFileIsRenderedAgain() throws IOException {
+        Image image = image("a");
+        storage.delete(image.getAnnotatedPath());
+        storage.delete(image.getPath() + ".medium.jpg");
+
+        BufferedImage annotated = AnnotationRenderer.decode(images.loadImageBytes(image, true, EnumImageSize.ORIGINAL));
+        assertEquals(640, annotated.getWidth());
+        BufferedImage medium = AnnotationRenderer.decode(images.loadImageBytes(image, false, EnumImageSize.MEDIUM));
+        assertEquals(320, medium.getWidth());
+        // Metadata alone decides which file is served, a missing one is up to the caller
+        assertEquals(image.getAnnotatedPath(), images.findServedFile(image, true, EnumImageSize.ORIGINAL));
+    }
+
+    @Test
+    void missingOriginalIsReported() throws IOException {
+        Image image = image("a");
+        storage.delete(image.getPath());
+        storage.delete(image.getAnnotatedPath());
+        assertThrows(NoSuchFileException.class, () -> images.loadImageBytes(image, true, EnumImageSize.ORIGINAL));
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", out);
+        return out.toByteArray();
+    }
+}
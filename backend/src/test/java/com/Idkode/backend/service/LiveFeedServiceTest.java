@@ -0,0 +1,125 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveFeedServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private LiveFeedService service;
+
+    @BeforeEach
+    void start() {
+        meterRegistry = new SimpleMeterRegistry();
+        // A single dispatcher, so a write that never returns would stall every other subscriber
+        service = new LiveFeedService(64, 60_000, 3600, 1, 200, meterRegistry);
+    }
+
+    @AfterEach
+    void stop() {
+        service.stop();
+    }
+
+    @Test
+    void clientThatStopsReadingIsDroppedWithoutStallingTheOthers() throws Exception {
+        NonReadingEmitter stalled = new NonReadingEmitter();
+        ReadingEmitter reading = new ReadingEmitter(5);
+        service.subscribe("camera-1", stalled);
+        service.subscribe("camera-1", reading);
+
+        for (int i = 0; i < 5; i++)
+            service.onDetectionsSaved(new DetectionsSavedEvent(image("image-" + i), null));
+
+        assertTrue(stalled.failed.await(5, TimeUnit.SECONDS), "the stalled subscriber was not dropped");
+        assertTrue(reading.received.await(5, TimeUnit.SECONDS), "the reading subscriber stopped receiving");
+        assertEquals(1, service.getSubscriberCount());
+        assertEquals(1.0, meterRegistry.counter("live.subscribers.evicted").count());
+
+        // The freed dispatcher keeps serving the remaining subscriber
+        ReadingEmitter later = new ReadingEmitter(1);
+        service.subscribe("camera-1", later);
+        service.onDetectionsSaved(new DetectionsSavedEvent(image("image-5"), null));
+        assertTrue(later.received.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void slowButProgressingClientIsKept() throws Exception {
+        ReadingEmitter slow = new ReadingEmitter(3) {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                super.send(builder);
+            }
+        };
+        service.subscribe(null, slow);
+
+        for (int i = 0; i < 3; i++)
+            service.onDetectionsSaved(new DetectionsSavedEvent(image("image-" + i), null));
+
+        assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        assertEquals(1, service.getSubscriberCount());
+    }
+
+    private static Image image(String id) {
+        Image image = new Image();
+        image.setId(id);
+        image.setCamera("camera-1");
+        image.setDatetime(LocalDateTime.of(2025, 1, 1, 12, 0));
+        image.setDetections(List.of(new Detection(0.9, "car", 1.0, 2.0, 3.0, 4.0)));
+        return image;
+    }
+
+    /**
+     * A client whose socket buffer is full: every write blocks until the thread is interrupted
+     */
+    private static class NonReadingEmitter extends SseEmitter {
+        private final CountDownLatch failed = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("write interrupted");
+            }
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            super.completeWithError(ex);
+            failed.countDown();
+        }
+    }
+
+    private static class ReadingEmitter extends SseEmitter {
+        private final CountDownLatch received;
+
+        private ReadingEmitter(int events) {
+            this.received = new CountDownLatch(events);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            received.countDown();
+        }
+    }
+}
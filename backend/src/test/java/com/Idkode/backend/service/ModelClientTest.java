@@ -0,0 +1,107 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.config.requests.RestTemplateConfig;
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.service.exception.ModelUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelClientTest {
+
+    private static final Map<String, Resource> FILES = Map.of("image-1", new ByteArrayResource(new byte[]{1, 2, 3}) {
+        @Override
+        public String getFilename() {
+            return "image-1.jpg";
+        }
+    });
+
+    private StubModelServer model;
+    private CloseableHttpClient httpClient;
+
+    @BeforeEach
+    void start() throws IOException {
+        model = new StubModelServer();
+        httpClient = RestTemplateConfig.httpClient(4, 500, 300, 30000);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        httpClient.close();
+        model.close();
+    }
+
+    private ModelClient client(int maxAttempts, int failureThreshold, long openMillis) {
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        return new ModelClient(restTemplate, model.url(), model.url() + "/batch", maxAttempts, 1, 5,
+                failureThreshold, openMillis, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void parsesDetections() {
+        Map<String, List<Detection>> detections = client(3, 5, 1000).detect(FILES);
+
+        assertEquals(1, detections.get("image-1").size());
+        assertEquals(0.9, detections.get("image-1").get(0).getConfidence());
+        assertEquals(1, model.requests());
+        assertTrue(model.lastBody().contains("name=\"file\"; filename=\"image-1\""), model.lastBody());
+    }
+
+    @Test
+    void retriesServerErrors() {
+        model.then(503, "{}").then(500, "{}");
+
+        Map<String, List<Detection>> detections = client(3, 5, 1000).detect(FILES);
+
+        assertEquals(1, detections.get("image-1").size());
+        assertEquals(3, model.requests());
+    }
+
+    @Test
+    void doesNotRetryBadRequests() {
+        model.then(400, "{}");
+
+        assertThrows(HttpClientErrorException.BadRequest.class, () -> client(3, 5, 1000).detect(FILES));
+        assertEquals(1, model.requests());
+    }
+
+    @Test
+    void timesOutOnHungModel() {
+        model.thenHang(2000).thenHang(2000);
+        ModelClient client = client(2, 5, 1000);
+
+        long start = System.nanoTime();
+        assertThrows(ModelUnavailableException.class, () -> client.detect(FILES));
+        assertTrue(System.nanoTime() - start < 1_500_000_000L, "read timeout should stop the call");
+    }
+
+    @Test
+    void opensCircuitAndRecovers() throws InterruptedException {
+        model.then(503, "{}").then(503, "{}");
+        ModelClient client = client(1, 2, 200);
+
+        assertThrows(ModelUnavailableException.class, () -> client.detect(FILES));
+        assertThrows(ModelUnavailableException.class, () -> client.detect(FILES));
+        assertFalse(client.isAvailable());
+        assertThrows(ModelUnavailableException.class, () -> client.detect(FILES));
+        assertEquals(2, model.requests(), "an open circuit should not reach the model");
+
+        Thread.sleep(250);
+        assertTrue(client.isAvailable());
+        assertEquals(1, client.detect(FILES).get("image-1").size());
+        assertTrue(client.isAvailable());
+    }
+}
@@ -0,0 +1,180 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.TestMongo;
+import com.Idkode.backend.dtos.ImageDTO;
+import com.Idkode.backend.entity.DetectionJob;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.ImageCountPoint;
+import com.Idkode.backend.entity.enumeration.EnumImageSize;
+import com.Idkode.backend.entity.enumeration.EnumRetentionTier;
+import com.Idkode.backend.repository.ImageRepository;
+import com.Idkode.backend.service.storage.LocalImageStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.Idkode.backend.TestMongo.DETECTIONS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetentionServiceTest {
+
+    @RegisterExtension
+    static final TestMongo mongo = new TestMongo(Image.class, DetectionJob.class, ImageCountPoint.class);
+
+    @TempDir
+    Path directory;
+
+    private MongoTemplate mongoTemplate;
+    private LocalImageStorage storage;
+    private ImageCountArchive archive;
+
+    @BeforeEach
+    void start() {
+        mongoTemplate = mongo.clean();
+        storage = new LocalImageStorage(directory.toString());
+        archive = new ImageCountArchive(mongoTemplate, false);
+    }
+
+    private RetentionService retention(int rawDays, int thumbnailDays, int batchSize) {
+        return new RetentionService(mongoTemplate, storage, archive, new SimpleMeterRegistry(),
+                true, rawDays, thumbnailDays, batchSize, 100);
+    }
+
+    /**
+     * An image with every file written: the original, its medium and thumbnail derivatives and an annotated render
+     */
+    private Image image(String id, String path, LocalDateTime datetime) throws IOException {
+        Image image = new Image();
+        image.setId(id);
+        image.setCamera("camera-1");
+        image.setDatetime(datetime);
+        image.setPath(path);
+        image.setDetections(DETECTIONS, true);
+        Map<EnumImageSize, String> derivatives = new EnumMap<>(EnumImageSize.class);
+        derivatives.put(EnumImageSize.MEDIUM, path + ".medium.jpg");
+        derivatives.put(EnumImageSize.THUMBNAIL, path + ".thumbnail.jpg");
+        image.setDerivatives(derivatives);
+        image.setAnnotatedPath(path + "." + id + ".annotated.jpg");
+        for (String key : List.of(path, path + ".medium.jpg", path + ".thumbnail.jpg", image.getAnnotatedPath()))
+            storage.write(key, new byte[]{1});
+        return mongoTemplate.insert(image);
+    }
+
+    @Test
+    void imagesMoveThroughTheTiersByAge() throws IOException {
+        LocalDateTime today = LocalDate.now().atStartOfDay().plusHours(12);
+        Image recent = image("recent", "camera-1/recent.jpg", today.minusDays(1));
+        Image old = image("old", "camera-1/old.jpg", today.minusDays(3));
+        Image expired = image("expired", "camera-1/expired.jpg", today.minusDays(6));
+
+        retention(2, 5, 10).compact();
+
+        Image stored = mongoTemplate.findById("recent", Image.class);
+        assertNull(stored.getRetention());
+        assertEquals(recent.getDerivatives(), stored.getDerivatives());
+        assertTrue(storage.exists(recent.getPath()));
+
+        stored = mongoTemplate.findById("old", Image.class);
+        assertEquals(EnumRetentionTier.THUMBNAIL, stored.getRetention());
+        assertEquals(Map.of(EnumImageSize.THUMBNAIL, "camera-1/old.jpg.thumbnail.jpg"), stored.getDerivatives());
+        assertNull(stored.getAnnotatedPath());
+        assertEquals(3, stored.getDetectionCount());
+        assertTrue(storage.exists("camera-1/old.jpg.thumbnail.jpg"));
+        assertFalse(storage.exists(old.getPath()));
+        assertFalse(storage.exists("camera-1/old.jpg.medium.jpg"));
+        assertFalse(storage.exists(old.getAnnotatedPath()));
+
+        assertNull(mongoTemplate.findById("expired", Image.class));
+        assertFalse(storage.exists(expired.getPath()));
+        assertFalse(storage.exists("camera-1/expired.jpg.thumbnail.jpg"));
+        List<ImageCountPoint> points = mongoTemplate.findAll(ImageCountPoint.class);
+        assertEquals(1, points.size());
+        assertEquals("expired", points.get(0).getId());
+        assertEquals(3, points.get(0).getDetectionCount());
+        assertEquals(Map.of("Car", 2, "Bus", 1), points.get(0).getLabelCounts());
+    }
+
+    @Test
+    void imageWithoutThumbnailKeepsItsOriginal() throws IOException {
+        Image image = image("small", "camera-1/small.jpg", LocalDateTime.now().minusDays(3));
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is("small")),
+                new Update().unset("derivatives"), Image.class);
+
+        assertEquals(1, retention(2, 0, 10).thumbnailBatch(LocalDateTime.now().minusDays(2)));
+
+        Image stored = mongoTemplate.findById("small", Image.class);
+        assertEquals(EnumRetentionTier.THUMBNAIL, stored.getRetention());
+        assertNull(stored.getDerivatives());
+        assertTrue(storage.exists(image.getPath()));
+        assertFalse(storage.exists(image.getAnnotatedPath()));
+    }
+
+    @Test
+    void filesSharedWithAnImageOutsideTheBatchAreKept() throws IOException {
+        // Two uploads with identical bytes share the original and its derivatives, only one is expired
+        Image expired = image("expired", "camera-1/shared.jpg", LocalDateTime.now().minusDays(10));
+        Image kept = image("kept", "camera-1/shared.jpg", LocalDateTime.now().minusHours(1));
+
+        assertEquals(1, retention(0, 5, 10).removeBatch(LocalDateTime.now().minusDays(5)));
+
+        assertNull(mongoTemplate.findById("expired", Image.class));
+        assertTrue(storage.exists("camera-1/shared.jpg"));
+        assertTrue(storage.exists("camera-1/shared.jpg.medium.jpg"));
+        assertTrue(storage.exists("camera-1/shared.jpg.thumbnail.jpg"));
+        assertTrue(storage.exists(kept.getAnnotatedPath()));
+        // The render of the removed image is its own
+        assertFalse(storage.exists(expired.getAnnotatedPath()));
+
+        // Once the last image pointing at them goes, so do the files
+        assertEquals(1, retention(0, 5, 10).removeBatch(LocalDateTime.now()));
+        assertFalse(storage.exists("camera-1/shared.jpg"));
+        assertFalse(storage.exists("camera-1/shared.jpg.thumbnail.jpg"));
+    }
+
+    @Test
+    void batchArchivedTwiceIsCountedOnce() throws IOException {
+        Image first = image("first", "camera-1/first.jpg", LocalDateTime.now().minusDays(10));
+        Image second = image("second", "camera-1/second.jpg", LocalDateTime.now().minusDays(10).plusMinutes(1));
+
+        // A run that failed after archiving, before removing the images, leaves the images to the next run
+        archive.archive(List.of(first, second));
+        assertEquals(2, retention(0, 5, 10).removeBatch(LocalDateTime.now().minusDays(5)));
+        archive.archive(List.of(first));
+
+        assertEquals(2, mongoTemplate.count(new Query(), ImageCountPoint.class));
+        assertEquals(2, archive.find("camera-1", first.getDatetime().minusMinutes(1), second.getDatetime().plusMinutes(1), false).size());
+    }
+
+    @Test
+    void dayPartlyArchivedIsReadFromBothSources() throws IOException {
+        LocalDate day = LocalDate.now().minusDays(10);
+        for (int i = 0; i < 4; i++)
+            image("image-" + i, "camera-1/" + i + ".jpg", day.atTime(8, i));
+        // Retention stopped after the two oldest images of the day
+        assertEquals(2, retention(0, 5, 2).removeBatch(day.plusDays(1).atStartOfDay()));
+
+        ImageService images = new ImageService(mongo.getRepository(ImageRepository.class), mongoTemplate, event -> {
+        }, null, null, null, storage, archive, null, new SimpleMeterRegistry(), true);
+
+        List<ImageDTO> counts = images.findImages("camera-1", day, null, null, true);
+        assertEquals(List.of(480, 481, 482, 483), counts.stream().map(ImageDTO::getTime).toList());
+        assertTrue(counts.stream().allMatch(count -> count.getNumber() == 3));
+
+        assertEquals(3, images.findImage("camera-1", day, day.atTime(8, 0).toLocalTime(), false).getNumber());
+        assertEquals(3, images.findImage("camera-1", day, day.atTime(8, 3).toLocalTime(), false).getNumber());
+    }
+}
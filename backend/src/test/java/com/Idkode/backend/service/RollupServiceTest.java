@@ -0,0 +1,106 @@
+package com.Idkode.backend.service;
+
+import com.Idkode.backend.TestMongo;
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.entity.Image;
+import com.Idkode.backend.entity.TrafficRollup;
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import com.Idkode.backend.repository.TrafficRollupRepository;
+import com.Idkode.backend.service.event.DetectionsSavedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static com.Idkode.backend.TestMongo.DETECTIONS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollupServiceTest {
+
+    @RegisterExtension
+    static final TestMongo mongo = new TestMongo(Image.class, TrafficRollup.class);
+
+    private static Image image(String camera, List<Detection> detections) {
+        Image image = new Image();
+        image.setCamera(camera);
+        image.setDatetime(LocalDateTime.of(2025, 1, 1, 12, 30, 15));
+        image.setDetections(detections);
+        return image;
+    }
+
+    private static TrafficRollup rollup(String camera, EnumGranularity granularity) {
+        return mongo.getMongoTemplate().findOne(Query.query(Criteria.where("camera").is(camera)
+                .and("granularity").is(granularity)), TrafficRollup.class);
+    }
+
+    @Test
+    void redetectionsAreNettedAgainstWhatWasCounted() {
+        MongoTemplate mongoTemplate = mongo.getMongoTemplate();
+        RollupService rollups = new RollupService(mongoTemplate, mongo.getRepository(TrafficRollupRepository.class));
+
+        // First detection
+        rollups.record(image("camera-1", DETECTIONS), null);
+        // Detected again with the same result
+        rollups.record(image("camera-1", DETECTIONS), DETECTIONS);
+        for (EnumGranularity granularity : EnumGranularity.values()) {
+            TrafficRollup rollup = rollup("camera-1", granularity);
+            assertEquals(1, rollup.getFrames(), granularity.name());
+            assertEquals(3, rollup.getTotal());
+            assertEquals(Map.of("3", 1L), rollup.getHistogram());
+            assertEquals(Map.of("Car", 2L, "Bus", 1L), rollup.getLabels());
+            assertNotNull(rollup.getUpdatedAt());
+        }
+
+        // Reprocessed, only the first car is left
+        rollups.record(image("camera-1", DETECTIONS.subList(0, 1)), DETECTIONS);
+        for (EnumGranularity granularity : EnumGranularity.values()) {
+            TrafficRollup rollup = rollup("camera-1", granularity);
+            assertEquals(1, rollup.getFrames(), granularity.name());
+            assertEquals(1, rollup.getTotal());
+            assertEquals(Map.of("1", 1L, "3", 0L), rollup.getHistogram());
+            assertEquals(Map.of("Car", 1L, "Bus", 0L), rollup.getLabels());
+            // Cannot be taken back
+            assertEquals(3, rollup.getMax());
+        }
+    }
+
+    @Test
+    void retryAfterAFailedRollupCountsTheDetectionsThatWereMissed() {
+        MongoTemplate mongoTemplate = mongo.getMongoTemplate();
+        RollupService rollups = new RollupService(mongoTemplate, mongo.getRepository(TrafficRollupRepository.class)) {
+            private boolean failed;
+
+            @Override
+            public void record(Image image, List<Detection> previousDetections) {
+                if (!failed) {
+                    failed = true;
+                    throw new DataAccessResourceFailureException("Timed out");
+                }
+                super.record(image, previousDetections);
+            }
+        };
+        ImageService images = new ImageService(null, mongoTemplate,
+                event -> rollups.onDetectionsSaved((DetectionsSavedEvent) event),
+                null, null, null, null, null, null, new SimpleMeterRegistry(), false);
+        Image image = mongoTemplate.insert(image("camera-2", null));
+
+        assertThrows(DataAccessResourceFailureException.class, () -> images.saveDetections(image.getId(), DETECTIONS, null));
+        Image marked = mongoTemplate.findById(image.getId(), Image.class);
+        assertTrue(marked.getRollupPending());
+        assertNull(marked.getRollupDetections());
+
+        // The retry nets against the mark, not against the detections the rollups never saw
+        assertTrue(images.saveDetections(image.getId(), DETECTIONS, null));
+        TrafficRollup minute = rollup("camera-2", EnumGranularity.MINUTE);
+        assertEquals(1, minute.getFrames());
+        assertEquals(Map.of("Car", 2L, "Bus", 1L), minute.getLabels());
+        assertNull(mongoTemplate.findById(image.getId(), Image.class).getRollupPending());
+    }
+}
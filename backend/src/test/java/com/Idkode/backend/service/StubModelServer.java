@@ -0,0 +1,88 @@
+package com.Idkode.backend.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the detection model. Each request takes the next scripted response,
+ * and answers with one detection once the script runs out.
+ */
+class StubModelServer implements AutoCloseable {
+
+    static final String DETECTIONS =
+            "{\"detections\":[{\"confidence\":0.9,\"label\":2,\"x1\":1.0,\"y1\":2.0,\"x2\":3.0,\"y2\":4.0}]}";
+
+    private final HttpServer server;
+    private final Deque<Response> script = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String lastBody = "";
+
+    record Response(int status, String body, long delayMillis) {
+    }
+
+    StubModelServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/detect", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/detect";
+    }
+
+    StubModelServer then(int status, String body) {
+        script.add(new Response(status, body, 0));
+        return this;
+    }
+
+    StubModelServer thenHang(long delayMillis) {
+        script.add(new Response(200, DETECTIONS, delayMillis));
+        return this;
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    String lastBody() {
+        return lastBody;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        lastBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1);
+        Response response = script.poll();
+        if (response == null)
+            response = new Response(200, DETECTIONS, 0);
+        if (response.delayMillis() > 0) {
+            try {
+                Thread.sleep(response.delayMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        try (OutputStream output = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(response.status(), body.length);
+            output.write(body);
+        } catch (IOException e) {
+            // The client gave up waiting
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,43 @@
+package com.Idkode.backend.service.analytics;
+
+import com.Idkode.backend.entity.TrafficRollup;
+import com.Idkode.backend.entity.enumeration.EnumGranularity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficAnalyticsServiceTest {
+
+    /** A Wednesday */
+    private static final LocalDateTime DAY = LocalDateTime.of(2025, 5, 7, 8, 0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final TrafficAnalyticsService analytics = new TrafficAnalyticsService(null, meterRegistry, true,
+            new int[]{5, 15, 60}, 3.0, 0.05, 30, 1.5, 120, 5000, 10);
+
+    private static TrafficRollup minute(int minute, long frames, long cars) {
+        LocalDateTime bucket = DAY.plusMinutes(minute);
+        return new TrafficRollup("camera-1|MINUTE|" + bucket, "camera-1", EnumGranularity.MINUTE, bucket,
+                frames, cars, null, null, Map.of("Car", cars), Instant.parse("2025-05-07T08:00:00Z").plusSeconds(minute));
+    }
+
+    @Test
+    void anomalyIsDroppedOnceLateFramesComeIn() {
+        for (int minute = 0; minute < 40; minute++)
+            analytics.ingest(minute(minute, 10, 20 + minute % 2 * 10));
+
+        // Only 2 of the 10 frames of the minute were detected in time
+        analytics.ingest(minute(40, 2, 0));
+        assertEquals(2, analytics.getAnomalies("camera-1", 10).size());
+
+        analytics.ingest(minute(40, 10, 25));
+        assertTrue(analytics.getAnomalies("camera-1", 10).isEmpty());
+        assertEquals(2.5, analytics.getAnalytics("camera-1").get(0).getMovingAverages().get(5), 1e-9);
+    }
+}
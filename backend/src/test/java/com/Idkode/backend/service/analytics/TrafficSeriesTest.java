@@ -0,0 +1,83 @@
+package com.Idkode.backend.service.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficSeriesTest {
+
+    /** A Wednesday */
+    private static final LocalDateTime DAY = LocalDateTime.of(2025, 5, 7, 0, 0);
+
+    @Test
+    void averagesTheLastMinutes() {
+        TrafficSeries series = new TrafficSeries();
+        for (int minute = 0; minute < 90; minute++)
+            series.add(DAY.plusMinutes(minute), 10, minute < 80 ? 10 : 30, 0.05, 30);
+
+        assertEquals(3.0, series.movingAverage(5), 1e-9);
+        assertEquals(2.0, series.movingAverage(20), 1e-9);
+        assertEquals(DAY.plusMinutes(89), series.getLastMinute());
+    }
+
+    @Test
+    void flagsMinutesFarFromTheirHour() {
+        TrafficSeries series = new TrafficSeries();
+        for (int minute = 0; minute < 59; minute++)
+            assertNotEquals(Boolean.TRUE, isAnomaly(series.add(DAY.plusHours(8).plusMinutes(minute), 10, 20 + minute % 2 * 10, 0.05, 30)));
+
+        Double zScore = series.add(DAY.plusHours(8).plusMinutes(59), 10, 120, 0.05, 30);
+
+        assertTrue(isAnomaly(zScore), String.valueOf(zScore));
+    }
+
+    @Test
+    void comparesWithTheDayAndWeekBefore() {
+        TrafficSeries series = new TrafficSeries();
+        for (int day : new int[]{0, 6, 7}) {
+            for (int hour = 0; hour < 24; hour++) {
+                int vehicles = (day == 7 ? 12 : 10) * (hour == 8 || hour == 18 ? 3 : 1);
+                series.add(DAY.plusDays(day).plusHours(hour), 10, vehicles, 0.05, 30);
+            }
+        }
+
+        assertEquals(0.2, series.change(1), 1e-9);
+        assertEquals(0.2, series.change(7), 1e-9);
+        assertEquals(List.of(8, 18), series.peakHours(1.5));
+        assertEquals(8, series.peakHour());
+    }
+
+    @Test
+    void lateFramesReviseTheirMinute() {
+        TrafficSeries series = new TrafficSeries();
+        for (int minute = 0; minute < 10; minute++)
+            series.add(DAY.plusHours(8).plusMinutes(minute), 10, 20, 0.05, 30);
+        Double before = series.baselineMean();
+
+        // Half the frames of minute 5 were still queued when it was first read
+        series.add(DAY.plusHours(8).plusMinutes(5), 20, 60, 0.05, 30);
+
+        assertEquals(DAY.plusHours(8).plusMinutes(9), series.getLastMinute());
+        assertEquals((4 * 20 + 60) / 60.0, series.movingAverage(5), 1e-9);
+        assertEquals((9 * 20 + 60) / 110.0, series.hourlyAverages()[8], 1e-9);
+        assertEquals(before + 0.05 * (3 - 2), series.baselineMean(), 1e-9);
+    }
+
+    @Test
+    void minutesTooFarBehindAreDropped() {
+        TrafficSeries series = new TrafficSeries();
+        series.add(DAY.plusHours(1), 10, 10, 0.05, 30);
+        series.add(DAY.plusHours(8), 10, 10, 0.05, 30);
+
+        // Whether it was counted before is no longer known, counting it again could count it twice
+        assertNull(series.add(DAY.plusHours(1), 20, 100, 0.05, 30));
+        assertEquals(1.0, series.hourlyAverages()[1], 1e-9);
+    }
+
+    private static Boolean isAnomaly(Double zScore) {
+        return zScore == null ? null : Math.abs(zScore) >= 3;
+    }
+}
@@ -0,0 +1,91 @@
+package com.Idkode.backend.service.rules;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CameraRuleRegistryTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+
+    /**
+     * Writes the rules file with a later modification time than the previous write, as an edit would
+     */
+    private void write(String json, int minutes) throws IOException {
+        Files.writeString(file, json);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse("2025-01-01T00:00:00Z").plusSeconds(60L * minutes)));
+    }
+
+    @Test
+    void camerasInheritTheDefaultsOfTheFile() throws IOException {
+        file = directory.resolve("camera-rules.json");
+        write("""
+                {"defaults": {"minConfidence": 0.3, "labels": ["Car", "Bus"]},
+                 "cameras": {"camera-1": {"minConfidence": 0.6, "maxWidth": 640}}}
+                """, 0);
+        CameraRuleRegistry registry = new CameraRuleRegistry(new ObjectMapper(), file.toString());
+
+        CameraRule rule = registry.forCamera("camera-1");
+        assertEquals(0.6, rule.getMinConfidence());
+        assertEquals(Set.of("Car", "Bus"), rule.getLabels());
+        assertEquals(640, rule.getMaxWidth());
+        assertEquals(0.3, registry.forCamera("camera-2").getMinConfidence());
+        assertEquals(0.3, registry.forCamera(null).getMinConfidence());
+    }
+
+    @Test
+    void malformedFileKeepsThePreviousRules() throws IOException {
+        file = directory.resolve("camera-rules.json");
+        write("{\"cameras\": {\"camera-1\": {\"minConfidence\": 0.6}}}", 0);
+        CameraRuleRegistry registry = new CameraRuleRegistry(new ObjectMapper(), file.toString());
+        assertEquals(0.6, registry.forCamera("camera-1").getMinConfidence());
+
+        // Saved half way through an edit
+        write("{\"cameras\": {\"camera-1\": {\"minConfidence\": 0.", 1);
+        registry.reload();
+        assertEquals(0.6, registry.forCamera("camera-1").getMinConfidence());
+
+        write("{\"cameras\": {\"camera-1\": {\"minConfidence\": \"high\"}}}", 2);
+        registry.reload();
+        assertEquals(0.6, registry.forCamera("camera-1").getMinConfidence());
+
+        // Once fixed, the file is picked up
+        write("{\"cameras\": {\"camera-1\": {\"minConfidence\": 0.7}}}", 3);
+        registry.reload();
+        assertEquals(0.7, registry.forCamera("camera-1").getMinConfidence());
+    }
+
+    @Test
+    void deletedFileKeepsThePreviousRules() throws IOException {
+        file = directory.resolve("camera-rules.json");
+        write("{\"defaults\": {\"minConfidence\": 0.4}}", 0);
+        CameraRuleRegistry registry = new CameraRuleRegistry(new ObjectMapper(), file.toString());
+
+        Files.delete(file);
+        registry.reload();
+        assertEquals(0.4, registry.forCamera("camera-1").getMinConfidence());
+    }
+
+    @Test
+    void withoutAFileEveryCameraGetsAnEmptyRule() {
+        CameraRuleRegistry registry = new CameraRuleRegistry(new ObjectMapper(), "");
+        CameraRule rule = registry.forCamera("camera-1");
+        assertNull(rule.getMinConfidence());
+        assertFalse(rule.transformsFrame());
+
+        assertNull(new CameraRuleRegistry(new ObjectMapper(), directory.resolve("missing.json").toString())
+                .forCamera("camera-1").getMinConfidence());
+    }
+}
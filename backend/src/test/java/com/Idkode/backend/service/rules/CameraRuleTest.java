@@ -0,0 +1,82 @@
+package com.Idkode.backend.service.rules;
+
+import com.Idkode.backend.entity.Detection;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CameraRuleTest {
+
+    private static Detection box(String label, double confidence, double x1, double y1, double x2, double y2) {
+        return new Detection(confidence, label, x1, y1, x2, y2);
+    }
+
+    private static List<String> labels(List<Detection> detections) {
+        return detections.stream().map(Detection::getLabel).toList();
+    }
+
+    @Test
+    void labelsAreKeptByTheAllowListThenDroppedByTheDenyList() {
+        CameraRule rule = new CameraRule();
+        rule.setLabels(Set.of("Car", "Bus", "Person"));
+        rule.setExcludedLabels(Set.of("Person"));
+        rule = rule.withDefaults(new CameraRule());
+
+        List<Detection> detections = List.of(box("Car", 0.9, 0, 0, 1, 1), box("Truck", 0.9, 0, 0, 1, 1),
+                box("Person", 0.9, 0, 0, 1, 1), box("Bus", 0.9, 0, 0, 1, 1));
+        assertEquals(List.of("Car", "Bus"), labels(rule.filter(detections)));
+
+        // Without an allow list only the excluded labels go
+        CameraRule denyOnly = new CameraRule();
+        denyOnly.setExcludedLabels(Set.of("Person"));
+        assertEquals(List.of("Car", "Truck", "Bus"), labels(denyOnly.withDefaults(new CameraRule()).filter(detections)));
+    }
+
+    @Test
+    void cameraSettingsTakePrecedenceOverTheDefaults() {
+        CameraRule defaults = new CameraRule();
+        defaults.setMinConfidence(0.5);
+        defaults.setExcludedLabels(Set.of("Person"));
+        defaults.setMaxWidth(640);
+
+        CameraRule strict = new CameraRule();
+        strict.setMinConfidence(0.8);
+        CameraRule lenient = new CameraRule();
+        lenient.setMinConfidence(0.0);
+        lenient.setExcludedLabels(Set.of());
+        CameraRule inherits = new CameraRule();
+
+        List<Detection> detections = List.of(box("Car", 0.9, 0, 0, 1, 1), box("Bus", 0.6, 0, 0, 1, 1),
+                box("Car", 0.1, 0, 0, 1, 1), box("Person", 0.95, 0, 0, 1, 1));
+        assertEquals(List.of("Car"), labels(strict.withDefaults(defaults).filter(detections)));
+        assertEquals(List.of("Car", "Bus", "Car", "Person"), labels(lenient.withDefaults(defaults).filter(detections)));
+        assertEquals(List.of("Car", "Bus"), labels(inherits.withDefaults(defaults).filter(detections)));
+        assertEquals(640, inherits.withDefaults(defaults).getMaxWidth());
+    }
+
+    @Test
+    void boxesAreKeptByTheirCenterInTheRoadArea() {
+        // A triangle, so a box can sit inside the bounds of the area but outside the area itself
+        CameraRule rule = new CameraRule();
+        rule.setRoi(List.of(new double[]{0, 0}, new double[]{100, 0}, new double[]{0, 100}));
+        rule = rule.withDefaults(new CameraRule());
+
+        assertEquals(1, rule.filter(List.of(box("Car", 0.9, 10, 10, 30, 30))).size());
+        // Reaching past the edge of the area, its center still inside
+        assertEquals(1, rule.filter(List.of(box("Car", 0.9, 20, 20, 70, 40))).size());
+        assertEquals(0, rule.filter(List.of(box("Car", 0.9, 60, 60, 90, 90))).size());
+        assertTrue(rule.transformsFrame());
+    }
+
+    @Test
+    void detectionWithoutConfidenceFailsAMinimum() {
+        CameraRule rule = new CameraRule();
+        rule.setMinConfidence(0.3);
+        Detection unknown = new Detection(null, "Car", 0.0, 0.0, 1.0, 1.0);
+        assertTrue(rule.withDefaults(new CameraRule()).filter(List.of(unknown)).isEmpty());
+        assertEquals(1, new CameraRule().withDefaults(new CameraRule()).filter(List.of(unknown)).size());
+    }
+}
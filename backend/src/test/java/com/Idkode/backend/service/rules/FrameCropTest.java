@@ -0,0 +1,98 @@
+package com.Idkode.backend.service.rules;
+
+import com.Idkode.backend.entity.Detection;
+import com.Idkode.backend.service.AnnotationRenderer;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameCropTest {
+
+    private static final AnnotationRenderer RENDERER = new AnnotationRenderer(0.85f, 0);
+
+    private static CameraRule rule(List<double[]> roi, Integer maxWidth) {
+        CameraRule rule = new CameraRule();
+        rule.setRoi(roi);
+        rule.setMaxWidth(maxWidth);
+        return rule.withDefaults(new CameraRule());
+    }
+
+    private static List<double[]> rectangle(double x1, double y1, double x2, double y2) {
+        return List.of(new double[]{x1, y1}, new double[]{x2, y1}, new double[]{x2, y2}, new double[]{x1, y2});
+    }
+
+    @Test
+    void cropIsScaledThenBoxesAreScaledBackBeforeBeingTranslated() throws IOException {
+        FrameCrop crop = FrameCrop.of(jpeg(640, 360), rule(rectangle(100, 50, 500, 250), 200), RENDERER);
+
+        assertEquals(100, crop.offsetX());
+        assertEquals(50, crop.offsetY());
+        assertEquals(0.5, crop.scale());
+        BufferedImage sent = AnnotationRenderer.decode(crop.image());
+        assertEquals(200, sent.getWidth());
+        assertEquals(100, sent.getHeight());
+
+        Detection box = crop.toFrame(List.of(new Detection(0.9, "Car", 10.0, 20.0, 60.0, 40.0))).get(0);
+        assertEquals(120.0, box.getX1());
+        assertEquals(90.0, box.getY1());
+        assertEquals(220.0, box.getX2());
+        assertEquals(130.0, box.getY2());
+        assertEquals(0.9, box.getConfidence());
+        assertEquals("Car", box.getLabel());
+    }
+
+    @Test
+    void boxCutByTheCropEdgeEndsAtTheRoiEdge() throws IOException {
+        FrameCrop crop = FrameCrop.of(jpeg(640, 360), rule(rectangle(100, 50, 500, 250), 200), RENDERER);
+
+        // The model only sees the crop, so a vehicle half out of it comes back cut at the crop border
+        Detection box = crop.toFrame(List.of(new Detection(0.9, "Car", 0.0, 0.0, 200.0, 100.0))).get(0);
+        assertEquals(100.0, box.getX1());
+        assertEquals(50.0, box.getY1());
+        assertEquals(500.0, box.getX2());
+        assertEquals(250.0, box.getY2());
+    }
+
+    @Test
+    void roiReachingPastTheFrameIsClippedToIt() throws IOException {
+        FrameCrop crop = FrameCrop.of(jpeg(640, 360), rule(rectangle(-50, 200, 800, 500), null), RENDERER);
+
+        assertEquals(0, crop.offsetX());
+        assertEquals(200, crop.offsetY());
+        assertEquals(1.0, crop.scale());
+        BufferedImage sent = AnnotationRenderer.decode(crop.image());
+        assertEquals(640, sent.getWidth());
+        assertEquals(160, sent.getHeight());
+    }
+
+    @Test
+    void roiOutsideTheFrameSendsTheWholeFrame() throws IOException {
+        FrameCrop crop = FrameCrop.of(jpeg(640, 360), rule(rectangle(700, 400, 900, 500), null), RENDERER);
+
+        assertEquals(0, crop.offsetX());
+        assertEquals(0, crop.offsetY());
+        assertEquals(640, AnnotationRenderer.decode(crop.image()).getWidth());
+    }
+
+    @Test
+    void scaleOnlyRuleKeepsTheWholeFrame() throws IOException {
+        FrameCrop crop = FrameCrop.of(jpeg(640, 360), rule(null, 320), RENDERER);
+
+        assertEquals(0.5, crop.scale());
+        Detection box = crop.toFrame(List.of(new Detection(0.9, "Bus", 10.0, 10.0, 20.0, 30.0))).get(0);
+        assertEquals(20.0, box.getX1());
+        assertEquals(60.0, box.getY2());
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", out);
+        return out.toByteArray();
+    }
+}
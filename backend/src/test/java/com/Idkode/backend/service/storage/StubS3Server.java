@@ -0,0 +1,109 @@
+package com.Idkode.backend.service.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for an S3-compatible store such as MinIO: path-style PUT, GET, HEAD and DELETE kept in memory.
+ * Requests whose signature or payload hash does not match are refused with 403, as S3 would.
+ */
+class StubS3Server implements AutoCloseable {
+
+    static final String REGION = "us-east-1";
+    static final String ACCESS_KEY = "minio";
+    static final String SECRET_KEY = "minio-secret";
+
+    private final HttpServer server;
+    private final SigV4Signer signer = new SigV4Signer(REGION, ACCESS_KEY, SECRET_KEY);
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final AtomicInteger puts = new AtomicInteger();
+
+    StubS3Server() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    Map<String, byte[]> objects() {
+        return objects;
+    }
+
+    int puts() {
+        return puts.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getRawPath();
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        if (!signed(exchange, path, body)) {
+            respond(exchange, 403, new byte[0]);
+            return;
+        }
+        switch (exchange.getRequestMethod()) {
+            case "PUT" -> {
+                puts.incrementAndGet();
+                objects.put(path, body);
+                respond(exchange, 200, new byte[0]);
+            }
+            case "GET" -> {
+                byte[] object = objects.get(path);
+                respond(exchange, object == null ? 404 : 200, object == null ? new byte[0] : object);
+            }
+            case "HEAD" -> {
+                byte[] object = objects.get(path);
+                if (object != null) {
+                    exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.length));
+                    exchange.getResponseHeaders().add("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT");
+                }
+                exchange.sendResponseHeaders(object == null ? 404 : 200, -1);
+                exchange.close();
+            }
+            case "DELETE" -> {
+                objects.remove(path);
+                respond(exchange, 204, new byte[0]);
+            }
+            default -> respond(exchange, 405, new byte[0]);
+        }
+    }
+
+    private boolean signed(HttpExchange exchange, String path, byte[] body) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String payloadHash = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        String date = exchange.getRequestHeaders().getFirst("x-amz-date");
+        if (authorization == null || payloadHash == null || date == null || !payloadHash.equals(SigV4Signer.sha256Hex(body)))
+            return false;
+        SortedMap<String, String> headers = new TreeMap<>();
+        headers.put("host", exchange.getRequestHeaders().getFirst("Host"));
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", date);
+        return authorization.equals(signer.authorization(exchange.getRequestMethod(), path, "", headers, payloadHash));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        try (OutputStream output = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            if (body.length > 0)
+                output.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
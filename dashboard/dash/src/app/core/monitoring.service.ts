@@ -10,6 +10,39 @@ export interface ImageDTO {
   time: number; // Minutes since the start of the day
 }
 
+export interface LiveEventDTO {
+  id: string;
+  camera: string;
+  datetime: string;
+  time: number; // Minutes since the start of the day
+  number: number;
+  labels: {[label: string]: number};
+}
+
+export interface TrafficAnalyticsDTO {
+  camera: string;
+  label: string; // A vehicle label, or "total"
+  asOf: string;
+  movingAverages: {[minutes: string]: number | null}; // Vehicles per frame over the last N minutes
+  baselineMean: number | null;
+  baselineStd: number | null;
+  zScore: number | null;
+  anomaly: boolean;
+  peakHour: number | null;
+  peakHours: number[];
+  dayOverDay: number | null; // 0.1 for 10% more than yesterday
+  weekOverWeek: number | null;
+}
+
+export interface TrafficAnomalyDTO {
+  camera: string;
+  label: string;
+  minute: string;
+  value: number;
+  expected: number | null;
+  zScore: number;
+}
+
 export interface ImageFullDTO {
   camera: string;
   datetime: string;
@@ -98,6 +131,52 @@ export class MonitoringService {
     );
   }
 
+  /**
+   * Follows the detections of a camera as they are saved, instead of polling
+   * @param camera Selected camera
+   * @returns The events of new images. Unsubscribing closes the connection
+   */
+  liveFeed(camera: string): Observable<LiveEventDTO> {
+    return new Observable<LiveEventDTO>(subscriber => {
+      const source = new EventSource(`${this.apiUrl}/image/live?camera=${encodeURIComponent(camera)}`);
+      source.addEventListener('detections', event => {
+        subscriber.next(JSON.parse((event as MessageEvent).data));
+      });
+      return () => source.close();
+    });
+  }
+
+  /**
+   * Gets the latest detected image of every camera, for the home view
+   * @returns One event per camera, by camera name
+   */
+  getLatest(): Observable<LiveEventDTO[]> {
+    return this.http.get<LiveEventDTO[]>(`${this.apiUrl}/image/latest`);
+  }
+
+  /**
+   * Gets the traffic analytics of a camera, computed by the backend as detections arrive
+   * @param camera Selected camera
+   * @returns The analytics of all vehicles first, then of each label
+   */
+  getAnalytics(camera: string): Observable<TrafficAnalyticsDTO[]> {
+    const params = new HttpParams().set('camera', camera);
+    return this.http.get<TrafficAnalyticsDTO[]>(`${this.apiUrl}/image/analytics`, { params: params });
+  }
+
+  /**
+   * Gets the latest anomalous minutes
+   * @param camera Selected camera, or every camera when omitted
+   * @returns The anomalies, newest first
+   */
+  getAnomalies(camera?: string): Observable<TrafficAnomalyDTO[]> {
+    let params = new HttpParams();
+    if (camera) {
+      params = params.set('camera', camera);
+    }
+    return this.http.get<TrafficAnomalyDTO[]>(`${this.apiUrl}/image/analytics/anomalies`, { params: params });
+  }
+
   /**
    * Gets all available camera names
    * @param date Monitoring date
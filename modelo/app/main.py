@@ -1,6 +1,7 @@
 from fastapi import FastAPI, File, UploadFile, HTTPException
 from PIL import Image
 from ultralytics import YOLO
+from typing import List
 import os
 
 
@@ -12,6 +13,28 @@ device = os.environ.get("DEVICE", 'cpu')
 app = FastAPI()
 
 
+def to_detections(result) -> list:
+    """
+    Converts the boxes of one YOLO result into the detection payload.
+    """
+    detections = []
+    for box in result.boxes:
+        x1, y1, x2, y2 = map(float, box.xyxy[0])
+        class_id = int(box.cls[0])
+        pred_conf = float(box.conf[0])
+        detections.append(
+            {
+                "confidence": pred_conf,
+                "label": class_id,
+                "x1": x1,
+                "x2": x2,
+                "y1": y1,
+                "y2": y2
+            }
+        )
+    return detections
+
+
 @app.post("/detect")
 async def analyze_image(file: UploadFile = File(...)) -> dict:
     """
@@ -30,21 +53,7 @@ async def analyze_image(file: UploadFile = File(...)) -> dict:
 
         if results:
             for result in results:
-                boxes = result.boxes
-                for box in boxes:
-                    x1, y1, x2, y2 = map(float, box.xyxy[0])
-                    class_id = int(box.cls[0])
-                    pred_conf = float(box.conf[0])
-                    detections.append(
-                        {
-                            "confidence": pred_conf,
-                            "label": class_id,
-                            "x1": x1,
-                            "x2": x2,
-                            "y1": y1,
-                            "y2": y2
-                        }
-                    )
+                detections.extend(to_detections(result))
             print(detections)        
         return {
             "detections": detections
@@ -53,6 +62,36 @@ async def analyze_image(file: UploadFile = File(...)) -> dict:
         raise HTTPException(status_code=500, detail=f"Error processing image: {e}")
 
 
+@app.post("/detect/batch")
+async def analyze_images(files: List[UploadFile] = File(...)) -> dict:
+    """
+    Receives several image files and runs them through the model in a
+    single call. Each result carries the filename sent by the client as id.
+    """
+    for file in files:
+        if not file.content_type.startswith("image/"):
+            raise HTTPException(status_code=400, detail="Invalid file type." +
+                                " Only images are allowed.")
+
+    try:
+        images = [Image.open(file.file).convert('RGB') for file in files]
+        results = model.predict(images,
+                                conf=conf,
+                                device=device)
+
+        return {
+            "results": [
+                {
+                    "id": file.filename,
+                    "detections": to_detections(result)
+                }
+                for file, result in zip(files, results)
+            ]
+        }
+    except Exception as e:
+        raise HTTPException(status_code=500, detail=f"Error processing images: {e}")
+
+
 if __name__ == '__main__':
     import uvicorn
     host = os.environ.get("UVICORN_HOST", "127.0.0.1")
@@ -2,17 +2,22 @@ import requests
 import os
 import mimetypes
 import logging
+from contextlib import ExitStack
 
 
 class BackendIntegration:
     """A class to deal with connection to backend endpoints.
     Needs the env variables 'SERVER_URL' and 'SERVER_IMAGE_ENDPOINT'
     to comunicate.
+    'SERVER_BATCH_ENDPOINT' is optional, when set frames are sent
+    in batches with send_batch.
     """
 
     def __init__(self):
         self.__server_url: str = os.environ.get('SERVER_URL')  # Backend url
         self.__endpoint: str = os.environ.get('SERVER_IMAGE_ENDPOINT')  # Endpoint for uploading images
+        self.__batch_endpoint: str = os.environ.get('SERVER_BATCH_ENDPOINT')  # Endpoint for uploading many images
+        self.__session = requests.Session()
 
     @property
     def is_valid(self) -> bool:
@@ -40,3 +45,42 @@ class BackendIntegration:
                 logging.error(f'Image {image.name} could not be sent to' +
                               f' server due to {e}')
                 return False
+
+    @property
+    def supports_batch(self) -> bool:
+        return self.__batch_endpoint is not None
+
+    def send_batch(self, items: list[dict]) -> list[bool]:
+        """Sends many images in a single request.
+        Returns whether each item was accepted, in the same order.
+        """
+        logging.info(f'sending batch of {len(items)} images to backend')
+        with ExitStack() as stack:
+            files = []
+            for item in items:
+                image = stack.enter_context(open(item['name'], mode='rb'))
+                type = mimetypes.guess_type(image.name)[0]
+                files.append(('image', (image.name, image, type)))
+            data = {key: [item[key] for item in items]
+                    for key in ('name', 'camera', 'date', 'time')}
+
+            try:
+                response = self.__session.post(
+                    self.__server_url + self.__batch_endpoint,
+                    files=files,
+                    data=data)
+                response.raise_for_status()
+            except requests.exceptions.RequestException as e:
+                logging.error(f'Batch of {len(items)} images could not be' +
+                              f' sent to server due to {e}')
+                return [False] * len(items)
+
+        accepted = [False] * len(items)
+        for result in response.json():
+            if not result.get('error'):
+                accepted[result['index']] = True
+            else:
+                logging.error(f'Image {items[result["index"]]["name"]} was' +
+                              f' not accepted: {result["error"]}')
+        logging.info(f'{sum(accepted)} of {len(items)} images sent to the server')
+        return accepted
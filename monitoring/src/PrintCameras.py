@@ -7,6 +7,8 @@ import multiprocessing
 import os
 import logging
 
+BATCH_SIZE = 50  # Frames per request when sending in batches
+
 
 class PrintCameras:
     """A class to access and print one 
@@ -103,6 +105,9 @@ class PrintCameras:
             index += 1
 
     def __send_queue_data(self, queue: multiprocessing.Queue):
+        if self.__backend.supports_batch:
+            self.__send_queue_batch(queue)
+            return
         while True:
             try:
                 item: dict = queue.get(block=False)
@@ -113,6 +118,24 @@ class PrintCameras:
                 logging.error(e)
                 return
 
+    def __send_queue_batch(self, queue: multiprocessing.Queue):
+        items: list[dict] = []
+        while True:
+            try:
+                items.append(queue.get(block=False))
+            except Exception:
+                break
+        for start in range(0, len(items), BATCH_SIZE):
+            batch = items[start:start + BATCH_SIZE]
+            try:
+                results = self.__backend.send_batch(batch)
+            except Exception as e:
+                logging.error(e)
+                continue
+            for item, result in zip(batch, results):
+                if result:
+                    utils.delete_path(item['name'])
+
     def __print_camera(self, camera: str, timestamp: datetime = None,
                        queue: multiprocessing.Queue = None) -> None:
         if self.__camera_interval > 0: